@@ -0,0 +1,135 @@
+/*
+ *    Battleships PC client with GFX multi-player game support
+ *    Copyright (C) 2021 Igor Maznitsa
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package com.igormaznitsa.battleships.benchmarks;
+
+import com.igormaznitsa.battleships.gui.panels.GameField;
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Ship arrangement of the player field: auto placing of the whole fleet, removing of all ships by
+ * one cell of every ship, as the arrangement screen does on reset, and whole field operations of
+ * the arrangement screen on the arranged field.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GameFieldBenchmark {
+
+  private final GameField field = new GameField();
+  private final GameField.CellState[] arranged =
+      new GameField.CellState[GameField.FIELD_EDGE * GameField.FIELD_EDGE];
+  private final List<Point> shipCells = new ArrayList<>();
+  private Point placeholderStart;
+  private Point placeholderEnd;
+
+  @Setup
+  public void setup() {
+    this.field.reset();
+    this.field.autoPlacingFreeShips();
+    for (int i = 0; i < this.arranged.length; i++) {
+      this.arranged[i] = this.field.getState(i % GameField.FIELD_EDGE, i / GameField.FIELD_EDGE);
+    }
+    // one cell of every ship, the field is restored before every removal
+    for (int i = 0; i < this.arranged.length; i++) {
+      final Point cell = new Point(i % GameField.FIELD_EDGE, i / GameField.FIELD_EDGE);
+      if (this.field.getState(cell.x, cell.y) == GameField.CellState.SHIP) {
+        this.field.tryRemoveShipAt(cell);
+        this.shipCells.add(cell);
+      }
+    }
+    this.restore();
+    for (int cells = 1; cells <= 4; cells++) {
+      this.field.increaseFreeShips(cells);
+    }
+    // the longest horizontal run of empty cells
+    int bestLength = 0;
+    for (int y = 0; y < GameField.FIELD_EDGE; y++) {
+      int length = 0;
+      for (int x = 0; x < GameField.FIELD_EDGE; x++) {
+        length = this.field.getState(x, y) == GameField.CellState.EMPTY ? length + 1 : 0;
+        if (length > bestLength) {
+          bestLength = length;
+          this.placeholderStart = new Point(x - length + 1, y);
+          this.placeholderEnd = new Point(x, y);
+        }
+      }
+    }
+  }
+
+  private void restore() {
+    for (int i = 0; i < this.arranged.length; i++) {
+      this.field.setState(i % GameField.FIELD_EDGE, i / GameField.FIELD_EDGE, this.arranged[i]);
+    }
+  }
+
+  @Benchmark
+  public GameField autoPlacingFreeShips() {
+    this.field.reset();
+    this.field.autoPlacingFreeShips();
+    return this.field;
+  }
+
+  @Benchmark
+  public GameField restoreArrangement() {
+    this.restore();
+    return this.field;
+  }
+
+  @Benchmark
+  public GameField ensureBanAroundShips() {
+    this.field.ensureBanAroundShips();
+    return this.field;
+  }
+
+  @Benchmark
+  public boolean hasTarget() {
+    return this.field.hasTarget();
+  }
+
+  @Benchmark
+  public boolean placeholder() {
+    // the mouse drag over the field draws and clears a placeholder
+    final boolean result =
+        this.field.tryMakePlaceholder(this.placeholderStart, this.placeholderEnd);
+    this.field.clearPlaceholder();
+    return result;
+  }
+
+  @Benchmark
+  public void tryRemoveShipAt(final Blackhole blackhole) {
+    this.restore();
+    for (final Point cell : this.shipCells) {
+      blackhole.consume(this.field.tryRemoveShipAt(cell));
+    }
+  }
+}
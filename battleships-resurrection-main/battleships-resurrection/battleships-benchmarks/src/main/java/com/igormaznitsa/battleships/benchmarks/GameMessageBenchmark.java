@@ -0,0 +1,110 @@
+/*
+ *    Battleships PC client with GFX multi-player game support
+ *    Copyright (C) 2021 Igor Maznitsa
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package com.igormaznitsa.battleships.benchmarks;
+
+import com.igormaznitsa.battleships.opponent.BsGameEvent;
+import com.igormaznitsa.battleships.opponent.GameEventType;
+import com.igormaznitsa.battleships.opponent.net.UdpMessage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serialization of messages of the LAN game: game events sent over TCP link and UDP broadcast
+ * messages of player discovery.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GameMessageBenchmark {
+
+  private BsGameEvent event;
+  private byte[] eventBytes;
+  private byte[] eventBytesV3;
+  private ByteBuffer directBuffer;
+  private UdpMessage message;
+  private byte[] messageBytes;
+
+  @Setup
+  public void setup() throws IOException {
+    this.event = new BsGameEvent(GameEventType.EVENT_SHOT_REGULAR, 3, 7);
+    this.eventBytes = this.event.asArray();
+    this.eventBytesV3 = this.event.asArray(BsGameEvent.FORMAT_V3);
+    this.directBuffer = ByteBuffer.allocateDirect(1024);
+    this.message = new UdpMessage(1, "c0a80001-5f3e-4b2a-9d21-7e8f1a2b3c4d",
+        UdpMessage.Event.WAITING, "192.168.0.1", 30001, System.currentTimeMillis(),
+        BsGameEvent.FORMAT_V3);
+    this.messageBytes = this.message.asArray();
+  }
+
+  @Benchmark
+  public byte[] gameEventAsArray() throws IOException {
+    return this.event.asArray();
+  }
+
+  @Benchmark
+  public BsGameEvent gameEventFromStream() throws IOException {
+    return new BsGameEvent(new ByteArrayInputStream(this.eventBytes));
+  }
+
+  @Benchmark
+  public byte[] gameEventAsArrayV3() throws IOException {
+    return this.event.asArray(BsGameEvent.FORMAT_V3);
+  }
+
+  @Benchmark
+  public BsGameEvent gameEventFromArrayV3() throws IOException {
+    return BsGameEvent.fromArray(this.eventBytesV3, this.eventBytesV3.length);
+  }
+
+  @Benchmark
+  public ByteBuffer gameEventWriteToDirectBufferV3() throws IOException {
+    this.directBuffer.clear();
+    this.event.writeTo(this.directBuffer, BsGameEvent.FORMAT_V3);
+    return this.directBuffer;
+  }
+
+  @Benchmark
+  public BsGameEvent gameEventFromDirectBufferV3() throws IOException {
+    this.directBuffer.clear();
+    this.directBuffer.put(this.eventBytesV3).flip();
+    return BsGameEvent.fromBuffer(this.directBuffer);
+  }
+
+  @Benchmark
+  public byte[] udpMessageAsArray() throws IOException {
+    return this.message.asArray();
+  }
+
+  @Benchmark
+  public UdpMessage udpMessageFromArray() throws IOException {
+    return new UdpMessage(this.messageBytes);
+  }
+}
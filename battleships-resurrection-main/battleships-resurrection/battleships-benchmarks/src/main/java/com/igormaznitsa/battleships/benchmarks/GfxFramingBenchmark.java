@@ -0,0 +1,159 @@
+/*
+ *    Battleships PC client with GFX multi-player game support
+ *    Copyright (C) 2021 Igor Maznitsa
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package com.igormaznitsa.battleships.benchmarks;
+
+import com.igormaznitsa.battleships.commons.GfxPacketCodec;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Framing of GFX packets in /getoutstream and /getinstream: the legacy field by field
+ * DataOutputStream/DataInputStream way against GfxPacketCodec. Streams write into a sink which
+ * counts write calls, every call is a system call on an unbuffered socket stream.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GfxFramingBenchmark {
+
+  private static final int HEADER = 0xFFCAFE00;
+
+  @Param({"1", "16"})
+  public int packets;
+
+  private OutputStream sink;
+  private WriteCalls calls;
+  private DataOutputStream legacyOut;
+  private GfxPacketCodec encoder;
+  private GfxPacketCodec decoder;
+  private byte[] encoded;
+  private final int[] legacyPacket = new int[5];
+
+  @Setup
+  public void setup() {
+    this.sink = new OutputStream() {
+      @Override
+      public void write(final int b) {
+        GfxFramingBenchmark.this.calls.writeCalls++;
+      }
+
+      @Override
+      public void write(final byte[] data, final int offset, final int length) {
+        GfxFramingBenchmark.this.calls.writeCalls++;
+      }
+    };
+    this.legacyOut = new DataOutputStream(this.sink);
+    this.encoder = new GfxPacketCodec(this.packets, false);
+    this.decoder = new GfxPacketCodec();
+    final ByteBuffer buffer = ByteBuffer.allocate(this.packets * GfxPacketCodec.PACKET_SIZE);
+    for (int i = 0; i < this.packets; i++) {
+      GfxPacketCodec.encode(buffer, 7, i, i * 3, 0);
+    }
+    this.encoded = buffer.array();
+  }
+
+  @Benchmark
+  public void encodeLegacy(final WriteCalls calls) throws IOException {
+    this.calls = calls;
+    for (int i = 0; i < this.packets; i++) {
+      this.legacyOut.writeInt(HEADER);
+      this.legacyOut.writeInt(7);
+      this.legacyOut.writeInt(i);
+      this.legacyOut.writeInt(i * 3);
+      this.legacyOut.writeInt(0);
+      this.legacyOut.writeInt(7 + i + i * 3);
+      this.legacyOut.flush();
+    }
+  }
+
+  @Benchmark
+  public void encodeCodec(final WriteCalls calls) throws IOException {
+    this.calls = calls;
+    for (int i = 0; i < this.packets; i++) {
+      this.encoder.add(7, i, i * 3, 0);
+    }
+    this.encoder.writeTo(this.sink);
+    this.sink.flush();
+  }
+
+  @Benchmark
+  public int decodeLegacy() throws IOException {
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(this.encoded));
+    int sum = 0;
+    for (int i = 0; i < this.packets; i++) {
+      if (in.readInt() != HEADER) {
+        throw new IOException("Wrong header");
+      }
+      for (int j = 0; j < this.legacyPacket.length; j++) {
+        this.legacyPacket[j] = in.readInt();
+      }
+      if (this.legacyPacket[0] + this.legacyPacket[1] + this.legacyPacket[2]
+          + this.legacyPacket[3] != this.legacyPacket[4]) {
+        throw new IOException("Wrong checksum");
+      }
+      sum += this.legacyPacket[1];
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public int decodeCodec() throws IOException {
+    final ByteBuffer in = ByteBuffer.wrap(this.encoded);
+    int sum = 0;
+    for (int i = 0; i < this.packets; i++) {
+      if (this.decoder.decode(in) != GfxPacketCodec.DECODE_PACKET) {
+        throw new IOException("Wrong packet");
+      }
+      sum += this.decoder.getPacket()[1];
+    }
+    return sum;
+  }
+
+  /**
+   * Write calls into the sink, reported per operation.
+   */
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class WriteCalls {
+    public long writeCalls;
+
+    @Setup(Level.Iteration)
+    public void clean() {
+      this.writeCalls = 0L;
+    }
+  }
+}
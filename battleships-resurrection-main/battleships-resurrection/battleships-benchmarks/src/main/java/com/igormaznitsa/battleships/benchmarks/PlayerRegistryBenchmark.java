@@ -0,0 +1,132 @@
+/*
+ *    Battleships PC client with GFX multi-player game support
+ *    Copyright (C) 2021 Igor Maznitsa
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package com.igormaznitsa.battleships.benchmarks;
+
+import com.igormaznitsa.battleships.commons.IntObjectMap;
+import java.util.Hashtable;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Player and session registries of the server, legacy Hashtable with boxed keys against
+ * IntObjectMap, under concurrent lookups and with a writer registering players.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PlayerRegistryBenchmark {
+
+  private static final int KEYS_MASK = 1023;
+  private static final int WRITER_KEYS_BASE = 1_000_000;
+
+  @Param({"100", "1000"})
+  public int players;
+
+  private Hashtable<Integer, Object> hashtable;
+  private IntObjectMap<Object> intMap;
+  private int[] lookupKeys;
+
+  @SuppressWarnings({"deprecation", "removal"})
+  @Setup
+  public void setup() {
+    this.hashtable = new Hashtable<>(10);
+    this.intMap = new IntObjectMap<>(this.players);
+    final Random rnd = new Random(12345L);
+    for (int i = 0; i < this.players; i++) {
+      final Object stream = new Object();
+      this.hashtable.put(new Integer(i + 1), stream);
+      this.intMap.put(i + 1, stream);
+    }
+    this.lookupKeys = new int[KEYS_MASK + 1];
+    for (int i = 0; i < this.lookupKeys.length; i++) {
+      this.lookupKeys[i] = rnd.nextInt(this.players) + 1;
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Cursor {
+    int index;
+    int writerKey;
+
+    int next(final int[] keys) {
+      return keys[this.index++ & KEYS_MASK];
+    }
+  }
+
+  @SuppressWarnings({"deprecation", "removal"})
+  @Benchmark
+  @Threads(4)
+  public Object lookupHashtable(final Cursor cursor) {
+    return this.hashtable.get(new Integer(cursor.next(this.lookupKeys)));
+  }
+
+  @Benchmark
+  @Threads(4)
+  public Object lookupIntObjectMap(final Cursor cursor) {
+    return this.intMap.get(cursor.next(this.lookupKeys));
+  }
+
+  @SuppressWarnings({"deprecation", "removal"})
+  @Benchmark
+  @Group("mixedHashtable")
+  @GroupThreads(3)
+  public Object mixedHashtableReader(final Cursor cursor) {
+    return this.hashtable.get(new Integer(cursor.next(this.lookupKeys)));
+  }
+
+  @SuppressWarnings({"deprecation", "removal"})
+  @Benchmark
+  @Group("mixedHashtable")
+  @GroupThreads(1)
+  public Object mixedHashtableWriter(final Cursor cursor) {
+    final Integer key = new Integer(WRITER_KEYS_BASE + (cursor.writerKey++ & 0xFFFF));
+    this.hashtable.put(key, key);
+    return this.hashtable.remove(key);
+  }
+
+  @Benchmark
+  @Group("mixedIntObjectMap")
+  @GroupThreads(3)
+  public Object mixedIntObjectMapReader(final Cursor cursor) {
+    return this.intMap.get(cursor.next(this.lookupKeys));
+  }
+
+  @Benchmark
+  @Group("mixedIntObjectMap")
+  @GroupThreads(1)
+  public Object mixedIntObjectMapWriter(final Cursor cursor) {
+    final int key = WRITER_KEYS_BASE + (cursor.writerKey++ & 0xFFFF);
+    this.intMap.put(key, cursor);
+    return this.intMap.remove(key);
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ *    Battleships PC client with GFX multi-player game support
+ *    Copyright (C) 2021 Igor Maznitsa
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package com.igormaznitsa.battleships.opponent;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Choice of the next shot by the AI bot on the enemy map of an opening, of a middle game with
+ * misses and of hunting for a hit ship, for every level of the bot. Placed in the package of the
+ * bot because the choice is package-private.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AiTargetingBenchmark {
+
+  private static final int FIELD_EDGE = 10;
+  private static final int MIDDLE_GAME_MISSES = 40;
+
+  @Param({"opening", "middle", "hunting"})
+  public String stage;
+
+  @Param({"NORMAL", "ADVANCED", "HARD"})
+  public String level;
+
+  private AiBattleshipsSingleSessionBot bot;
+
+  @Setup
+  public void setup() {
+    // the thread of the bot is not started
+    this.bot = new AiBattleshipsSingleSessionBot(AiLevel.valueOf(this.level));
+    final Random rnd = new Random(12345L);
+    final boolean[] used = new boolean[FIELD_EDGE * FIELD_EDGE];
+    if (!"opening".equals(this.stage)) {
+      for (int i = 0; i < MIDDLE_GAME_MISSES; i++) {
+        int offset;
+        do {
+          offset = rnd.nextInt(used.length);
+        } while (used[offset]);
+        used[offset] = true;
+        this.bot.markEnemyCellAsMiss(offset % FIELD_EDGE, offset / FIELD_EDGE);
+      }
+    }
+    if ("hunting".equals(this.stage)) {
+      // two hit cells of a horizontal ship with free cells around
+      for (int offset = 0; offset < used.length; offset++) {
+        final int x = offset % FIELD_EDGE;
+        if (x > 0 && x < FIELD_EDGE - 2 && !used[offset - 1] && !used[offset] && !used[offset + 1]
+            && !used[offset + 2]) {
+          this.bot.markEnemyShipAsHit(x, offset / FIELD_EDGE);
+          this.bot.markEnemyShipAsHit(x + 1, offset / FIELD_EDGE);
+          break;
+        }
+      }
+    }
+  }
+
+  @Benchmark
+  public int offerTargetOffset() {
+    return this.bot.offerTargetOffset();
+  }
+}
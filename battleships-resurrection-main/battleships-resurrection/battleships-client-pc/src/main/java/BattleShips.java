@@ -96,7 +96,8 @@ public class BattleShips {
         }
       } else {
         GfxUtils.setApplicationTaskbarTitle(startOptions.getGameIcon().orElse(null), null);
-        selectedOpponent = new AiBattleshipsSingleSessionBot().startPlayer();
+        // not started, the comm daemon calls the bot directly
+        selectedOpponent = new AiBattleshipsSingleSessionBot(selectedData.getAiLevel());
       }
 
       if (selectedOpponent == null) {
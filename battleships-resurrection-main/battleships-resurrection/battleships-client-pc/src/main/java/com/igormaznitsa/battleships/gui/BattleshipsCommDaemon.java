@@ -18,12 +18,17 @@ package com.igormaznitsa.battleships.gui;
 import com.igormaznitsa.battleships.opponent.BattleshipsPlayer;
 import com.igormaznitsa.battleships.opponent.BsGameEvent;
 import com.igormaznitsa.battleships.opponent.GameEventType;
+import com.igormaznitsa.battleships.opponent.SynchronousBattleshipsPlayer;
 import com.igormaznitsa.battleships.utils.Utils;
 
-import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 final class BattleshipsCommDaemon {
@@ -33,6 +38,13 @@ final class BattleshipsCommDaemon {
 
   private final BattleshipsPlayer playerA;
   private final BattleshipsPlayer playerB;
+  // not null if the local player B is called directly in the daemon thread instead of queues
+  private final SynchronousBattleshipsPlayer directPlayerB;
+  private final Consumer<BsGameEvent> outputOfDirectPlayerB = this::onEventFromB;
+  // not null if the direct player B is slow to answer, it is called in own thread and its answers are queued
+  private final ExecutorService executorOfDirectPlayerB;
+  // events of subscribed players, the daemon thread waits on it and routes every event at once
+  private final BlockingQueue<IncomingEvent> incomingEvents = new LinkedBlockingQueue<>();
 
   private final Map<String, Map<String, BsGameEvent>> playerSessionRecords = new HashMap<>();
 
@@ -41,6 +53,14 @@ final class BattleshipsCommDaemon {
     this.playerSessionRecords.put(playerB.getId(), new HashMap<>());
     this.playerA = playerA;
     this.playerB = playerB;
+    this.directPlayerB = !playerB.isRemote() && playerB instanceof SynchronousBattleshipsPlayer
+            ? (SynchronousBattleshipsPlayer) playerB : null;
+    this.executorOfDirectPlayerB = this.directPlayerB != null && this.directPlayerB.isSlowToAnswer()
+            ? Executors.newSingleThreadExecutor(task -> {
+              final Thread thread = new Thread(task, "battleships-player-b");
+              thread.setDaemon(true);
+              return thread;
+            }) : null;
     this.thread = new Thread(this::doRun, "battleships-comm-daemon");
     this.thread.setDaemon(true);
   }
@@ -57,6 +77,13 @@ final class BattleshipsCommDaemon {
     } catch (InterruptedException ex) {
       Thread.currentThread().interrupt();
     }
+    if (this.executorOfDirectPlayerB != null) {
+      this.executorOfDirectPlayerB.shutdownNow();
+    }
+    this.playerA.setGameEventListener(null);
+    if (this.directPlayerB == null) {
+      this.playerB.setGameEventListener(null);
+    }
   }
 
   private static boolean isPlayerAFirstTurn(final BsGameEvent readyA, final BsGameEvent readyB) {
@@ -65,28 +92,56 @@ final class BattleshipsCommDaemon {
     return hashA > hashB;
   }
 
+  private void deliver(final BattleshipsPlayer target, final BsGameEvent event) {
+    if (target == this.playerB && this.executorOfDirectPlayerB != null) {
+      try {
+        this.executorOfDirectPlayerB.execute(() -> this.directPlayerB.processGameEvent(event,
+                e -> this.incomingEvents.add(new IncomingEvent(this.playerB, e))));
+      } catch (RejectedExecutionException ex) {
+        LOGGER.info("Player B is disposed, event is dropped: " + event);
+      }
+    } else if (target == this.playerB && this.directPlayerB != null) {
+      this.directPlayerB.processGameEvent(event, this.outputOfDirectPlayerB);
+    } else {
+      target.pushGameEvent(event);
+    }
+  }
+
+  private void onEventFromB(final BsGameEvent event) {
+    LOGGER.info("Message from B: " + event);
+    if (event.getType().isNotification()) {
+      this.onServiceEvent(this.playerB, event);
+    } else {
+      this.deliver(this.playerA, event);
+    }
+  }
+
+  private void onEventFromA(final BsGameEvent event) {
+    LOGGER.info("Message from A: " + event);
+    if (event.getType().isNotification()) {
+      this.onServiceEvent(this.playerA, event);
+    } else {
+      this.deliver(this.playerB, event);
+    }
+  }
+
   private void doRun() {
     LOGGER.info("Comm-Daemon started");
+    if (this.directPlayerB != null) {
+      LOGGER.info("Player B is called directly");
+      this.directPlayerB.startGame(this.outputOfDirectPlayerB);
+    } else {
+      this.playerB.setGameEventListener(e -> this.incomingEvents.add(new IncomingEvent(this.playerB, e)));
+    }
+    this.playerA.setGameEventListener(e -> this.incomingEvents.add(new IncomingEvent(this.playerA, e)));
     while (!Thread.currentThread().isInterrupted()) {
       try {
-        Optional<BsGameEvent> event = this.playerA.pollGameEvent(Duration.ofMillis(100));
-        event.ifPresent(e -> {
-          LOGGER.info("Message from A: " + e);
-          if (e.getType().isNotification()) {
-            this.onServiceEvent(this.playerA, e);
-          } else {
-            this.playerB.pushGameEvent(e);
-          }
-        });
-        event = this.playerB.pollGameEvent(Duration.ofMillis(100));
-        event.ifPresent(e -> {
-          LOGGER.info("Message from B: " + e);
-          if (e.getType().isNotification()) {
-            this.onServiceEvent(this.playerB, e);
-          } else {
-            this.playerA.pushGameEvent(e);
-          }
-        });
+        final IncomingEvent incoming = this.incomingEvents.take();
+        if (incoming.source == this.playerA) {
+          this.onEventFromA(incoming.event);
+        } else {
+          this.onEventFromB(incoming.event);
+        }
       } catch (InterruptedException ex) {
         LOGGER.info("Comm-daemon has detected interruption");
         Thread.currentThread().interrupt();
@@ -100,40 +155,40 @@ final class BattleshipsCommDaemon {
     switch (event.getType()) {
       case EVENT_READY: {
         this.playerSessionRecords.get(source.getId()).put("ready", event);
-        opponent.pushGameEvent(event);
+        this.deliver(opponent, event);
         this.checkPlayersReady();
       }
       break;
       case EVENT_FAILURE: {
         LOGGER.info("Server or player '" + source.getId() + "' in system troubles");
-        opponent.pushGameEvent(new BsGameEvent(GameEventType.EVENT_FAILURE, 0, 0));
+        this.deliver(opponent, new BsGameEvent(GameEventType.EVENT_FAILURE, 0, 0));
       }
       break;
       case EVENT_CONNECTION_ERROR: {
         LOGGER.info("Server or player '" + source.getId() + "' lost connection");
-        opponent.pushGameEvent(new BsGameEvent(GameEventType.EVENT_CONNECTION_ERROR, 0, 0));
+        this.deliver(opponent, new BsGameEvent(GameEventType.EVENT_CONNECTION_ERROR, 0, 0));
       }
       break;
       case EVENT_GAME_ROOM_CLOSED: {
         LOGGER.info("Server or player '" + source.getId() + "' is leaving game room");
-        opponent.pushGameEvent(event);
+        this.deliver(opponent, event);
       }
       break;
       case EVENT_ARRANGEMENT_COMPLETED:
       case EVENT_RESUME:
       case EVENT_PAUSE: {
-        opponent.pushGameEvent(event);
+        this.deliver(opponent, event);
       }
       break;
       case EVENT_OPPONENT_FIRST_TURN: {
         LOGGER.info("Incoming opponent first turn");
-        opponent.pushGameEvent(new BsGameEvent(GameEventType.EVENT_DO_TURN, 0, 0));
+        this.deliver(opponent, new BsGameEvent(GameEventType.EVENT_DO_TURN, 0, 0));
       }
       break;
       default: {
         LOGGER.severe(String.format("Got unexpected event '%s' from '%s'", event, source.getId()));
-        opponent.pushGameEvent(new BsGameEvent(GameEventType.EVENT_FAILURE, 0, 0));
-        source.pushGameEvent(new BsGameEvent(GameEventType.EVENT_FAILURE, 0, 0));
+        this.deliver(opponent, new BsGameEvent(GameEventType.EVENT_FAILURE, 0, 0));
+        this.deliver(source, new BsGameEvent(GameEventType.EVENT_FAILURE, 0, 0));
       }
       break;
     }
@@ -149,10 +204,10 @@ final class BattleshipsCommDaemon {
         LOGGER.info("local game");
         if (Utils.RND.nextBoolean()) {
           LOGGER.info("chosen first turn for A");
-          this.playerB.pushGameEvent(new BsGameEvent(GameEventType.EVENT_OPPONENT_FIRST_TURN, 0, 0));
+          this.deliver(this.playerB, new BsGameEvent(GameEventType.EVENT_OPPONENT_FIRST_TURN, 0, 0));
         } else {
           LOGGER.info("chosen first turn for B");
-          this.playerA.pushGameEvent(new BsGameEvent(GameEventType.EVENT_OPPONENT_FIRST_TURN, 0, 0));
+          this.deliver(this.playerA, new BsGameEvent(GameEventType.EVENT_OPPONENT_FIRST_TURN, 0, 0));
         }
       } else {
         final BattleshipsPlayer firstTurnPlayer = this.playerA.findFirstTurnPlayer(this.playerA, this.playerB)
@@ -161,13 +216,23 @@ final class BattleshipsCommDaemon {
 
         if (firstTurnPlayer == this.playerA) {
           LOGGER.info("sending first turn goes A");
-          this.playerB.pushGameEvent(new BsGameEvent(GameEventType.EVENT_OPPONENT_FIRST_TURN, 0, 0));
+          this.deliver(this.playerB, new BsGameEvent(GameEventType.EVENT_OPPONENT_FIRST_TURN, 0, 0));
         } else {
           LOGGER.info("sending first turn goes B");
-          this.playerA.pushGameEvent(new BsGameEvent(GameEventType.EVENT_OPPONENT_FIRST_TURN, 0, 0));
+          this.deliver(this.playerA, new BsGameEvent(GameEventType.EVENT_OPPONENT_FIRST_TURN, 0, 0));
         }
       }
     }
   }
 
+  private static final class IncomingEvent {
+    private final BattleshipsPlayer source;
+    private final BsGameEvent event;
+
+    private IncomingEvent(final BattleshipsPlayer source, final BsGameEvent event) {
+      this.source = source;
+      this.event = event;
+    }
+  }
+
 }
@@ -15,6 +15,7 @@
 
 package com.igormaznitsa.battleships.gui;
 
+import com.igormaznitsa.battleships.opponent.AiLevel;
 import com.igormaznitsa.battleships.utils.GfxUtils;
 import com.igormaznitsa.battleships.utils.NetUtils;
 import com.igormaznitsa.battleships.utils.Utils;
@@ -44,6 +45,7 @@ public class OpeningDialog extends JDialog {
   private JRadioButton radioSinglePlayer;
   private JRadioButton radioMultiPlayer;
   private JComboBox<MultiPlayerMode> comboBoxMultiPlayerMode;
+  private JComboBox<AiLevel> comboBoxAiLevel;
   private JComboBox<String> comboInterfaceName;
   private StartOptions result;
 
@@ -91,6 +93,7 @@ public class OpeningDialog extends JDialog {
     startOptions.getHostPort().ifPresent(x -> this.textFieldPort.setText(Integer.toString(x)));
 
     this.comboBoxMultiPlayerMode.setSelectedItem(startOptions.getMultiPlayerMode());
+    this.comboBoxAiLevel.setSelectedItem(startOptions.getAiLevel());
 
     this.radioSinglePlayer.addActionListener(e -> networkPanel.setEnabled(this.radioMultiPlayer.isEnabled()));
 
@@ -112,6 +115,7 @@ public class OpeningDialog extends JDialog {
               .setFullScreen(this.radioFullScreen.isSelected())
               .setMultiPlayer(this.radioMultiPlayer.isSelected())
               .setMultiPlayerMode((MultiPlayerMode) this.comboBoxMultiPlayerMode.getSelectedItem())
+              .setAiLevel((AiLevel) this.comboBoxAiLevel.getSelectedItem())
               .setHostPort(hostPort)
               .setHostName(String.valueOf(this.comboInterfaceName.getSelectedItem()))
               .build();
@@ -255,6 +259,13 @@ public class OpeningDialog extends JDialog {
     radioFullScreen.setText("FullScreen");
     modePanel.add(radioFullScreen);
 
+    final JPanel aiLevelPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 0, 0));
+    this.comboBoxAiLevel = new JComboBox<>(new DefaultComboBoxModel<>(AiLevel.values()));
+    this.comboBoxAiLevel.setToolTipText("Level of computer opponent in single player game");
+    aiLevelPanel.add(new JLabel("AI: "));
+    aiLevelPanel.add(this.comboBoxAiLevel);
+    modePanel.add(aiLevelPanel);
+
     final ButtonGroup screenTypeGroup = new ButtonGroup();
     screenTypeGroup.add(radioFullScreen);
     screenTypeGroup.add(radioWindow);
@@ -15,6 +15,7 @@
 
 package com.igormaznitsa.battleships.gui;
 
+import com.igormaznitsa.battleships.opponent.AiLevel;
 import com.igormaznitsa.battleships.utils.GfxUtils;
 
 import java.awt.*;
@@ -34,6 +35,7 @@ public class StartOptions {
   private final boolean fullScreen;
   private final boolean withSound;
   private final MultiPlayerMode multiPlayerMode;
+  private final AiLevel aiLevel;
   private final Optional<String> hostName;
   private final OptionalInt hostPort;
 
@@ -45,10 +47,12 @@ public class StartOptions {
                        final boolean withSound,
                        final Optional<String> hostName,
                        final OptionalInt hostPort,
-                       final MultiPlayerMode multiPlayerMode
+                       final MultiPlayerMode multiPlayerMode,
+                       final AiLevel aiLevel
   ) {
     this.graphicsConfiguration = graphicsConfiguration;
     this.multiPlayerMode = multiPlayerMode;
+    this.aiLevel = aiLevel;
     this.gameTitle = gameTitle;
     this.withSound = withSound;
     this.gameIcon = gameIcon;
@@ -66,6 +70,7 @@ public class StartOptions {
       hostName.ifPresentOrElse(x -> PREFERENCES.put("hostName", x), () -> PREFERENCES.remove("hostName"));
       hostPort.ifPresentOrElse(x -> PREFERENCES.putInt("hostPort", x), () -> PREFERENCES.remove("hostPort"));
       PREFERENCES.put("multiPlayerMode", this.multiPlayerMode.name());
+      PREFERENCES.put("aiLevel", this.aiLevel.name());
       try {
         PREFERENCES.flush();
       } catch (Exception ex) {
@@ -114,6 +119,10 @@ public class StartOptions {
     return this.multiPlayerMode;
   }
 
+  public AiLevel getAiLevel() {
+    return this.aiLevel;
+  }
+
   @SuppressWarnings("unused")
   public static class Builder {
     private Optional<GraphicsConfiguration> graphicsConfiguration =
@@ -126,6 +135,7 @@ public class StartOptions {
     private boolean fullScreen = false;
     private boolean withSound = true;
     private MultiPlayerMode multiPlayerMode = MultiPlayerMode.LAN_P2P;
+    private AiLevel aiLevel = AiLevel.NORMAL;
     private Optional<String> hostName = Optional.empty();
     private OptionalInt hostPort = OptionalInt.of(30000);
 
@@ -144,6 +154,11 @@ public class StartOptions {
       return this;
     }
 
+    public Builder setAiLevel(final AiLevel value) {
+      this.aiLevel = value == null ? AiLevel.NORMAL : value;
+      return this;
+    }
+
     public Builder setHostName(final String hostName) {
       this.hostName = Optional.ofNullable(hostName);
       return this;
@@ -182,6 +197,7 @@ public class StartOptions {
         this.hostName = Optional.ofNullable(PREFERENCES.get("hostName", null));
         this.hostPort = OptionalInt.of(PREFERENCES.getInt("hostPort", 30000));
         this.multiPlayerMode = MultiPlayerMode.safeValueOf(PREFERENCES.get("multiPlayerMode", MultiPlayerMode.LAN_P2P.name()), MultiPlayerMode.LAN_P2P);
+        this.aiLevel = AiLevel.safeValueOf(PREFERENCES.get("aiLevel", AiLevel.NORMAL.name()), AiLevel.NORMAL);
         return this;
       }
     }
@@ -195,7 +211,8 @@ public class StartOptions {
               this.withSound,
               this.hostName,
               this.hostPort,
-              this.multiPlayerMode);
+              this.multiPlayerMode,
+              this.aiLevel);
     }
 
   }
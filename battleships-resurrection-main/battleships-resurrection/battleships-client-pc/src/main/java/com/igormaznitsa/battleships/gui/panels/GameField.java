@@ -1,5 +1,5 @@
 /*
- *   
+ *
  *
  *    This program is free software: you can redistribute it and/or modify
  *     it under the terms of the GNU General Public License as published by
@@ -16,8 +16,6 @@ package com.igormaznitsa.battleships.gui.panels;
 
 import static com.igormaznitsa.battleships.utils.Utils.RND;
 import static java.lang.Math.min;
-import static java.util.Arrays.stream;
-import static java.util.Collections.shuffle;
 import static java.util.Objects.requireNonNull;
 
 
@@ -31,18 +29,36 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
+/**
+ * Game field 10x10 kept as bitboards, one 100 bit mask per cell state in two longs. The low long
+ * keeps rows 0-5 (cell offsets 0-59), the high long keeps rows 6-9 (offsets 60-99), so bit of a
+ * cell is its offset in the row-major order minus 60 for the high long. Every cell is in exactly
+ * one mask. Neighbourhood, placement and search operations are shifts and bitwise operations over
+ * whole masks.
+ */
 @SuppressWarnings("checkstyle:MissingJavadocMethod")
 public final class GameField {
   public static final int FIELD_EDGE = 10;
-  private final CellState[] gameField = new CellState[FIELD_EDGE * FIELD_EDGE];
+
+  private static final int LOW_CELLS = 60;
+  private static final long LOW_MASK = (1L << LOW_CELLS) - 1L;
+  private static final long HIGH_MASK = (1L << (FIELD_EDGE * FIELD_EDGE - LOW_CELLS)) - 1L;
+  private static final long COLUMN_FIRST = 0x0004010040100401L;
+  private static final long COLUMN_LAST = COLUMN_FIRST << (FIELD_EDGE - 1);
+  private static final long ROW_FIRST = (1L << FIELD_EDGE) - 1L;
+  private static final int LAST_LOW_ROW_SHIFT = LOW_CELLS - FIELD_EDGE;
+
+  private static final CellState[] STATES = CellState.values();
+
+  private final long[] low = new long[STATES.length];
+  private final long[] high = new long[STATES.length];
   private final int[] freeShipsCount = new int[4];
 
   public GameField() {
-
+    this.low[CellState.EMPTY.ordinal()] = LOW_MASK;
+    this.high[CellState.EMPTY.ordinal()] = HIGH_MASK;
   }
 
   private static boolean isValidCoord(final int x, final int y) {
@@ -61,49 +77,182 @@ public final class GameField {
     }
   }
 
+  // cell x+1 of every cell in a long, the same for both longs
+  private static long east(final long cells, final long mask) {
+    return (cells << 1) & mask & ~COLUMN_FIRST;
+  }
+
+  // cell x-1 of every cell in a long
+  private static long west(final long cells) {
+    return (cells >>> 1) & ~COLUMN_LAST;
+  }
+
+  private static long southLow(final long low) {
+    return (low << FIELD_EDGE) & LOW_MASK;
+  }
+
+  private static long southHigh(final long low, final long high) {
+    return ((high << FIELD_EDGE) | (low >>> LAST_LOW_ROW_SHIFT)) & HIGH_MASK;
+  }
+
+  private static long northLow(final long low, final long high) {
+    return (low >>> FIELD_EDGE) | ((high & ROW_FIRST) << LAST_LOW_ROW_SHIFT);
+  }
+
+  private static long northHigh(final long high) {
+    return high >>> FIELD_EDGE;
+  }
+
+  private static int lowestOffset(final long low, final long high) {
+    return low != 0L ? Long.numberOfTrailingZeros(low)
+        : LOW_CELLS + Long.numberOfTrailingZeros(high);
+  }
+
+  private static int highestOffset(final long low, final long high) {
+    return high != 0L ? LOW_CELLS + 63 - Long.numberOfLeadingZeros(high)
+        : 63 - Long.numberOfLeadingZeros(low);
+  }
+
+  private static long lowBit(final int offset) {
+    return offset < LOW_CELLS ? 1L << offset : 0L;
+  }
+
+  private static long highBit(final int offset) {
+    return offset < LOW_CELLS ? 0L : 1L << (offset - LOW_CELLS);
+  }
+
+  private boolean is(final int offset, final CellState state) {
+    return offset < LOW_CELLS ? (this.low[state.ordinal()] & (1L << offset)) != 0L
+        : (this.high[state.ordinal()] & (1L << (offset - LOW_CELLS))) != 0L;
+  }
+
+  private long lowOf(final CellState state) {
+    return this.low[state.ordinal()];
+  }
+
+  private long highOf(final CellState state) {
+    return this.high[state.ordinal()];
+  }
+
+  private long lowShips() {
+    long result = 0L;
+    for (final CellState state : STATES) {
+      if (state.isShip()) {
+        result |= this.low[state.ordinal()];
+      }
+    }
+    return result;
+  }
+
+  private long highShips() {
+    long result = 0L;
+    for (final CellState state : STATES) {
+      if (state.isShip()) {
+        result |= this.high[state.ordinal()];
+      }
+    }
+    return result;
+  }
+
+  // cells of the masks which are in state from are moved into state to
+  private void change(final long lowMask, final long highMask, final CellState from,
+                      final CellState to) {
+    final long lowCells = this.low[from.ordinal()] & lowMask;
+    final long highCells = this.high[from.ordinal()] & highMask;
+    this.low[from.ordinal()] &= ~lowCells;
+    this.high[from.ordinal()] &= ~highCells;
+    this.low[to.ordinal()] |= lowCells;
+    this.high[to.ordinal()] |= highCells;
+  }
+
+  private void set(final long lowMask, final long highMask, final CellState state) {
+    for (int i = 0; i < STATES.length; i++) {
+      this.low[i] &= ~lowMask;
+      this.high[i] &= ~highMask;
+    }
+    this.low[state.ordinal()] |= lowMask;
+    this.high[state.ordinal()] |= highMask;
+  }
+
+  // the eight neighbours of the cells together with the cells
+  private void changeAround(final long lowCells, final long highCells, final CellState from,
+                            final CellState to) {
+    final long lowRow = lowCells | east(lowCells, LOW_MASK) | west(lowCells);
+    final long highRow = highCells | east(highCells, HIGH_MASK) | west(highCells);
+    this.change(
+        lowRow | southLow(lowRow) | northLow(lowRow, highRow),
+        highRow | southHigh(lowRow, highRow) | northHigh(highRow),
+        from, to);
+  }
+
   public List<FieldSprite> moveFieldToShipSprites() {
-    final List<FieldSprite> result = IntStream.range(0, this.gameField.length)
-        .filter(x -> this.gameField[x] == CellState.SHIP)
-        .mapToObj(x -> tryRemoveShipAt(offset2xy(x)))
-        .filter(x -> !x.isEmpty())
-        .map(ShipSprite::new)
-        .sorted()
-        .collect(Collectors.toCollection(ArrayList::new));
-
-    if (stream(this.gameField).anyMatch(x -> x != CellState.EMPTY)) {
+    final List<FieldSprite> result = new ArrayList<>();
+    long lowShips = this.lowOf(CellState.SHIP);
+    long highShips = this.highOf(CellState.SHIP);
+    while ((lowShips | highShips) != 0L) {
+      final List<Point> cells =
+          this.tryRemoveShipAt(offset2xy(lowestOffset(lowShips, highShips)));
+      if (!cells.isEmpty()) {
+        result.add(new ShipSprite(cells));
+      }
+      lowShips = this.lowOf(CellState.SHIP);
+      highShips = this.highOf(CellState.SHIP);
+    }
+    Collections.sort(result);
+
+    if ((this.lowOf(CellState.EMPTY) != LOW_MASK) || (this.highOf(CellState.EMPTY) != HIGH_MASK)) {
       throw new IllegalStateException(
           "Detected wrong state of field, detected non-empty cells after ship remove");
     }
     return result;
   }
 
+  /**
+   * Remove ship cell and all ship cells connected to it, banned cells around them become empty.
+   *
+   * @param cell any cell of the ship
+   * @return removed cells, the given cell is the first one and others follow in order of offset,
+   * empty list if the cell is not a ship one
+   */
   public List<Point> tryRemoveShipAt(final Point cell) {
-    List<Point> foundCells = Collections.emptyList();
-    int offset = xy2offset(cell.x, cell.y);
-
-    if (this.gameField[offset].isShip()) {
-      foundCells = new ArrayList<>();
-      this.gameField[offset] = CellState.EMPTY;
-      this.changeCellStateAround(offset, CellState.BANNED, CellState.EMPTY);
-      foundCells.add(cell);
-
-      for (int dx = -1; dx < 2; dx++) {
-        for (int dy = -1; dy < 2; dy++) {
-          if (dx == 0 && dy == 0) {
-            continue;
-          }
-          final int cx = cell.x + dx;
-          final int cy = cell.y + dy;
-          if (isValidCoord(cx, cy)) {
-            offset = xy2offset(cx, cy);
-            if (this.gameField[offset].isShip()) {
-              foundCells.addAll(tryRemoveShipAt(offset2xy(offset)));
-            }
-          }
-        }
+    final int offset = xy2offset(cell.x, cell.y);
+    final long lowShips = this.lowShips();
+    final long highShips = this.highShips();
+    long lowShip = lowBit(offset) & lowShips;
+    long highShip = highBit(offset) & highShips;
+    if ((lowShip | highShip) == 0L) {
+      return Collections.emptyList();
+    }
+
+    // flood fill through the eight neighbours
+    while (true) {
+      final long lowRow = lowShip | east(lowShip, LOW_MASK) | west(lowShip);
+      final long highRow = highShip | east(highShip, HIGH_MASK) | west(highShip);
+      final long lowNext =
+          (lowRow | southLow(lowRow) | northLow(lowRow, highRow)) & lowShips;
+      final long highNext =
+          (highRow | southHigh(lowRow, highRow) | northHigh(highRow)) & highShips;
+      if (lowNext == lowShip && highNext == highShip) {
+        break;
       }
+      lowShip = lowNext;
+      highShip = highNext;
     }
 
+    this.set(lowShip, highShip, CellState.EMPTY);
+    this.changeAround(lowShip, highShip, CellState.BANNED, CellState.EMPTY);
+
+    final List<Point> foundCells =
+        new ArrayList<>(Long.bitCount(lowShip) + Long.bitCount(highShip));
+    foundCells.add(cell);
+    lowShip &= ~lowBit(offset);
+    highShip &= ~highBit(offset);
+    while ((lowShip | highShip) != 0L) {
+      final int next = lowestOffset(lowShip, highShip);
+      foundCells.add(offset2xy(next));
+      lowShip &= ~lowBit(next);
+      highShip &= ~highBit(next);
+    }
     return foundCells;
   }
 
@@ -113,38 +262,95 @@ public final class GameField {
   }
 
   public void ensureBanAroundShips() {
-    IntStream.range(0, this.gameField.length)
-        .filter(x -> this.gameField[x] == CellState.SHIP || this.gameField[x] == CellState.KILL)
-        .forEach(x -> changeCellStateAround(x, CellState.EMPTY, CellState.BANNED));
+    this.changeAround(
+        this.lowOf(CellState.SHIP) | this.lowOf(CellState.KILL),
+        this.highOf(CellState.SHIP) | this.highOf(CellState.KILL),
+        CellState.EMPTY, CellState.BANNED);
   }
 
   public void autoPlacingFreeShips() {
-    final List<ShipType> sortedShipTypesFromDescend = Arrays.stream(ShipType.values())
-        .sorted((o1, o2) -> Integer.compare(o2.getCells(), o1.getCells()))
-        .collect(Collectors.toList());
+    final ShipType[] sortedShipTypesFromDescend = ShipType.values().clone();
+    Arrays.sort(sortedShipTypesFromDescend,
+        (o1, o2) -> Integer.compare(o2.getCells(), o1.getCells()));
+    final Direction[] directions = Direction.values();
+    final long[] lowStarts = new long[directions.length];
+    final long[] highStarts = new long[directions.length];
+
     for (final ShipType shipType : sortedShipTypesFromDescend) {
       while (this.freeShipsCount[shipType.ordinal()] > 0) {
-        final List<Integer> freeCells = IntStream.range(0, this.gameField.length)
-            .filter(x -> this.gameField[x] == CellState.EMPTY)
-            .boxed()
-            .collect(Collectors.toCollection(ArrayList::new));
-        if (freeCells.isEmpty()) {
+        final long lowEmpty = this.lowOf(CellState.EMPTY);
+        final long highEmpty = this.highOf(CellState.EMPTY);
+        if ((lowEmpty | highEmpty) == 0L) {
           throw new IllegalStateException("Can't find any free position for ship: " + shipType);
         }
 
-        shuffle(freeCells, RND);
-        while (!freeCells.isEmpty()) {
-          final Point nextPosition = offset2xy(freeCells.remove(0));
-          final List<Direction> directions = Arrays.asList(Direction.values());
-          shuffle(directions, RND);
-          final Optional<Direction> foundPosition = directions.stream()
-              .filter(d -> this.tryInjectShip(nextPosition, shipType, d))
-              .findFirst();
-          if (foundPosition.isEmpty()) {
-            if (freeCells.isEmpty()) {
-              throw new IllegalStateException("Can't auto-place ship: " + shipType);
+        // start cells from which the ship lies on empty cells, for every direction
+        long lowAny = 0L;
+        long highAny = 0L;
+        for (final Direction direction : directions) {
+          long lowCells = lowEmpty;
+          long highCells = highEmpty;
+          long lowValid = lowEmpty;
+          long highValid = highEmpty;
+          for (int i = 1; i < shipType.getCells(); i++) {
+            final long nextLow;
+            final long nextHigh;
+            switch (direction) {
+              case LEFT: {
+                nextLow = east(lowCells, LOW_MASK);
+                nextHigh = east(highCells, HIGH_MASK);
+              }
+              break;
+              case RIGHT: {
+                nextLow = west(lowCells);
+                nextHigh = west(highCells);
+              }
+              break;
+              case UP: {
+                nextLow = southLow(lowCells);
+                nextHigh = southHigh(lowCells, highCells);
+              }
+              break;
+              default: {
+                nextLow = northLow(lowCells, highCells);
+                nextHigh = northHigh(highCells);
+              }
+              break;
             }
-          } else {
+            lowCells = nextLow & lowEmpty;
+            highCells = nextHigh & highEmpty;
+            lowValid &= lowCells;
+            highValid &= highCells;
+          }
+          lowStarts[direction.ordinal()] = lowValid;
+          highStarts[direction.ordinal()] = highValid;
+          lowAny |= lowValid;
+          highAny |= highValid;
+        }
+
+        final int candidates = Long.bitCount(lowAny) + Long.bitCount(highAny);
+        if (candidates == 0) {
+          throw new IllegalStateException("Can't auto-place ship: " + shipType);
+        }
+        int offset = -1;
+        for (int skip = RND.nextInt(candidates); skip >= 0; skip--) {
+          offset = lowestOffset(lowAny, highAny);
+          lowAny &= ~lowBit(offset);
+          highAny &= ~highBit(offset);
+        }
+
+        int allowed = 0;
+        for (final Direction direction : directions) {
+          if (((lowStarts[direction.ordinal()] & lowBit(offset))
+              | (highStarts[direction.ordinal()] & highBit(offset))) != 0L) {
+            allowed++;
+          }
+        }
+        int choice = RND.nextInt(allowed);
+        for (final Direction direction : directions) {
+          if (((lowStarts[direction.ordinal()] & lowBit(offset))
+              | (highStarts[direction.ordinal()] & highBit(offset))) != 0L && choice-- == 0) {
+            this.injectShip(offset2xy(offset), shipType, direction);
             break;
           }
         }
@@ -153,27 +359,18 @@ public final class GameField {
     }
   }
 
-  private boolean tryInjectShip(final Point position, final ShipType shipType,
-                                final Direction direction) {
-    final int x = position.x;
-    final int y = position.y;
-    for (int i = 0; i < shipType.getCells(); i++) {
-      final int px = x + direction.getDx() * i;
-      final int py = y + direction.getDy() * i;
-      if (!isValidCoord(px, py) || this.getState(px, py) != CellState.EMPTY) {
-        return false;
-      }
-    }
-
+  private void injectShip(final Point position, final ShipType shipType,
+                          final Direction direction) {
+    long lowCells = 0L;
+    long highCells = 0L;
     for (int i = 0; i < shipType.getCells(); i++) {
-      final int px = x + direction.getDx() * i;
-      final int py = y + direction.getDy() * i;
-      this.gameField[xy2offset(px, py)] = CellState.SHIP;
+      final int offset =
+          xy2offset(position.x + direction.getDx() * i, position.y + direction.getDy() * i);
+      lowCells |= lowBit(offset);
+      highCells |= highBit(offset);
     }
-
+    this.set(lowCells, highCells, CellState.SHIP);
     this.ensureBanAroundShips();
-
-    return true;
   }
 
   public boolean hasAnyFreeShip() {
@@ -186,11 +383,31 @@ public final class GameField {
   }
 
   public void setState(int x, int y, CellState ship) {
-    this.gameField[xy2offset(x, y)] = requireNonNull(ship);
+    requireNonNull(ship);
+    final int offset = xy2offset(x, y);
+    final int current = this.stateAt(offset);
+    if (offset < LOW_CELLS) {
+      this.low[current] &= ~(1L << offset);
+      this.low[ship.ordinal()] |= 1L << offset;
+    } else {
+      this.high[current] &= ~(1L << (offset - LOW_CELLS));
+      this.high[ship.ordinal()] |= 1L << (offset - LOW_CELLS);
+    }
   }
 
   public CellState getState(final int x, final int y) {
-    return this.gameField[xy2offset(x, y)];
+    return STATES[this.stateAt(xy2offset(x, y))];
+  }
+
+  private int stateAt(final int offset) {
+    final long[] masks = offset < LOW_CELLS ? this.low : this.high;
+    final long bit = 1L << (offset < LOW_CELLS ? offset : offset - LOW_CELLS);
+    for (int i = 0; i < masks.length; i++) {
+      if ((masks[i] & bit) != 0L) {
+        return i;
+      }
+    }
+    throw new IllegalStateException("Cell without state: " + offset);
   }
 
   public Optional<ShipType> findMaxAllowedShipForLen(final int length) {
@@ -200,7 +417,7 @@ public final class GameField {
   }
 
   public void reset() {
-    IntStream.range(0, this.gameField.length).forEach(x -> this.gameField[x] = CellState.EMPTY);
+    this.set(LOW_MASK, HIGH_MASK, CellState.EMPTY);
     this.freeShipsCount[ShipType.U_BOAT.ordinal()] = 4;
     this.freeShipsCount[ShipType.GUARD_SHIP.ordinal()] = 3;
     this.freeShipsCount[ShipType.DREADNOUGHT.ordinal()] = 2;
@@ -212,32 +429,27 @@ public final class GameField {
   }
 
   public Optional<Point> removeTarget() {
-    int lastFoundOffset = -1;
-    for (int i = 0; i < this.gameField.length; i++) {
-      if (this.gameField[i] == CellState.TARGET) {
-        this.gameField[i] = CellState.EMPTY;
-        lastFoundOffset = i;
-      }
+    final long lowTargets = this.lowOf(CellState.TARGET);
+    final long highTargets = this.highOf(CellState.TARGET);
+    if ((lowTargets | highTargets) == 0L) {
+      return Optional.empty();
     }
-    return lastFoundOffset < 0 ? Optional.empty() : Optional.of(offset2xy(lastFoundOffset));
+    this.change(lowTargets, highTargets, CellState.TARGET, CellState.EMPTY);
+    return Optional.of(offset2xy(highestOffset(lowTargets, highTargets)));
   }
 
   public boolean fixPlaceholder() {
     boolean ok = false;
-    final int reservedCells = (int) IntStream.range(0, this.gameField.length)
-        .filter(x -> this.gameField[x] == CellState.PLACEHOLDER)
-        .count();
+    final long lowPlaceholder = this.lowOf(CellState.PLACEHOLDER);
+    final long highPlaceholder = this.highOf(CellState.PLACEHOLDER);
+    final int reservedCells = Long.bitCount(lowPlaceholder) + Long.bitCount(highPlaceholder);
     if (reservedCells > 4) {
       throw new IllegalStateException(
           "Detected too long placeholder on the game field: " + reservedCells);
     }
     if (reservedCells != 0) {
-      IntStream.range(0, this.gameField.length)
-          .filter(x -> this.gameField[x] == CellState.PLACEHOLDER)
-          .forEach(x -> {
-            this.gameField[x] = CellState.SHIP;
-            changeCellStateAround(x, CellState.EMPTY, CellState.BANNED);
-          });
+      this.change(lowPlaceholder, highPlaceholder, CellState.PLACEHOLDER, CellState.SHIP);
+      this.changeAround(lowPlaceholder, highPlaceholder, CellState.EMPTY, CellState.BANNED);
       final ShipType shipType = ShipType.findForCells(reservedCells);
       if (this.freeShipsCount[shipType.ordinal()] > 0) {
         this.freeShipsCount[shipType.ordinal()]--;
@@ -249,31 +461,8 @@ public final class GameField {
     return ok;
   }
 
-  private void changeCellStateAround(final int centerOffset, final CellState from,
-                                     final CellState to) {
-    final Point point = offset2xy(centerOffset);
-    for (int dx = -1; dx < 2; dx++) {
-      final int px = point.x + dx;
-      if (px < 0 || px >= FIELD_EDGE) {
-        continue;
-      }
-      for (int dy = -1; dy < 2; dy++) {
-        final int py = point.y + dy;
-        if ((dx == 0 && dy == 0) || py < 0 || py >= FIELD_EDGE) {
-          continue;
-        }
-        final int poffset = xy2offset(px, py);
-        if (this.gameField[poffset] == from) {
-          this.gameField[poffset] = to;
-        }
-      }
-    }
-  }
-
   public void clearPlaceholder() {
-    IntStream.range(0, this.gameField.length)
-        .filter(x -> this.gameField[x] == CellState.PLACEHOLDER)
-        .forEach(x -> this.gameField[x] = CellState.EMPTY);
+    this.change(LOW_MASK, HIGH_MASK, CellState.PLACEHOLDER, CellState.EMPTY);
   }
 
   private boolean tryPlaceShip(final Point start, final int length, final Direction direction) {
@@ -286,13 +475,13 @@ public final class GameField {
       x += direction.getDx();
       y += direction.getDy();
     } while (x >= 0 && y >= 0 && x < FIELD_EDGE && y < FIELD_EDGE
-        && this.gameField[xy2offset(x, y)] == CellState.EMPTY);
+        && this.is(xy2offset(x, y), CellState.EMPTY));
 
     return this.findMaxAllowedShipForLen(min(length, foundFreeCells)).map(shipType -> {
       int sx = start.x;
       int sy = start.y;
       for (int i = 0; i < shipType.getCells(); i++) {
-        this.gameField[xy2offset(sx, sy)] = CellState.PLACEHOLDER;
+        this.setState(sx, sy, CellState.PLACEHOLDER);
         sx += direction.getDx();
         sy += direction.getDy();
       }
@@ -329,15 +518,15 @@ public final class GameField {
     boolean success = false;
     final int offset = xy2offset(cell.x, cell.y);
     this.removeTarget();
-    if (this.gameField[offset] == CellState.EMPTY) {
-      this.gameField[offset] = CellState.TARGET;
+    if (this.is(offset, CellState.EMPTY)) {
+      this.set(lowBit(offset), highBit(offset), CellState.TARGET);
       success = true;
     }
     return success;
   }
 
   public boolean hasTarget() {
-    return stream(this.gameField).anyMatch(x -> x == CellState.TARGET);
+    return (this.lowOf(CellState.TARGET) | this.highOf(CellState.TARGET)) != 0L;
   }
 
   private enum Direction {
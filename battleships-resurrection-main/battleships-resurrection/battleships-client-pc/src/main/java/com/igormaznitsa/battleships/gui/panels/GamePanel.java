@@ -21,6 +21,7 @@ import com.igormaznitsa.battleships.gui.StartOptions;
 import com.igormaznitsa.battleships.gui.sprite.*;
 import com.igormaznitsa.battleships.opponent.BattleshipsPlayer;
 import com.igormaznitsa.battleships.opponent.BsGameEvent;
+import com.igormaznitsa.battleships.opponent.GameEventOutbox;
 import com.igormaznitsa.battleships.opponent.GameEventType;
 import com.igormaznitsa.battleships.sound.Sound;
 import com.igormaznitsa.battleships.utils.ImageCursor;
@@ -40,6 +41,7 @@ import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -69,7 +71,7 @@ public class GamePanel extends BasePanel implements BattleshipsPlayer {
   private final Timer timer;
   private final GameField gameField;
   private final BlockingDeque<BsGameEvent> queueToMe = new LinkedBlockingDeque<>(256);
-  private final BlockingDeque<BsGameEvent> queueToOpponent = new LinkedBlockingDeque<>(256);
+  private final GameEventOutbox queueToOpponent = new GameEventOutbox(new LinkedBlockingDeque<>(256));
   private final AtomicReference<Optional<BsGameEvent>> savedGameEvent =
           new AtomicReference<>(Optional.empty());
   private final AtomicReference<ShipType> lastFiringShipType = new AtomicReference<>();
@@ -310,8 +312,12 @@ public class GamePanel extends BasePanel implements BattleshipsPlayer {
 
   @Override
   public Optional<BsGameEvent> pollGameEvent(final Duration duration) throws InterruptedException {
-    return Optional
-            .ofNullable(this.queueToOpponent.poll(duration.toMillis(), TimeUnit.MILLISECONDS));
+    return this.queueToOpponent.poll(duration);
+  }
+
+  @Override
+  public void setGameEventListener(final Consumer<BsGameEvent> listener) {
+    this.queueToOpponent.setListener(listener);
   }
 
   private void renderActionPanel(final Graphics2D g, final int offsetX, final int offsetY,
@@ -396,7 +402,7 @@ public class GamePanel extends BasePanel implements BattleshipsPlayer {
   }
 
   private void fireEventToOpponent(final BsGameEvent event) {
-    if (!this.queueToOpponent.offer(Objects.requireNonNull(event))) {
+    if (!this.queueToOpponent.offer(event)) {
       throw new IllegalStateException(
               "Can't queue output game event: " + event + " (size=" + this.queueToOpponent.size() + ')');
     }
@@ -21,7 +21,10 @@ import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -31,37 +34,49 @@ import static java.util.Objects.requireNonNull;
 import static java.util.stream.Collectors.toCollection;
 import static java.util.stream.IntStream.range;
 
-public final class AiBattleshipsSingleSessionBot implements BattleshipsPlayer {
+public final class AiBattleshipsSingleSessionBot implements BattleshipsPlayer, SynchronousBattleshipsPlayer {
 
   private static final Logger LOGGER =
           Logger.getLogger(AiBattleshipsSingleSessionBot.class.getName());
 
   private static final int FIELD_EDGE = 10;
-  private final Random random = new Random(System.currentTimeMillis());
-  private final BlockingQueue<BsGameEvent> outQueue = new ArrayBlockingQueue<>(10);
+  private static final Duration HARD_MOVE_BUDGET = Duration.ofMillis(200);
+  private static final int HARD_MOVE_SAMPLES = 20000;
+  private final Random random = new Random();
+  private final GameEventOutbox outQueue = new GameEventOutbox(new ArrayBlockingQueue<>(10));
   private final BlockingQueue<BsGameEvent> inQueue = new ArrayBlockingQueue<>(10);
   private final List<MapItem> myMap = new ArrayList<>();
   private final List<MapItem> enemyMap = new ArrayList<>();
 
   private final int[] counterOfEnemyShips;
   private final int[] counterOfMyShips;
+  private final PlacementDensityMap placementDensityMap;
+  private final FleetSampler fleetSampler;
 
   private final Thread thread;
 
 
   public AiBattleshipsSingleSessionBot() {
+    this(AiLevel.NORMAL);
+  }
+
+  public AiBattleshipsSingleSessionBot(final AiLevel level) {
     super();
+    this.placementDensityMap =
+            requireNonNull(level) == AiLevel.NORMAL ? null : new PlacementDensityMap(this.random);
+    this.fleetSampler = level == AiLevel.HARD
+            ? new FleetSampler(SamplingPool.INSTANCE, HARD_MOVE_BUDGET, HARD_MOVE_SAMPLES, this.random)
+            : null;
     this.placeShipsOnGameField();
     this.counterOfMyShips = new int[]{4, 3, 2, 1};
     this.counterOfEnemyShips = new int[]{4, 3, 2, 1};
     range(0, FIELD_EDGE * FIELD_EDGE).forEach(x -> this.enemyMap.add(MapItem.EMPTY));
     this.thread = new Thread(() -> {
-      LOGGER.info("AI player ready for game session");
-      this.pushIntoOutput(new BsGameEvent(GameEventType.EVENT_READY, Utils.RND.nextInt(), Utils.RND.nextInt()));
+      this.startGame(this::pushIntoOutput);
       while (!Thread.currentThread().isInterrupted()) {
         try {
           final BsGameEvent nextEvent = this.inQueue.take();
-          this.onIncomingGameEvent(nextEvent);
+          this.onIncomingGameEvent(nextEvent, this::pushIntoOutput);
         } catch (InterruptedException ex) {
           Thread.currentThread().interrupt();
         }
@@ -254,7 +269,18 @@ public final class AiBattleshipsSingleSessionBot implements BattleshipsPlayer {
             .anyMatch(cells -> cells <= hMax || cells <= vMax);
   }
 
-  private int offerTargetOffset() {
+  // package-private for benchmarks
+  int offerTargetOffset() {
+    if (this.placementDensityMap != null) {
+      int foundCell = this.fleetSampler == null ? -1 : this.fleetSampler.findTarget(this.placementDensityMap);
+      if (foundCell < 0) {
+        foundCell = this.placementDensityMap.findTarget();
+      }
+      if (foundCell >= 0) {
+        return foundCell;
+      }
+      LOGGER.warning("Density map doesn't have any possible ship placement, random choice");
+    }
     final List<Integer> hitOffsets = range(0, this.enemyMap.size())
             .filter(x -> this.enemyMap.get(x) == MapItem.HIT).boxed().collect(Collectors.toList());
     if (hitOffsets.isEmpty()) {
@@ -300,6 +326,9 @@ public final class AiBattleshipsSingleSessionBot implements BattleshipsPlayer {
   }
 
   private void markEnemyShipAsKilled(final int x, final int y) {
+    if (this.placementDensityMap != null) {
+      this.placementDensityMap.onKilled(x, y);
+    }
     this.enemyMap.set(offset(x, y), MapItem.KILLED);
     final List<Integer> allShipCells = allShipOffsets(x, y, this.enemyMap);
     if (this.counterOfEnemyShips[allShipCells.size() - 1] > 0) {
@@ -334,11 +363,17 @@ public final class AiBattleshipsSingleSessionBot implements BattleshipsPlayer {
     });
   }
 
-  private void markEnemyCellAsMiss(final int x, final int y) {
+  void markEnemyCellAsMiss(final int x, final int y) {
+    if (this.placementDensityMap != null) {
+      this.placementDensityMap.onMiss(x, y);
+    }
     this.enemyMap.set(offset(x, y), MapItem.MISS);
   }
 
-  private void markEnemyShipAsHit(final int x, final int y) {
+  void markEnemyShipAsHit(final int x, final int y) {
+    if (this.placementDensityMap != null) {
+      this.placementDensityMap.onHit(x, y);
+    }
     this.enemyMap.set(offset(x, y), MapItem.HIT);
     if (isShipCell(x - 1, y, this.enemyMap)
             || isShipCell(x + 1, y, this.enemyMap)) {
@@ -361,11 +396,12 @@ public final class AiBattleshipsSingleSessionBot implements BattleshipsPlayer {
     }
   }
 
-  private synchronized void onIncomingGameEvent(final BsGameEvent event) {
+  private synchronized void onIncomingGameEvent(final BsGameEvent event,
+                                                final Consumer<BsGameEvent> output) {
     switch (requireNonNull(event).getType()) {
       case EVENT_OPPONENT_FIRST_TURN: {
         LOGGER.info("Opponent starts");
-        pushIntoOutput(new BsGameEvent(GameEventType.EVENT_DO_TURN, 0, 0));
+        output.accept(new BsGameEvent(GameEventType.EVENT_DO_TURN, 0, 0));
       }
       break;
       case EVENT_READY: {
@@ -393,9 +429,9 @@ public final class AiBattleshipsSingleSessionBot implements BattleshipsPlayer {
             }
           }
         }
-        this.pushIntoOutput(new BsGameEvent(result, event.getX(), event.getY()));
+        output.accept(new BsGameEvent(result, event.getX(), event.getY()));
         if (!(result == GameEventType.EVENT_MISS || result == GameEventType.EVENT_LOST)) {
-          this.pushIntoOutput(new BsGameEvent(GameEventType.EVENT_DO_TURN, 0, 0));
+          output.accept(new BsGameEvent(GameEventType.EVENT_DO_TURN, 0, 0));
         }
       }
       break;
@@ -409,7 +445,7 @@ public final class AiBattleshipsSingleSessionBot implements BattleshipsPlayer {
                           + (targetCell / FIELD_EDGE));
         }
         final int firingShip = this.selectShipToFire();
-        this.pushIntoOutput(
+        output.accept(
                 new BsGameEvent(
                         firingShip == 4 ? GameEventType.EVENT_SHOT_MAIN :
                                 GameEventType.EVENT_SHOT_REGULAR,
@@ -426,7 +462,7 @@ public final class AiBattleshipsSingleSessionBot implements BattleshipsPlayer {
       break;
       case EVENT_MISS: {
         this.markEnemyCellAsMiss(event.getX(), event.getY());
-        this.pushIntoOutput(new BsGameEvent(GameEventType.EVENT_DO_TURN, 0, 0));
+        output.accept(new BsGameEvent(GameEventType.EVENT_DO_TURN, 0, 0));
       }
       break;
       case EVENT_LOST:
@@ -442,12 +478,28 @@ public final class AiBattleshipsSingleSessionBot implements BattleshipsPlayer {
       break;
       default: {
         LOGGER.severe("Unexpected event: " + event);
-        this.pushIntoOutput(new BsGameEvent(GameEventType.EVENT_FAILURE, 1, 0));
+        output.accept(new BsGameEvent(GameEventType.EVENT_FAILURE, 1, 0));
         throw new Error("Unexpected game event: " + event.getType());
       }
     }
   }
 
+  @Override
+  public void startGame(final Consumer<BsGameEvent> output) {
+    LOGGER.info("AI player ready for game session");
+    output.accept(new BsGameEvent(GameEventType.EVENT_READY, Utils.RND.nextInt(), Utils.RND.nextInt()));
+  }
+
+  @Override
+  public boolean isSlowToAnswer() {
+    return this.fleetSampler != null;
+  }
+
+  @Override
+  public void processGameEvent(final BsGameEvent event, final Consumer<BsGameEvent> output) {
+    this.onIncomingGameEvent(event, output);
+  }
+
   @Override
   public void pushGameEvent(final BsGameEvent event) {
     if (event != null) {
@@ -488,80 +540,107 @@ public final class AiBattleshipsSingleSessionBot implements BattleshipsPlayer {
 
   @Override
   public Optional<BsGameEvent> pollGameEvent(final Duration duration) throws InterruptedException {
-    return Optional.ofNullable(this.outQueue.poll(duration.toMillis(), TimeUnit.MILLISECONDS));
+    return this.outQueue.poll(duration);
+  }
+
+  @Override
+  public void setGameEventListener(final Consumer<BsGameEvent> listener) {
+    this.outQueue.setListener(listener);
   }
 
   private void placeShipsOnGameField() {
     synchronized (this.myMap) {
-      this.myMap.clear();
-      range(0, FIELD_EDGE * FIELD_EDGE).forEach(x -> this.myMap.add(MapItem.EMPTY));
-      final int[] counterOfShips = new int[]{4, 3, 2, 1};
-      final List<Integer> shipIndexes = new ArrayList<>(Arrays.asList(0, 1, 2, 3));
-      shuffle(shipIndexes, random);
-      shipIndexes.forEach(i -> {
-        final int shipIndex = i;
-        final int cellsNumber = i + 1;
-        final List<Integer> freePositions = range(0, this.myMap.size())
-                .filter(x -> this.myMap.get(x) == MapItem.EMPTY)
-                .boxed()
-                .collect(toCollection(ArrayList::new));
-        shuffle(freePositions, this.random);
-        while (counterOfShips[shipIndex] > 0 && !freePositions.isEmpty()) {
-          final List<int[]> directions = new ArrayList<>(Arrays
-                  .asList(new int[]{1, 0}, new int[]{0, 1}, new int[]{-1, 0}, new int[]{0, -1}));
-          shuffle(directions, random);
-          freePositions.stream()
-                  .filter(offset -> {
-                    final int baseX = offset % FIELD_EDGE;
-                    final int baseY = offset / FIELD_EDGE;
-                    final Optional<int[]> shipCompatibleDirection = directions.stream().filter(d ->
-                            // check that free cells in direction meet the ship size
-                            range(0, cellsNumber)
-                                    .filter(sc -> {
-                                      final int px = baseX + sc * d[0];
-                                      final int py = baseY + sc * d[1];
-                                      return isValid(px, py)
-                                              && this.myMap.get(px + py * FIELD_EDGE) == MapItem.EMPTY;
-                                    }).count() == cellsNumber).findFirst();
-
-                    return shipCompatibleDirection.map(foundDirection -> {
-                      // fill ship cells
-                      range(0, cellsNumber).forEach(sc -> {
-                        final int px = baseX + sc * foundDirection[0];
-                        final int py = baseY + sc * foundDirection[1];
-                        this.myMap.set(px + py * FIELD_EDGE, MapItem.SHIP);
-                      });
-                      // ensure ban around placed ship
-                      range(0, this.myMap.size())
-                              .filter(x -> this.myMap.get(x) == MapItem.SHIP)
-                              .forEach(foundShipOffset -> {
-                                final int sx = foundShipOffset % FIELD_EDGE;
-                                final int sy = foundShipOffset / FIELD_EDGE;
-                                for (int dx = -1; dx < 2; dx++) {
-                                  for (int dy = -1; dy < 2; dy++) {
-                                    if (dx == 0 && dy == 0) {
-                                      continue;
-                                    }
-                                    final int cx = sx + dx;
-                                    final int cy = sy + dy;
-                                    if (isValid(cx, cy)) {
-                                      final int cOffset = cx + cy * FIELD_EDGE;
-                                      if (this.myMap.get(cOffset) == MapItem.EMPTY) {
-                                        this.myMap.set(cOffset, MapItem.BANNED);
-                                      }
+      while (!this.tryPlaceShipsOnGameField()) {
+        LOGGER.fine("No room for a ship, placing all ships again");
+      }
+    }
+  }
+
+  private boolean tryPlaceShipsOnGameField() {
+    this.myMap.clear();
+    range(0, FIELD_EDGE * FIELD_EDGE).forEach(x -> this.myMap.add(MapItem.EMPTY));
+    final int[] counterOfShips = new int[]{4, 3, 2, 1};
+    final List<Integer> shipIndexes = new ArrayList<>(Arrays.asList(0, 1, 2, 3));
+    shuffle(shipIndexes, random);
+    shipIndexes.forEach(i -> {
+      final int shipIndex = i;
+      final int cellsNumber = i + 1;
+      final List<Integer> freePositions = range(0, this.myMap.size())
+              .filter(x -> this.myMap.get(x) == MapItem.EMPTY)
+              .boxed()
+              .collect(toCollection(ArrayList::new));
+      shuffle(freePositions, this.random);
+      while (counterOfShips[shipIndex] > 0 && !freePositions.isEmpty()) {
+        final List<int[]> directions = new ArrayList<>(Arrays
+                .asList(new int[]{1, 0}, new int[]{0, 1}, new int[]{-1, 0}, new int[]{0, -1}));
+        shuffle(directions, random);
+        final Optional<Integer> placed = freePositions.stream()
+                .filter(offset -> {
+                  final int baseX = offset % FIELD_EDGE;
+                  final int baseY = offset / FIELD_EDGE;
+                  final Optional<int[]> shipCompatibleDirection = directions.stream().filter(d ->
+                          // check that free cells in direction meet the ship size
+                          range(0, cellsNumber)
+                                  .filter(sc -> {
+                                    final int px = baseX + sc * d[0];
+                                    final int py = baseY + sc * d[1];
+                                    return isValid(px, py)
+                                            && this.myMap.get(px + py * FIELD_EDGE) == MapItem.EMPTY;
+                                  }).count() == cellsNumber).findFirst();
+
+                  return shipCompatibleDirection.map(foundDirection -> {
+                    // fill ship cells
+                    range(0, cellsNumber).forEach(sc -> {
+                      final int px = baseX + sc * foundDirection[0];
+                      final int py = baseY + sc * foundDirection[1];
+                      this.myMap.set(px + py * FIELD_EDGE, MapItem.SHIP);
+                    });
+                    // ensure ban around placed ship
+                    range(0, this.myMap.size())
+                            .filter(x -> this.myMap.get(x) == MapItem.SHIP)
+                            .forEach(foundShipOffset -> {
+                              final int sx = foundShipOffset % FIELD_EDGE;
+                              final int sy = foundShipOffset / FIELD_EDGE;
+                              for (int dx = -1; dx < 2; dx++) {
+                                for (int dy = -1; dy < 2; dy++) {
+                                  if (dx == 0 && dy == 0) {
+                                    continue;
+                                  }
+                                  final int cx = sx + dx;
+                                  final int cy = sy + dy;
+                                  if (isValid(cx, cy)) {
+                                    final int cOffset = cx + cy * FIELD_EDGE;
+                                    if (this.myMap.get(cOffset) == MapItem.EMPTY) {
+                                      this.myMap.set(cOffset, MapItem.BANNED);
                                     }
                                   }
                                 }
-                              });
-                      return true;
-                    }).orElse(false);
-                  }).findFirst().ifPresent(x -> counterOfShips[shipIndex]--);
+                              }
+                            });
+                    return true;
+                  }).orElse(false);
+                }).findFirst();
+        if (placed.isPresent()) {
+          counterOfShips[shipIndex]--;
+        } else {
+          // no free position fits the ship, all ships must be placed again
+          break;
         }
-      });
-      if (Arrays.stream(counterOfShips).anyMatch(x -> x != 0)) {
-        throw new Error("Unexpected situation, can't place ships, may be a bug");
       }
-    }
+    });
+    return Arrays.stream(counterOfShips).allMatch(x -> x == 0);
   }
 
+  // pool of fleet sampling shared by all HARD bots, created on the first HARD bot
+  private static final class SamplingPool {
+    private static final ForkJoinPool INSTANCE = new ForkJoinPool(
+            Runtime.getRuntime().availableProcessors(),
+            pool -> {
+              final ForkJoinWorkerThread thread =
+                      ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+              thread.setName("bs-ai-sampler-" + thread.getPoolIndex());
+              thread.setDaemon(true);
+              return thread;
+            }, null, false);
+  }
 }
@@ -0,0 +1,55 @@
+/*
+ *    Battleships PC client with GFX multi-player game support
+ *    Copyright (C) 2021 Igor Maznitsa
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+
+package com.igormaznitsa.battleships.opponent;
+
+import java.util.Arrays;
+
+/**
+ * Level of the local AI opponent.
+ */
+public enum AiLevel {
+  /**
+   * Random shots at cells which can contain a ship, then finishing of a hit ship.
+   */
+  NORMAL("Normal"),
+  /**
+   * Shots at cells covered by the most of placements of remaining ships, see {@link PlacementDensityMap}.
+   */
+  ADVANCED("Advanced"),
+  /**
+   * Shots at cells occupied by ships in the most of sampled enemy fleets, see {@link FleetSampler}.
+   */
+  HARD("Hard");
+
+  private final String text;
+
+  AiLevel(final String text) {
+    this.text = text;
+  }
+
+  public static AiLevel safeValueOf(final String name, final AiLevel defaultValue) {
+    return Arrays.stream(AiLevel.values())
+            .filter(x -> x.name().equalsIgnoreCase(name))
+            .findFirst()
+            .orElse(defaultValue);
+  }
+
+  @Override
+  public String toString() {
+    return this.text;
+  }
+}
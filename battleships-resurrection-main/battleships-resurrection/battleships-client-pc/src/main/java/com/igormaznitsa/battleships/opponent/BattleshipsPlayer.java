@@ -17,12 +17,22 @@ package com.igormaznitsa.battleships.opponent;
 
 import java.time.Duration;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public interface BattleshipsPlayer {
   Optional<BsGameEvent> pollGameEvent(final Duration duration) throws InterruptedException;
 
   void pushGameEvent(BsGameEvent event);
 
+  /**
+   * Subscribe to outgoing game events of the player, they are passed to the listener as soon as
+   * made, in the thread which made them, and {@link #pollGameEvent(Duration)} gets nothing.
+   * Events made before subscription are passed to the listener at once.
+   *
+   * @param listener thread-safe listener, null returns events to polling
+   */
+  void setGameEventListener(Consumer<BsGameEvent> listener);
+
   BattleshipsPlayer startPlayer();
 
   void disposePlayer();
@@ -17,6 +17,8 @@ package com.igormaznitsa.battleships.opponent;
 
 
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Objects;
@@ -24,7 +26,27 @@ import java.util.UUID;
 
 @SuppressWarnings("unused")
 public final class BsGameEvent implements Comparable<BsGameEvent> {
+  /**
+   * Packet format with text prefix, UUID and type as strings, understood by all versions.
+   */
+  public static final int FORMAT_V2 = 2;
+  /**
+   * Compact packet format, about a quarter of v2.
+   */
+  public static final int FORMAT_V3 = 3;
+
   private static final byte[] PREFIX = "BATTLESHIPS_2.0\n".getBytes(StandardCharsets.UTF_8);
+  // v3 packet: magic, varint of type ordinal shifted left with the packed flag in bit 0, raw UUID,
+  // one byte x << 4 | y if packed or zig-zag varints of x and y, zig-zag varint of timestamp - V3_EPOCH
+  // the first byte differs from 'B' of the v2 prefix
+  private static final int V3_MAGIC_0 = 0xB5;
+  private static final int V3_MAGIC_1 = 0x03;
+  private static final int V3_MAX_LENGTH = 2 + 5 + 16 + 5 + 5 + 10;
+  // 2021-01-01T00:00:00Z
+  private static final long V3_EPOCH = 1609459200000L;
+  // ordinals are sent in v3, so new types must be added only to the end of the enum
+  private static final GameEventType[] TYPES = GameEventType.values();
+
   private final UUID uuid;
   private final GameEventType gameEventType;
   private final int x;
@@ -39,6 +61,20 @@ public final class BsGameEvent implements Comparable<BsGameEvent> {
     this.timestamp = System.currentTimeMillis();
   }
 
+  private BsGameEvent(final UUID uuid, final GameEventType event, final int x, final int y, final long timestamp) {
+    this.uuid = uuid;
+    this.gameEventType = event;
+    this.x = x;
+    this.y = y;
+    this.timestamp = timestamp;
+  }
+
+  /**
+   * Read event of v2 format.
+   *
+   * @param inputStream source stream
+   * @throws IllegalArgumentException if there is no v2 prefix
+   */
   public BsGameEvent(final InputStream inputStream) throws IOException {
     final DataInputStream in = new DataInputStream(inputStream);
 
@@ -54,11 +90,158 @@ public final class BsGameEvent implements Comparable<BsGameEvent> {
     this.timestamp = in.readLong();
   }
 
+  /**
+   * Decode event of v2 or v3 format, the format is detected by the first byte.
+   *
+   * @param data   array contains packet from its start
+   * @param length length of packet in the array
+   * @return decoded event
+   * @throws IllegalArgumentException if data is not a game event packet
+   */
+  public static BsGameEvent fromArray(final byte[] data, final int length) throws IOException {
+    return fromBuffer(ByteBuffer.wrap(data, 0, length));
+  }
+
+  /**
+   * Decode event of v2 or v3 format from remaining bytes of buffer, the format is detected by the
+   * first byte. v3 is decoded right from the buffer, v2 is copied for the stream reader.
+   *
+   * @param buffer buffer contains packet between its position and limit, the position is moved to
+   *               the limit
+   * @return decoded event
+   * @throws IllegalArgumentException if data is not a game event packet
+   */
+  public static BsGameEvent fromBuffer(final ByteBuffer buffer) throws IOException {
+    final int start = buffer.position();
+    if (buffer.remaining() > 1 && (buffer.get(start) & 0xFF) == V3_MAGIC_0
+            && (buffer.get(start + 1) & 0xFF) == V3_MAGIC_1) {
+      buffer.position(start + 2);
+      try {
+        return decodeV3(buffer);
+      } catch (BufferUnderflowException ex) {
+        throw new IllegalArgumentException("Truncated game event packet", ex);
+      } finally {
+        buffer.position(buffer.limit());
+      }
+    }
+    final byte[] packet = new byte[buffer.remaining()];
+    buffer.get(packet);
+    return new BsGameEvent(new ByteArrayInputStream(packet));
+  }
+
+  private static BsGameEvent decodeV3(final ByteBuffer buffer) {
+    final long typeAndFlag = readVarLong(buffer);
+    final long typeOrdinal = typeAndFlag >>> 1;
+    if (typeOrdinal >= TYPES.length) {
+      throw new IllegalArgumentException("Unknown game event type: " + typeOrdinal);
+    }
+    final UUID uuid = new UUID(buffer.getLong(), buffer.getLong());
+    final int x;
+    final int y;
+    if ((typeAndFlag & 1L) != 0L) {
+      final int packed = buffer.get() & 0xFF;
+      x = packed >>> 4;
+      y = packed & 0xF;
+    } else {
+      x = (int) zigZagDecode(readVarLong(buffer));
+      y = (int) zigZagDecode(readVarLong(buffer));
+    }
+    final long timestamp = zigZagDecode(readVarLong(buffer)) + V3_EPOCH;
+    return new BsGameEvent(uuid, TYPES[(int) typeOrdinal], x, y, timestamp);
+  }
+
+  private static long readVarLong(final ByteBuffer buffer) {
+    long result = 0L;
+    for (int shift = 0; shift < 64; shift += 7) {
+      final int next = buffer.get();
+      result |= (long) (next & 0x7F) << shift;
+      if ((next & 0x80) == 0) {
+        return result;
+      }
+    }
+    throw new IllegalArgumentException("Too long varint in game event packet");
+  }
+
+  private static void writeVarLong(final ByteBuffer buffer, long value) {
+    while ((value & ~0x7FL) != 0L) {
+      buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  private static long zigZagEncode(final long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static long zigZagDecode(final long value) {
+    return (value >>> 1) ^ -(value & 1L);
+  }
+
   @Override
   public int compareTo(final BsGameEvent that) {
     return Long.compare(this.timestamp, that.timestamp);
   }
 
+  /**
+   * Encode event in required format.
+   *
+   * @param format {@link #FORMAT_V2} or {@link #FORMAT_V3}
+   * @return packet bytes
+   */
+  public byte[] asArray(final int format) throws IOException {
+    switch (format) {
+      case FORMAT_V2:
+        return this.asArray();
+      case FORMAT_V3: {
+        final ByteBuffer buffer = ByteBuffer.allocate(V3_MAX_LENGTH);
+        this.writeV3(buffer);
+        return Arrays.copyOf(buffer.array(), buffer.position());
+      }
+      default:
+        throw new IllegalArgumentException("Unsupported format: " + format);
+    }
+  }
+
+  /**
+   * Put packet of event in required format into buffer.
+   *
+   * @param buffer buffer in write mode
+   * @param format {@link #FORMAT_V2} or {@link #FORMAT_V3}
+   * @throws java.nio.BufferOverflowException if no room in the buffer
+   */
+  public void writeTo(final ByteBuffer buffer, final int format) throws IOException {
+    switch (format) {
+      case FORMAT_V2:
+        buffer.put(this.asArray());
+        break;
+      case FORMAT_V3:
+        this.writeV3(buffer);
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported format: " + format);
+    }
+  }
+
+  private void writeV3(final ByteBuffer buffer) {
+    buffer.put((byte) V3_MAGIC_0).put((byte) V3_MAGIC_1);
+    final boolean packed = (this.x & ~0xF) == 0 && (this.y & ~0xF) == 0;
+    writeVarLong(buffer, ((long) this.gameEventType.ordinal() << 1) | (packed ? 1L : 0L));
+    buffer.putLong(this.uuid.getMostSignificantBits()).putLong(this.uuid.getLeastSignificantBits());
+    if (packed) {
+      buffer.put((byte) ((this.x << 4) | this.y));
+    } else {
+      writeVarLong(buffer, zigZagEncode(this.x));
+      writeVarLong(buffer, zigZagEncode(this.y));
+    }
+    writeVarLong(buffer, zigZagEncode(this.timestamp - V3_EPOCH));
+  }
+
+  /**
+   * Encode event in v2 format.
+   *
+   * @return packet bytes
+   */
   public byte[] asArray() throws IOException {
     final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
     final DataOutputStream out = new DataOutputStream(buffer);
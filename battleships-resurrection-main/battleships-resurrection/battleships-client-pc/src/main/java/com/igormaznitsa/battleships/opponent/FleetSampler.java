@@ -0,0 +1,308 @@
+/*
+ *    Battleships PC client with GFX multi-player game support
+ *    Copyright (C) 2021 Igor Maznitsa
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+
+package com.igormaznitsa.battleships.opponent;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Monte-Carlo search of the next shot. Random enemy fleets consistent with the knowledge of
+ * {@link PlacementDensityMap} are sampled in parallel on a fork-join pool, the shot goes to the free
+ * cell which is occupied by a ship in the most of samples. Every worker of the pool samples until
+ * the limit of samples or the time budget of the move is reached, so more cores give more samples
+ * in the same time. Sampling buffers are allocated once and reused for every move.
+ */
+final class FleetSampler {
+
+  private static final int FIELD_EDGE = 10;
+  private static final int MAX_SHIP_CELLS = 4;
+  // attempts of random choice of a placement before scan of all placements of the size
+  private static final int RANDOM_ATTEMPTS = 16;
+  // samples between checks of the time budget
+  private static final int SAMPLES_PER_CHECK = 32;
+
+  private final ForkJoinPool pool;
+  private final long budgetNanos;
+  private final int maxSamples;
+  private final Random random;
+  private final Worker[] workers;
+
+  // knowledge of the current move, filled by the caller thread and read by workers
+  private final int[][] freePlacements = new int[MAX_SHIP_CELLS][PlacementDensityMap.placements()];
+  private final int[] freePlacementCounter = new int[MAX_SHIP_CELLS];
+  private final int[] hitPlacements = new int[PlacementDensityMap.placements()];
+  private int hitPlacementCounter;
+  private final int[] openHitCells = new int[FIELD_EDGE * FIELD_EDGE];
+  private int openHitCounter;
+  private final int[] remainingShips = new int[MAX_SHIP_CELLS];
+  private final long[] cellScores = new long[FIELD_EDGE * FIELD_EDGE];
+  private long deadline;
+  private int samplesPerWorker;
+
+  FleetSampler(final ForkJoinPool pool, final Duration budget, final int maxSamples,
+               final Random random) {
+    this.pool = pool;
+    this.budgetNanos = budget.toNanos();
+    this.maxSamples = maxSamples;
+    this.random = random;
+    this.workers = new Worker[Math.max(1, pool.getParallelism())];
+    for (int i = 0; i < this.workers.length; i++) {
+      this.workers[i] = new Worker(random.nextLong());
+    }
+  }
+
+  private static boolean containsCell(final int placement, final int cell) {
+    final int start = PlacementDensityMap.placementStart(placement);
+    final int step = PlacementDensityMap.placementStep(placement);
+    final int shift = cell - start;
+    return shift >= 0 && shift % step == 0 && shift / step < PlacementDensityMap.placementSize(placement)
+            && (step != 1 || cell / FIELD_EDGE == start / FIELD_EDGE);
+  }
+
+  /**
+   * Find the most probable ship cell.
+   *
+   * @param map knowledge about the enemy field
+   * @return offset of the found cell, -1 if no one consistent fleet has been sampled
+   */
+  int findTarget(final PlacementDensityMap map) {
+    this.prepare(map);
+    this.deadline = System.nanoTime() + this.budgetNanos;
+    this.samplesPerWorker = Math.max(1, this.maxSamples / this.workers.length);
+    this.pool.invoke(new SampleTask(0, this.workers.length));
+
+    final long[] scores = this.cellScores;
+    for (int cell = 0; cell < scores.length; cell++) {
+      long score = 0L;
+      for (final Worker worker : this.workers) {
+        score += worker.shipCounter[cell];
+      }
+      scores[cell] = score;
+    }
+
+    int result = -1;
+    long best = 0L;
+    int equalCells = 0;
+    for (int cell = 0; cell < scores.length; cell++) {
+      if (!map.isFreeCell(cell)) {
+        continue;
+      }
+      final long score = scores[cell];
+      if (score > best) {
+        best = score;
+        result = cell;
+        equalCells = 1;
+      } else if (score == best && score > 0L && this.random.nextInt(++equalCells) == 0) {
+        result = cell;
+      }
+    }
+    return result;
+  }
+
+  int getLastSamples() {
+    int result = 0;
+    for (final Worker worker : this.workers) {
+      result += worker.samples;
+    }
+    return result;
+  }
+
+  private void prepare(final PlacementDensityMap map) {
+    for (int size = 1; size <= MAX_SHIP_CELLS; size++) {
+      this.remainingShips[size - 1] = map.getRemainingShips(size);
+      this.freePlacementCounter[size - 1] = 0;
+    }
+    this.hitPlacementCounter = 0;
+    for (int placement = 0; placement < PlacementDensityMap.placements(); placement++) {
+      if (map.isPossible(placement)) {
+        if (map.containsHit(placement)) {
+          this.hitPlacements[this.hitPlacementCounter++] = placement;
+        } else {
+          final int size = PlacementDensityMap.placementSize(placement) - 1;
+          this.freePlacements[size][this.freePlacementCounter[size]++] = placement;
+        }
+      }
+    }
+    this.openHitCounter = 0;
+    for (int cell = 0; cell < FIELD_EDGE * FIELD_EDGE; cell++) {
+      if (map.isOpenHitCell(cell)) {
+        this.openHitCells[this.openHitCounter++] = cell;
+      }
+    }
+  }
+
+  private final class SampleTask extends RecursiveAction {
+    private static final long serialVersionUID = -2719237458327465391L;
+
+    private final int from;
+    private final int to;
+
+    private SampleTask(final int from, final int to) {
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (this.to - this.from == 1) {
+        workers[this.from].sample();
+      } else {
+        final int middle = (this.from + this.to) >>> 1;
+        invokeAll(new SampleTask(this.from, middle), new SampleTask(middle, this.to));
+      }
+    }
+  }
+
+  /**
+   * Buffers of a worker, used by one task of a move.
+   */
+  private final class Worker {
+    private final SplittableRandom random;
+    private final int[] shipCounter = new int[FIELD_EDGE * FIELD_EDGE];
+    // cells marked by the current generation are occupied by a sampled ship or touch it
+    private final int[] occupied = new int[FIELD_EDGE * FIELD_EDGE];
+    private final int[] covered = new int[FIELD_EDGE * FIELD_EDGE];
+    private final int[] remaining = new int[MAX_SHIP_CELLS];
+    private final int[] sampledPlacements = new int[FIELD_EDGE * FIELD_EDGE];
+    private int generation;
+    private int samples;
+
+    private Worker(final long seed) {
+      this.random = new SplittableRandom(seed);
+    }
+
+    private void sample() {
+      Arrays.fill(this.shipCounter, 0);
+      this.samples = 0;
+      int attempts = 0;
+      while (this.samples < samplesPerWorker
+              && (++attempts % SAMPLES_PER_CHECK != 0 || System.nanoTime() < deadline)) {
+        if (this.sampleFleet()) {
+          this.samples++;
+        }
+      }
+    }
+
+    private boolean isFree(final int placement) {
+      int cell = PlacementDensityMap.placementStart(placement);
+      final int step = PlacementDensityMap.placementStep(placement);
+      for (int i = PlacementDensityMap.placementSize(placement); i > 0; i--) {
+        if (this.occupied[cell] == this.generation) {
+          return false;
+        }
+        cell += step;
+      }
+      return true;
+    }
+
+    private void place(final int placement) {
+      int cell = PlacementDensityMap.placementStart(placement);
+      final int step = PlacementDensityMap.placementStep(placement);
+      for (int i = PlacementDensityMap.placementSize(placement); i > 0; i--) {
+        this.covered[cell] = this.generation;
+        final int cx = cell % FIELD_EDGE;
+        final int cy = cell / FIELD_EDGE;
+        for (int y = Math.max(0, cy - 1); y <= Math.min(FIELD_EDGE - 1, cy + 1); y++) {
+          for (int x = Math.max(0, cx - 1); x <= Math.min(FIELD_EDGE - 1, cx + 1); x++) {
+            this.occupied[x + y * FIELD_EDGE] = this.generation;
+          }
+        }
+        cell += step;
+      }
+      this.remaining[PlacementDensityMap.placementSize(placement) - 1]--;
+    }
+
+    private boolean sampleFleet() {
+      if (++this.generation == 0) {
+        Arrays.fill(this.occupied, 0);
+        Arrays.fill(this.covered, 0);
+        this.generation = 1;
+      }
+      System.arraycopy(remainingShips, 0, this.remaining, 0, MAX_SHIP_CELLS);
+      int sampled = 0;
+
+      // ships through hit cells at first, a possible placement through a hit contains all its group
+      for (int i = 0; i < openHitCounter; i++) {
+        final int hitCell = openHitCells[i];
+        if (this.covered[hitCell] == this.generation) {
+          continue;
+        }
+        int found = -1;
+        int variants = 0;
+        for (int j = 0; j < hitPlacementCounter; j++) {
+          final int placement = hitPlacements[j];
+          if (this.remaining[PlacementDensityMap.placementSize(placement) - 1] > 0
+                  && containsCell(placement, hitCell)
+                  && this.isFree(placement)
+                  && this.random.nextInt(++variants) == 0) {
+            found = placement;
+          }
+        }
+        if (found < 0) {
+          return false;
+        }
+        this.place(found);
+        this.sampledPlacements[sampled++] = found;
+      }
+
+      // other ships from the longest one
+      for (int size = MAX_SHIP_CELLS; size > 0; size--) {
+        final int[] placements = freePlacements[size - 1];
+        final int counter = freePlacementCounter[size - 1];
+        while (this.remaining[size - 1] > 0) {
+          if (counter == 0) {
+            return false;
+          }
+          int found = -1;
+          for (int i = 0; i < RANDOM_ATTEMPTS && found < 0; i++) {
+            final int placement = placements[this.random.nextInt(counter)];
+            if (this.isFree(placement)) {
+              found = placement;
+            }
+          }
+          if (found < 0) {
+            int variants = 0;
+            for (int i = 0; i < counter; i++) {
+              if (this.isFree(placements[i]) && this.random.nextInt(++variants) == 0) {
+                found = placements[i];
+              }
+            }
+            if (found < 0) {
+              return false;
+            }
+          }
+          this.place(found);
+          this.sampledPlacements[sampled++] = found;
+        }
+      }
+
+      for (int i = 0; i < sampled; i++) {
+        final int placement = this.sampledPlacements[i];
+        int cell = PlacementDensityMap.placementStart(placement);
+        for (int j = PlacementDensityMap.placementSize(placement); j > 0; j--) {
+          this.shipCounter[cell]++;
+          cell += PlacementDensityMap.placementStep(placement);
+        }
+      }
+      return true;
+    }
+  }
+}
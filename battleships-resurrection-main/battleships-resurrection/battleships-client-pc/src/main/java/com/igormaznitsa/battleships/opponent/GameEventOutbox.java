@@ -0,0 +1,85 @@
+/*
+ *    Battleships PC client with GFX multi-player game support
+ *    Copyright (C) 2021 Igor Maznitsa
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+
+package com.igormaznitsa.battleships.opponent;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Outgoing game events of a player. Events are kept in the queue for polling until a listener is
+ * set, after that they are passed to the listener at once, in the thread which has made them.
+ */
+public final class GameEventOutbox {
+  private final BlockingQueue<BsGameEvent> queue;
+  private volatile Consumer<BsGameEvent> listener;
+
+  public GameEventOutbox(final BlockingQueue<BsGameEvent> queue) {
+    this.queue = Objects.requireNonNull(queue);
+  }
+
+  /**
+   * Pass event to the listener or place it into the queue.
+   *
+   * @param event event, must not be null
+   * @return false if there is no listener and the queue is full
+   */
+  public boolean offer(final BsGameEvent event) {
+    Objects.requireNonNull(event);
+    Consumer<BsGameEvent> current = this.listener;
+    if (current == null) {
+      synchronized (this) {
+        current = this.listener;
+        if (current == null) {
+          return this.queue.offer(event);
+        }
+      }
+    }
+    current.accept(event);
+    return true;
+  }
+
+  public Optional<BsGameEvent> poll(final Duration duration) throws InterruptedException {
+    return Optional.ofNullable(this.queue.poll(duration.toMillis(), TimeUnit.MILLISECONDS));
+  }
+
+  public Optional<BsGameEvent> poll() {
+    return Optional.ofNullable(this.queue.poll());
+  }
+
+  public int size() {
+    return this.queue.size();
+  }
+
+  /**
+   * Set listener, already queued events are passed to it before return.
+   *
+   * @param listener listener, null returns events to the queue
+   */
+  public synchronized void setListener(final Consumer<BsGameEvent> listener) {
+    if (listener != null) {
+      BsGameEvent queued;
+      while ((queued = this.queue.poll()) != null) {
+        listener.accept(queued);
+      }
+    }
+    this.listener = listener;
+  }
+}
@@ -11,6 +11,7 @@ import java.time.Duration;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 public class NewNetSingleSessionOpponent implements BattleshipsPlayer {
@@ -41,6 +42,15 @@ public class NewNetSingleSessionOpponent implements BattleshipsPlayer {
     this.opponentLink.get().sendEvent(event);
   }
 
+  @Override
+  public void setGameEventListener(final Consumer<BsGameEvent> listener) {
+    final TcpGameLink link = this.opponentLink.get();
+    if (link == null) {
+      throw new IllegalStateException("Player is not started");
+    }
+    link.setIncomingEventListener(listener);
+  }
+
   @Override
   public BattleshipsPlayer startPlayer() {
     try {
@@ -15,6 +15,7 @@
 
 package com.igormaznitsa.battleships.opponent;
 
+import com.igormaznitsa.battleships.commons.GfxPacketCodec;
 import com.igormaznitsa.battleships.gui.panels.GameField;
 import com.igormaznitsa.battleships.utils.Utils;
 
@@ -24,6 +25,7 @@ import java.net.HttpURLConnection;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
@@ -35,6 +37,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -43,8 +46,6 @@ import static java.util.Arrays.stream;
 
 public class OldGfxBattleshipSingleSessionBot implements BattleshipsPlayer {
 
-  private static final int PACKET_HEADER = 0xFFCAFE00;
-
   private static final Logger LOGGER =
           Logger.getLogger(OldGfxBattleshipSingleSessionBot.class.getName());
   private static final int MOVE_MISS = 5;
@@ -52,7 +53,7 @@ public class OldGfxBattleshipSingleSessionBot implements BattleshipsPlayer {
   private static final int MOVE_KILLED = 4;
   private volatile boolean myFirstTurn;
   private final BlockingQueue<BsGameEvent> queueIn = new ArrayBlockingQueue<>(10);
-  private final BlockingQueue<BsGameEvent> queueOut = new ArrayBlockingQueue<>(10);
+  private final GameEventOutbox queueOut = new GameEventOutbox(new ArrayBlockingQueue<>(10));
   private final String id;
   private final URI uriInput;
   private final URI uriOutput;
@@ -180,35 +181,24 @@ public class OldGfxBattleshipSingleSessionBot implements BattleshipsPlayer {
 
         this.openedHttpConnection.set(httpURLConnection);
         try (final DataInputStream inputStream = new DataInputStream(httpURLConnection.getInputStream())) {
-          final int[] packetBuffer = new int[5];
-          int bufferPointer = -10;
+          final GfxPacketCodec inCodec = new GfxPacketCodec();
 
           while (!Thread.currentThread().isInterrupted()) {
             try {
-              final int data = inputStream.readInt();
-              if (bufferPointer >= 0) {
-                packetBuffer[bufferPointer++] = data;
-                if (bufferPointer == packetBuffer.length) {
-                  final int checkSum = Arrays.stream(packetBuffer, 0, 4).sum();
-                  if (checkSum != packetBuffer[4]) {
-                    packetBuffer[0] = ProtocolEvent.NETWORK_ERROR.code;
-                  }
-                  if (packetBuffer[0] == ProtocolEvent.NONE.code) {
-                    try {
-                      Thread.sleep(10);
-                    } catch (InterruptedException ex) {
-                      Thread.currentThread().interrupt();
-                    }
-                  } else {
-                    this.onIncomingPacket(packetBuffer);
-                  }
-                  bufferPointer = -1;
+              final int result = inCodec.decode(inputStream.readInt());
+              if (result != GfxPacketCodec.DECODE_NEED_MORE) {
+                final int[] packet = inCodec.getPacket();
+                if (result == GfxPacketCodec.DECODE_WRONG_CHECKSUM) {
+                  packet[0] = ProtocolEvent.NETWORK_ERROR.code;
                 }
-              } else {
-                if (data == PACKET_HEADER) {
-                  bufferPointer = 0;
+                if (packet[0] == ProtocolEvent.NONE.code) {
+                  try {
+                    Thread.sleep(10);
+                  } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                  }
                 } else {
-                  bufferPointer = -1;
+                  this.onIncomingPacket(packet);
                 }
               }
             } catch (IOException ex) {
@@ -482,19 +472,9 @@ public class OldGfxBattleshipSingleSessionBot implements BattleshipsPlayer {
                                       final int arg3)
           throws IOException, InterruptedException {
 
-    final ByteArrayOutputStream bufferStream = new ByteArrayOutputStream();
-    final DataOutputStream dataStream = new DataOutputStream(bufferStream);
-
-    dataStream.writeInt(PACKET_HEADER);
-    dataStream.writeInt(event.code);
-    dataStream.writeInt(arg1);
-    dataStream.writeInt(arg2);
-    dataStream.writeInt(arg3);
-    dataStream.writeInt(event.code + arg1 + arg2 + arg3);
-    dataStream.flush();
-    dataStream.close();
-
-    final byte[] data = bufferStream.toByteArray();
+    // encoded into own buffer of the call, so that threads sending packets don't wait for each other
+    final byte[] packet = new byte[GfxPacketCodec.PACKET_SIZE];
+    GfxPacketCodec.encode(ByteBuffer.wrap(packet), event.code, arg1, arg2, arg3);
 
     final HttpURLConnection connection =
             prepareConnection("POST", this.uriOutput, this.playerId, this.sessionId.get(), true, true);
@@ -502,7 +482,7 @@ public class OldGfxBattleshipSingleSessionBot implements BattleshipsPlayer {
 
     connection.connect();
     try (final OutputStream outputStream = connection.getOutputStream()) {
-      outputStream.write(data);
+      outputStream.write(packet);
       outputStream.flush();
     }
     final int responseCode = connection.getResponseCode();
@@ -510,7 +490,7 @@ public class OldGfxBattleshipSingleSessionBot implements BattleshipsPlayer {
     if (responseCode != 200) {
       LOGGER.log(Level.SEVERE,
               "Can't send package to server, response status " + responseCode + ": " +
-                      Arrays.toString(data));
+                      event + " " + arg1 + "," + arg2 + "," + arg3);
       throw new IOException("Error response code: " + responseCode);
     }
     connection.disconnect();
@@ -520,7 +500,12 @@ public class OldGfxBattleshipSingleSessionBot implements BattleshipsPlayer {
 
   @Override
   public Optional<BsGameEvent> pollGameEvent(final Duration duration) throws InterruptedException {
-    return Optional.ofNullable(this.queueOut.poll(duration.toMillis(), TimeUnit.MILLISECONDS));
+    return this.queueOut.poll(duration);
+  }
+
+  @Override
+  public void setGameEventListener(final Consumer<BsGameEvent> listener) {
+    this.queueOut.setListener(listener);
   }
 
   @Override
@@ -0,0 +1,348 @@
+/*
+ *    Battleships PC client with GFX multi-player game support
+ *    Copyright (C) 2021 Igor Maznitsa
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+
+package com.igormaznitsa.battleships.opponent;
+
+import java.util.Random;
+
+/**
+ * Heat map of the enemy field, every cell keeps number of still possible placements of remaining
+ * enemy ships which cover the cell. A placement is possible if it doesn't contain a miss, a banned
+ * or a killed cell and doesn't touch a hit cell from outside. Results of shots update only
+ * placements which contain the changed cells or touch them, so the map is never recalculated
+ * and works without allocations during game.
+ */
+final class PlacementDensityMap {
+
+  private static final int FIELD_EDGE = 10;
+  private static final int MAX_SHIP_CELLS = 4;
+
+  private static final byte FLAG_BLOCKED = 1;
+  private static final byte FLAG_HIT = 2;
+
+  // every placement of ships of every size, one cell ships only once
+  private static final int[] PLACEMENT_SIZE;
+  private static final int[] PLACEMENT_START;
+  private static final int[] PLACEMENT_STEP;
+
+  // placements which contain a cell, indexes of a cell are between COVER_INDEX[cell] and COVER_INDEX[cell + 1]
+  private static final int[] COVER_INDEX;
+  private static final int[] COVER;
+
+  // placements which have a cell among their neighbours
+  private static final int[] RING_INDEX;
+  private static final int[] RING;
+
+  static {
+    int placements = 0;
+    for (int size = 1; size <= MAX_SHIP_CELLS; size++) {
+      placements += (FIELD_EDGE - size + 1) * FIELD_EDGE * (size == 1 ? 1 : 2);
+    }
+    PLACEMENT_SIZE = new int[placements];
+    PLACEMENT_START = new int[placements];
+    PLACEMENT_STEP = new int[placements];
+
+    int index = 0;
+    for (int size = 1; size <= MAX_SHIP_CELLS; size++) {
+      for (int y = 0; y < FIELD_EDGE; y++) {
+        for (int x = 0; x <= FIELD_EDGE - size; x++) {
+          PLACEMENT_SIZE[index] = size;
+          PLACEMENT_START[index] = offset(x, y);
+          PLACEMENT_STEP[index++] = 1;
+        }
+      }
+      if (size > 1) {
+        for (int y = 0; y <= FIELD_EDGE - size; y++) {
+          for (int x = 0; x < FIELD_EDGE; x++) {
+            PLACEMENT_SIZE[index] = size;
+            PLACEMENT_START[index] = offset(x, y);
+            PLACEMENT_STEP[index++] = FIELD_EDGE;
+          }
+        }
+      }
+    }
+
+    final boolean[][] covered = new boolean[placements][FIELD_EDGE * FIELD_EDGE];
+    final boolean[][] ring = new boolean[placements][FIELD_EDGE * FIELD_EDGE];
+    for (int p = 0; p < placements; p++) {
+      for (int i = 0; i < PLACEMENT_SIZE[p]; i++) {
+        covered[p][PLACEMENT_START[p] + i * PLACEMENT_STEP[p]] = true;
+      }
+      for (int i = 0; i < PLACEMENT_SIZE[p]; i++) {
+        final int cell = PLACEMENT_START[p] + i * PLACEMENT_STEP[p];
+        final int cx = cell % FIELD_EDGE;
+        final int cy = cell / FIELD_EDGE;
+        for (int dy = -1; dy < 2; dy++) {
+          for (int dx = -1; dx < 2; dx++) {
+            final int px = cx + dx;
+            final int py = cy + dy;
+            if (isValid(px, py) && !covered[p][offset(px, py)]) {
+              ring[p][offset(px, py)] = true;
+            }
+          }
+        }
+      }
+    }
+
+    COVER_INDEX = new int[FIELD_EDGE * FIELD_EDGE + 1];
+    COVER = invert(covered, COVER_INDEX);
+    RING_INDEX = new int[FIELD_EDGE * FIELD_EDGE + 1];
+    RING = invert(ring, RING_INDEX);
+  }
+
+  // density of the empty field
+  private static final int[][] INITIAL_DENSITY;
+
+  static {
+    INITIAL_DENSITY = new int[MAX_SHIP_CELLS][FIELD_EDGE * FIELD_EDGE];
+    for (int p = 0; p < PLACEMENT_SIZE.length; p++) {
+      for (int i = 0; i < PLACEMENT_SIZE[p]; i++) {
+        INITIAL_DENSITY[PLACEMENT_SIZE[p] - 1][PLACEMENT_START[p] + i * PLACEMENT_STEP[p]]++;
+      }
+    }
+  }
+
+  private final Random random;
+  private final byte[] cells = new byte[FIELD_EDGE * FIELD_EDGE];
+  private final int[] blockedCells = new int[PLACEMENT_SIZE.length];
+  private final int[] hitCells = new int[PLACEMENT_SIZE.length];
+  private final int[] hitNeighbours = new int[PLACEMENT_SIZE.length];
+  // placements by ship size covering every cell, all possible and ones containing a hit cell
+  private final int[][] density = new int[MAX_SHIP_CELLS][FIELD_EDGE * FIELD_EDGE];
+  private final int[][] hitDensity = new int[MAX_SHIP_CELLS][FIELD_EDGE * FIELD_EDGE];
+  private final int[] counterOfShips = new int[]{4, 3, 2, 1};
+  private int openHits;
+
+  PlacementDensityMap(final Random random) {
+    this.random = random;
+    for (int size = 0; size < MAX_SHIP_CELLS; size++) {
+      System.arraycopy(INITIAL_DENSITY[size], 0, this.density[size], 0, FIELD_EDGE * FIELD_EDGE);
+    }
+  }
+
+  private static int offset(final int x, final int y) {
+    return x + y * FIELD_EDGE;
+  }
+
+  private static boolean isValid(final int x, final int y) {
+    return x >= 0 && x < FIELD_EDGE && y >= 0 && y < FIELD_EDGE;
+  }
+
+  static int placements() {
+    return PLACEMENT_SIZE.length;
+  }
+
+  static int placementSize(final int placement) {
+    return PLACEMENT_SIZE[placement];
+  }
+
+  static int placementStart(final int placement) {
+    return PLACEMENT_START[placement];
+  }
+
+  static int placementStep(final int placement) {
+    return PLACEMENT_STEP[placement];
+  }
+
+  private static int[] invert(final boolean[][] placementCells, final int[] index) {
+    int total = 0;
+    for (int cell = 0; cell < FIELD_EDGE * FIELD_EDGE; cell++) {
+      index[cell] = total;
+      for (final boolean[] cells : placementCells) {
+        if (cells[cell]) {
+          total++;
+        }
+      }
+    }
+    index[FIELD_EDGE * FIELD_EDGE] = total;
+    final int[] result = new int[total];
+    int position = 0;
+    for (int cell = 0; cell < FIELD_EDGE * FIELD_EDGE; cell++) {
+      for (int p = 0; p < placementCells.length; p++) {
+        if (placementCells[p][cell]) {
+          result[position++] = p;
+        }
+      }
+    }
+    return result;
+  }
+
+  boolean isPossible(final int placement) {
+    return this.blockedCells[placement] == 0 && this.hitNeighbours[placement] == 0;
+  }
+
+  boolean containsHit(final int placement) {
+    return this.hitCells[placement] > 0;
+  }
+
+  boolean isFreeCell(final int cell) {
+    return this.cells[cell] == 0;
+  }
+
+  boolean isOpenHitCell(final int cell) {
+    return this.cells[cell] == FLAG_HIT;
+  }
+
+  int getRemainingShips(final int shipCells) {
+    return this.counterOfShips[shipCells - 1];
+  }
+
+  private void addPlacement(final int placement, final int delta) {
+    final int[] sizeDensity = this.density[PLACEMENT_SIZE[placement] - 1];
+    final int[] sizeHitDensity = this.hitDensity[PLACEMENT_SIZE[placement] - 1];
+    final boolean withHit = this.hitCells[placement] > 0;
+    int cell = PLACEMENT_START[placement];
+    for (int i = 0; i < PLACEMENT_SIZE[placement]; i++) {
+      sizeDensity[cell] += delta;
+      if (withHit) {
+        sizeHitDensity[cell] += delta;
+      }
+      cell += PLACEMENT_STEP[placement];
+    }
+  }
+
+  private void block(final int cell) {
+    if ((this.cells[cell] & FLAG_BLOCKED) != 0) {
+      return;
+    }
+    this.cells[cell] |= FLAG_BLOCKED;
+    for (int i = COVER_INDEX[cell]; i < COVER_INDEX[cell + 1]; i++) {
+      final int placement = COVER[i];
+      if (this.isPossible(placement)) {
+        this.addPlacement(placement, -1);
+      }
+      this.blockedCells[placement]++;
+    }
+  }
+
+  private void blockIfValid(final int x, final int y) {
+    if (isValid(x, y)) {
+      this.block(offset(x, y));
+    }
+  }
+
+  private void hit(final int x, final int y) {
+    final int cell = offset(x, y);
+    if ((this.cells[cell] & FLAG_HIT) == 0) {
+      this.cells[cell] |= FLAG_HIT;
+      this.openHits++;
+      for (int i = COVER_INDEX[cell]; i < COVER_INDEX[cell + 1]; i++) {
+        final int placement = COVER[i];
+        final boolean possible = this.isPossible(placement);
+        if (possible) {
+          this.addPlacement(placement, -1);
+        }
+        this.hitCells[placement]++;
+        if (possible) {
+          this.addPlacement(placement, 1);
+        }
+      }
+      for (int i = RING_INDEX[cell]; i < RING_INDEX[cell + 1]; i++) {
+        final int placement = RING[i];
+        if (this.isPossible(placement)) {
+          this.addPlacement(placement, -1);
+        }
+        this.hitNeighbours[placement]++;
+      }
+    }
+    // ships are straight and don't touch each other, so diagonal neighbours are free
+    this.blockIfValid(x - 1, y - 1);
+    this.blockIfValid(x + 1, y - 1);
+    this.blockIfValid(x - 1, y + 1);
+    this.blockIfValid(x + 1, y + 1);
+  }
+
+  private boolean isOpenHit(final int x, final int y) {
+    return isValid(x, y) && this.cells[offset(x, y)] == FLAG_HIT;
+  }
+
+  void onMiss(final int x, final int y) {
+    this.block(offset(x, y));
+  }
+
+  void onHit(final int x, final int y) {
+    this.hit(x, y);
+  }
+
+  void onKilled(final int x, final int y) {
+    this.hit(x, y);
+    final int dx = this.isOpenHit(x - 1, y) || this.isOpenHit(x + 1, y) ? 1 : 0;
+    final int dy = 1 - dx;
+    int startX = x;
+    int startY = y;
+    while (this.isOpenHit(startX - dx, startY - dy)) {
+      startX -= dx;
+      startY -= dy;
+    }
+    int shipCells = 0;
+    while (this.isOpenHit(startX + dx * shipCells, startY + dy * shipCells)) {
+      shipCells++;
+    }
+    if (shipCells > MAX_SHIP_CELLS || this.counterOfShips[shipCells - 1] == 0) {
+      throw new IllegalStateException(
+              "Killed a ship which instances already all gone: " + shipCells + " cells at " + x + ',' + y);
+    }
+    this.counterOfShips[shipCells - 1]--;
+    this.openHits -= shipCells;
+    for (int i = 0; i < shipCells; i++) {
+      final int cx = startX + dx * i;
+      final int cy = startY + dy * i;
+      for (int ny = cy - 1; ny <= cy + 1; ny++) {
+        for (int nx = cx - 1; nx <= cx + 1; nx++) {
+          this.blockIfValid(nx, ny);
+        }
+      }
+    }
+  }
+
+  /**
+   * Find cell which is covered by the most of possible placements weighted by number of remaining
+   * ships of their size. If there is a hit ship then only placements containing hit cells are in
+   * use. Equal cells are selected randomly.
+   *
+   * @return offset of the found cell, -1 if there is no any possible placement
+   */
+  int findTarget() {
+    int result = -1;
+    if (this.openHits > 0) {
+      result = this.findMostCovered(this.hitDensity);
+    }
+    return result < 0 ? this.findMostCovered(this.density) : result;
+  }
+
+  private int findMostCovered(final int[][] sizeDensity) {
+    int result = -1;
+    long best = 0L;
+    int equalCells = 0;
+    for (int cell = 0; cell < FIELD_EDGE * FIELD_EDGE; cell++) {
+      if (this.cells[cell] != 0) {
+        continue;
+      }
+      long weight = 0L;
+      for (int size = 0; size < MAX_SHIP_CELLS; size++) {
+        weight += (long) this.counterOfShips[size] * sizeDensity[size][cell];
+      }
+      if (weight > best) {
+        best = weight;
+        result = cell;
+        equalCells = 1;
+      } else if (weight == best && weight > 0L && this.random.nextInt(++equalCells) == 0) {
+        result = cell;
+      }
+    }
+    return result;
+  }
+}
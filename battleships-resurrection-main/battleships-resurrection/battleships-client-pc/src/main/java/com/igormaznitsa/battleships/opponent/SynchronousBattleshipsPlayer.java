@@ -0,0 +1,50 @@
+/*
+ *    Battleships PC client with GFX multi-player game support
+ *    Copyright (C) 2021 Igor Maznitsa
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+
+package com.igormaznitsa.battleships.opponent;
+
+import java.util.function.Consumer;
+
+/**
+ * Player which processes game events in the thread of the caller, without own thread and queues.
+ * Suitable only for players living in the same process.
+ */
+public interface SynchronousBattleshipsPlayer {
+  /**
+   * Start game session, instead of {@link BattleshipsPlayer#startPlayer()}.
+   *
+   * @param output gets the ready event of the player
+   */
+  void startGame(Consumer<BsGameEvent> output);
+
+  /**
+   * Process incoming game event.
+   *
+   * @param event  incoming event, must not be null
+   * @param output gets all events generated by the player in answer, before return
+   */
+  void processGameEvent(BsGameEvent event, Consumer<BsGameEvent> output);
+
+  /**
+   * Check that answers of the player can take long time, such player must not be called from a
+   * thread which has to stay responsive.
+   *
+   * @return true if processing of an event can take long time, false by default
+   */
+  default boolean isSlowToAnswer() {
+    return false;
+  }
+}
@@ -25,6 +25,10 @@ public class OpponentRecord implements Comparable<OpponentRecord> {
     return this.incomingData.getTimestamp();
   }
 
+  public int getEventFormat() {
+    return this.incomingData.getEventFormat();
+  }
+
   @Override
   public String toString() {
     return String.format("%s (%s)", this.uid, this.getAddress());
@@ -1,6 +1,7 @@
 package com.igormaznitsa.battleships.opponent.net;
 
 import com.igormaznitsa.battleships.gui.StartOptions;
+import com.igormaznitsa.battleships.opponent.BsGameEvent;
 import com.igormaznitsa.battleships.utils.Pair;
 
 import javax.swing.*;
@@ -99,7 +100,7 @@ public class SelectNetOpponentDialog extends JDialog {
       }
     });
     this.listAllowedPlayers.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
-    this.listAllowedPlayers.setPrototypeCellValue(new OpponentRecord(new UdpMessage(0, "1234567890ABCDEF::1234567890ABCDEF@1234567890ABCDEF", UdpMessage.Event.NO, "0.0.0.0", 0, 0)));
+    this.listAllowedPlayers.setPrototypeCellValue(new OpponentRecord(new UdpMessage(0, "1234567890ABCDEF::1234567890ABCDEF@1234567890ABCDEF", UdpMessage.Event.NO, "0.0.0.0", 0, 0, BsGameEvent.FORMAT_V2)));
 
     this.udpBroadcasting = new UdpBroadcastingServer(uid, DELAY_BROADCAST_CHECK, address, port, this.incomingUdpRecordQueue::offer);
 
@@ -1,29 +1,39 @@
 package com.igormaznitsa.battleships.opponent.net;
 
 import com.igormaznitsa.battleships.opponent.BsGameEvent;
+import com.igormaznitsa.battleships.opponent.GameEventOutbox;
 import com.igormaznitsa.battleships.opponent.GameEventType;
 import com.igormaznitsa.battleships.utils.NetUtils;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.InterfaceAddress;
 import java.net.Socket;
-import java.nio.channels.ClosedByInterruptException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.PriorityBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -36,26 +46,84 @@ public class TcpGameLink {
   private static final Duration DELAY_BETWEEN_RETRY = Duration.ofMillis(200);
   private static final Duration ALIVE_SEND_DELAY = Duration.ofSeconds(5);
   private static final Duration MAX_ALIVE_DELAY = Duration.ofSeconds(15);
+  // without ack the connection is treated as broken and made again
+  private static final Duration MAX_ACK_DELAY = Duration.ofSeconds(3);
+  private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(1);
+  // frames of persistent link: int length of rest, byte kind, payload
+  // event frame payload: int sequence number starting with 1, event packet
+  private static final int FRAME_EVENT = 1;
+  // ack frame payload: int sequence number of the last event got in order, so it acks all before too
+  private static final int FRAME_ACK = 2;
+  private static final int FRAME_ALIVE = 3;
+  // sent on dispose, so the opponent doesn't wait for reconnect
+  private static final int FRAME_CLOSE = 4;
+  // max number of sent but not acked events, next ones wait in the output queue
+  private static final int RETRANSMIT_WINDOW = 16;
+  private static final int MAX_RECENT_INCOMING_IDS = 64;
+  private static final int MAX_FRAME_LENGTH = 1024;
+  private static final int STREAM_IN_BUFFER_SIZE = 8192;
+  private static final int STREAM_OUT_BUFFER_SIZE = 16384;
+  // packets of old opponents are read till end of connection or end of buffer
+  private static final int LEGACY_PACKET_BUFFER_SIZE = 4096;
+  private static final int MAX_POOLED_RECEIVE_BUFFERS = 4;
+  private static final byte[] ALIVE_PACKET = "alive_event".getBytes(StandardCharsets.UTF_8);
+  private static final ByteBuffer ALIVE_PACKET_BUFFER = ByteBuffer.wrap(ALIVE_PACKET).asReadOnlyBuffer();
   private final AtomicReference<Thread> serverThread = new AtomicReference<>();
   private final String name;
   private final OpponentRecord opponentRecord;
-  private final BlockingQueue<BsGameEvent> incomingRecords = new PriorityBlockingQueue<>(256);
+  private final GameEventOutbox incomingRecords = new GameEventOutbox(new LinkedBlockingQueue<>());
   private final BlockingQueue<BsGameEvent> outgoingRecords = new ArrayBlockingQueue<>(256);
   private final AtomicReference<String> globalError = new AtomicReference<>();
   private final ServerSocketChannel serverSocketChannel;
   private final AtomicBoolean opponentActive = new AtomicBoolean();
   private final InetAddress opponentAddress;
+  private final int eventFormat;
+  // opponents since v3 keep one connection for whole game, older ones connect for every packet
+  private final boolean persistent;
+  // only one side connects to avoid two crossing connections, the other one accepts
+  private final boolean connector;
+  private final Selector selector;
+  // fields below are used only by the thread of the main loop
+  private final Deque<ByteBuffer> receiveBufferPool = new ArrayDeque<>();
+  // events sent after the last acked sequence number, in order
+  private final Deque<BsGameEvent> notAckedEvents = new ArrayDeque<>();
+  private final Set<UUID> recentIncomingIds = new LinkedHashSet<>();
+  private final ByteBuffer streamIn = ByteBuffer.allocateDirect(STREAM_IN_BUFFER_SIZE);
+  private final ByteBuffer streamOut = ByteBuffer.allocateDirect(STREAM_OUT_BUFFER_SIZE);
+  private SocketChannel streamChannel;
+  private SelectionKey streamKey;
+  private boolean streamConnected;
+  private boolean connectionErrorReported;
+  private long connectDeadline;
+  private long nextConnectTime;
+  private long lastPacketInTime;
+  private long lastPacketOutTime;
+  private long ackWaitStart;
+  private int ackedSequence;
+  private int receivedSequence;
+  private boolean ackPending;
 
   public TcpGameLink(final OpponentRecord opponent, final InterfaceAddress interfaceAddress, final int port) throws IOException {
     this.opponentRecord = opponent;
     this.opponentAddress = InetAddress.getByName(opponent.getAddress());
+    // the advertised format is not trusted, everything the link can't speak falls back to v2
+    this.eventFormat = opponent.getEventFormat() >= BsGameEvent.FORMAT_V3 ? BsGameEvent.FORMAT_V3 : BsGameEvent.FORMAT_V2;
+    LOGGER.info("game event format: " + this.eventFormat);
     this.serverSocketChannel = ServerSocketChannel.open();
     this.serverSocketChannel.bind(new InetSocketAddress(interfaceAddress.getAddress(), port));
     this.serverSocketChannel.configureBlocking(false);
+    this.selector = Selector.open();
+    this.persistent = this.eventFormat >= BsGameEvent.FORMAT_V3;
+    this.connector = compareEndpoints(interfaceAddress.getAddress(), port, this.opponentAddress, opponent.getPort()) < 0;
 
     this.name = this.serverSocketChannel.toString();
   }
 
+  private static int compareEndpoints(final InetAddress addressA, final int portA, final InetAddress addressB, final int portB) {
+    final int result = Arrays.compareUnsigned(addressA.getAddress(), addressB.getAddress());
+    return result == 0 ? Integer.compare(portA, portB) : result;
+  }
+
   public TcpGameLink start() {
     final Thread newThread = new Thread(this::mainLoop, "tcp-socket-server");
     newThread.setDaemon(true);
@@ -101,6 +169,7 @@ public class TcpGameLink {
     if (!this.outgoingRecords.offer(gameEvent)) {
       this.raiseGlobalError("Can't place packet into output queue");
     }
+    this.selector.wakeup();
   }
 
   @SuppressWarnings("BusyWait")
@@ -138,100 +207,449 @@ public class TcpGameLink {
       }
     } while (!Thread.currentThread().isInterrupted() && retry > 0);
     if (!Thread.currentThread().isInterrupted() && retry == 0) {
-      this.incomingRecords.offer(new BsGameEvent(GameEventType.EVENT_CONNECTION_ERROR, 0, 0));
       return false;
     } else {
       return true;
     }
   }
 
-  @SuppressWarnings("ResultOfMethodCallIgnored")
   private void mainLoop() {
     try {
-      final byte[] alivePacket = "alive_event".getBytes(StandardCharsets.UTF_8);
+      final long now = System.currentTimeMillis();
+      this.lastPacketInTime = now;
+      this.lastPacketOutTime = now;
+      this.connectDeadline = now + MAX_ALIVE_DELAY.toMillis();
+      if (this.persistent && this.connector) {
+        this.nextConnectTime = now;
+      } else {
+        this.serverSocketChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+      }
 
-      long lastPacketInTime = System.currentTimeMillis();
-      long lastPacketOutTime = System.currentTimeMillis();
+      while (!Thread.currentThread().isInterrupted() && this.serverSocketChannel.isOpen() && !this.connectionErrorReported) {
+        final long timerDelay = this.onTimer(System.currentTimeMillis());
+        if (timerDelay < 0L) {
+          break;
+        }
+        this.selector.select(Math.max(1L, timerDelay));
 
-      while (!Thread.currentThread().isInterrupted() && this.serverSocketChannel.isOpen()) {
-        if (System.currentTimeMillis() - lastPacketInTime > MAX_ALIVE_DELAY.toMillis()) {
-          LOGGER.severe("no events from opponent for long time, stopping work");
-          this.opponentActive.compareAndSet(true, false);
-          this.incomingRecords.offer(new BsGameEvent(GameEventType.EVENT_CONNECTION_ERROR, 0, 0));
+        final Iterator<SelectionKey> iterator = this.selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+          final SelectionKey key = iterator.next();
+          iterator.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            this.onAccept();
+          } else if (key == this.streamKey) {
+            this.onStreamReady(key);
+          } else if (key.isReadable()) {
+            this.onLegacyPacketRead(key);
+          }
+        }
+
+        if (!this.sendQueuedEvents()) {
           break;
         }
+      }
+    } catch (ClosedSelectorException ex) {
+      // disposed
+    } catch (IOException ex) {
+      LOGGER.log(Level.SEVERE, "IOException in main loop", ex);
+      this.reportConnectionError("main loop error: " + ex.getMessage());
+    } catch (RuntimeException ex) {
+      LOGGER.log(Level.SEVERE, "Unexpected error in main loop", ex);
+      this.reportConnectionError("main loop error: " + ex);
+    } finally {
+      this.sendCloseFrame();
+      closeQuietly(this.streamChannel);
+      for (final SelectionKey key : this.selector.keys()) {
+        closeQuietly(key.channel());
+      }
+      closeQuietly(this.selector);
+      LOGGER.info("main loop closed");
+    }
+  }
 
+  /**
+   * Check timeouts and send heartbeats.
+   *
+   * @return milliseconds till next check or -1 if the link is broken
+   */
+  private long onTimer(final long now) throws IOException {
+    if (this.persistent && !this.streamConnected) {
+      if (now >= this.connectDeadline) {
+        this.reportConnectionError("can't connect opponent");
+        return -1L;
+      }
+      if (this.connector && this.streamChannel == null && now >= this.nextConnectTime) {
+        this.startConnect();
+      }
+      return Math.min(this.connectDeadline, this.streamChannel == null && this.connector ? this.nextConnectTime : Long.MAX_VALUE) - now;
+    }
+
+    if (now - this.lastPacketInTime > MAX_ALIVE_DELAY.toMillis()) {
+      this.reportConnectionError("no packets from opponent for long time");
+      return -1L;
+    }
+    long nextCheck = this.lastPacketInTime + MAX_ALIVE_DELAY.toMillis() + 1L;
+    if (this.persistent && !this.notAckedEvents.isEmpty()) {
+      if (now - this.ackWaitStart > MAX_ACK_DELAY.toMillis()) {
+        this.onStreamBroken("no ack from opponent for long time");
+        return 0L;
+      }
+      nextCheck = Math.min(nextCheck, this.ackWaitStart + MAX_ACK_DELAY.toMillis() + 1L);
+    }
+    if (now - this.lastPacketOutTime >= ALIVE_SEND_DELAY.toMillis()) {
+      LOGGER.info("sending ALIVE packet");
+      if (this.persistent) {
         try {
-          final byte[] dataBuffer = new byte[4096];
-          final SocketChannel incomingConnection = this.serverSocketChannel.accept();
-          if (incomingConnection != null) {
-            final InetAddress address = ((InetSocketAddress) incomingConnection.getRemoteAddress()).getAddress();
-            if (address.equals(this.opponentAddress)) {
-              LOGGER.info("incoming connection from opponent");
-              lastPacketInTime = System.currentTimeMillis();
-              this.opponentActive.compareAndSet(false, true);
-              try {
-                final int readLength = NetUtils.readData(incomingConnection, dataBuffer);
-                closeQuietly(incomingConnection);
-
-                final byte[] readDataPacket = Arrays.copyOf(dataBuffer, readLength);
-
-                if (Arrays.equals(alivePacket, readDataPacket)) {
-                  LOGGER.info("incoming alive packet from opponent");
-                } else {
-                  try {
-                    final BsGameEvent incomingEvent = new BsGameEvent(new ByteArrayInputStream(readDataPacket));
-                    LOGGER.info("incoming game event: " + incomingEvent);
-                    if (!this.incomingRecords.offer(incomingEvent)) {
-                      this.raiseGlobalError("Can't place incoming event into queue: " + incomingEvent);
-                    }
-                  } catch (IllegalArgumentException ex) {
-                    LOGGER.severe("incoming packet not for battleship game: " + readDataPacket.length + " byte(s)");
-                  }
-                }
-              } catch (Exception ex) {
-                LOGGER.log(Level.SEVERE, "Error during packet read", ex);
-              }
-            } else {
-              LOGGER.severe("incoming request from unexpected client, address: " + address);
-              closeQuietly(incomingConnection);
-            }
-          }
-        } catch (ClosedByInterruptException ex) {
-          Thread.currentThread().interrupt();
+          NetUtils.endFrame(this.streamOut, this.beginFrame(FRAME_ALIVE));
+          this.flushStream();
         } catch (IOException ex) {
-          LOGGER.log(Level.SEVERE, "Error in accept", ex);
+          this.onStreamBroken(ex.getMessage());
+          return 0L;
         }
+      } else if (!this.sendData(ALIVE_PACKET)) {
+        this.reportConnectionError("can't send ALIVE packet");
+        return -1L;
+      }
+      this.lastPacketOutTime = now;
+    }
+    return Math.min(nextCheck, this.lastPacketOutTime + ALIVE_SEND_DELAY.toMillis()) - now;
+  }
+
+  private void startConnect() throws IOException {
+    final SocketChannel channel = SocketChannel.open();
+    channel.configureBlocking(false);
+    channel.socket().setTcpNoDelay(true);
+    this.streamChannel = channel;
+    if (channel.connect(new InetSocketAddress(this.opponentAddress, this.opponentRecord.getPort()))) {
+      this.streamKey = channel.register(this.selector, SelectionKey.OP_READ);
+      this.onStreamConnected();
+    } else {
+      this.streamKey = channel.register(this.selector, SelectionKey.OP_CONNECT);
+    }
+  }
 
+  private void onStreamConnected() {
+    LOGGER.info("opened connection with opponent: " + this.streamChannel);
+    this.streamConnected = true;
+    final long now = System.currentTimeMillis();
+    this.lastPacketInTime = now;
+    this.opponentActive.set(true);
+    // after reconnect not acked events are sent again, the opponent drops ones it has already got
+    try {
+      int sequence = this.ackedSequence;
+      for (final BsGameEvent event : this.notAckedEvents) {
+        this.putEventFrame(++sequence, event);
+      }
+      this.ackWaitStart = now;
+      this.ackPending = this.receivedSequence > 0;
+      this.putPendingAck();
+      if (this.streamOut.position() > 0) {
+        this.flushStream();
+      }
+    } catch (IOException ex) {
+      this.onStreamBroken(ex.getMessage());
+    }
+  }
+
+  // the link is not lost while the opponent is heard during MAX_ALIVE_DELAY, so try to connect again
+  private void onStreamBroken(final String reason) {
+    LOGGER.warning("connection with opponent broken, reconnecting: " + reason);
+    this.closeStream();
+    this.connectDeadline = this.lastPacketInTime + MAX_ALIVE_DELAY.toMillis();
+    this.nextConnectTime = System.currentTimeMillis();
+  }
+
+  private void closeStream() {
+    if (this.streamKey != null) {
+      this.streamKey.cancel();
+    }
+    closeQuietly(this.streamChannel);
+    this.streamChannel = null;
+    this.streamKey = null;
+    this.streamConnected = false;
+    this.streamIn.clear();
+    this.streamOut.clear();
+  }
+
+  private void onAccept() throws IOException {
+    final SocketChannel channel = this.serverSocketChannel.accept();
+    if (channel == null) {
+      return;
+    }
+    final InetAddress address = ((InetSocketAddress) channel.getRemoteAddress()).getAddress();
+    if (!address.equals(this.opponentAddress)) {
+      LOGGER.severe("incoming request from unexpected client, address: " + address);
+      closeQuietly(channel);
+      return;
+    }
+    channel.configureBlocking(false);
+    if (this.persistent) {
+      if (this.streamChannel != null) {
+        LOGGER.warning("opponent made new connection, old one is dropped");
+        this.closeStream();
+      }
+      channel.socket().setTcpNoDelay(true);
+      this.streamChannel = channel;
+      this.streamKey = channel.register(this.selector, SelectionKey.OP_READ);
+      this.onStreamConnected();
+    } else {
+      LOGGER.info("incoming connection from opponent");
+      this.lastPacketInTime = System.currentTimeMillis();
+      this.opponentActive.compareAndSet(false, true);
+      final ByteBuffer buffer = this.receiveBufferPool.isEmpty() ? ByteBuffer.allocateDirect(LEGACY_PACKET_BUFFER_SIZE) : this.receiveBufferPool.pop();
+      channel.register(this.selector, SelectionKey.OP_READ, buffer);
+    }
+  }
+
+  private void onLegacyPacketRead(final SelectionKey key) {
+    final SocketChannel channel = (SocketChannel) key.channel();
+    final ByteBuffer buffer = (ByteBuffer) key.attachment();
+    try {
+      if (channel.read(buffer) >= 0) {
+        if (buffer.hasRemaining()) {
+          return;
+        }
+        throw new IOException("Too long packet, more than " + buffer.capacity() + " byte(s)");
+      }
+      buffer.flip();
+      final int readLength = buffer.remaining();
+      if (buffer.equals(ALIVE_PACKET_BUFFER)) {
+        LOGGER.info("incoming alive packet from opponent");
+      } else {
         try {
-          final BsGameEvent nextEvent = this.outgoingRecords.poll(100, TimeUnit.MILLISECONDS);
-          if (nextEvent != null) {
-            LOGGER.info("sending game event: " + nextEvent);
-            if (this.sendData(nextEvent.asArray())) {
-              lastPacketOutTime = System.currentTimeMillis();
-              LOGGER.info("game event has been sent: " + nextEvent);
-            } else {
-              this.incomingRecords.offer(new BsGameEvent(GameEventType.EVENT_CONNECTION_ERROR, 0, 0));
-              break;
-            }
-          } else if ((System.currentTimeMillis() - lastPacketOutTime) >= ALIVE_SEND_DELAY.toMillis()) {
-            LOGGER.info("sending ALIVE packet");
-            if (this.sendData(alivePacket)) {
-              lastPacketOutTime = System.currentTimeMillis();
-              LOGGER.info("ALIVE packet has been sent");
-            } else {
-              this.incomingRecords.offer(new BsGameEvent(GameEventType.EVENT_CONNECTION_ERROR, 0, 0));
-              break;
-            }
+          this.acceptIncomingEvent(BsGameEvent.fromBuffer(buffer));
+        } catch (IllegalArgumentException ex) {
+          LOGGER.severe("incoming packet not for battleship game: " + readLength + " byte(s)");
+        }
+      }
+    } catch (Exception ex) {
+      LOGGER.log(Level.SEVERE, "Error during packet read", ex);
+    }
+    key.cancel();
+    closeQuietly(channel);
+    if (this.receiveBufferPool.size() < MAX_POOLED_RECEIVE_BUFFERS) {
+      buffer.clear();
+      this.receiveBufferPool.push(buffer);
+    }
+  }
+
+  private void onStreamReady(final SelectionKey key) throws IOException {
+    try {
+      if (key.isConnectable()) {
+        if (!this.streamChannel.finishConnect()) {
+          return;
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        this.onStreamConnected();
+      }
+      if (key.isReadable()) {
+        if (!NetUtils.readFrames(this.streamChannel, this.streamIn, MAX_FRAME_LENGTH, this::onFrame)) {
+          throw new IOException("Connection closed by opponent");
+        }
+        this.putPendingAck();
+        if (this.streamOut.position() > 0) {
+          this.flushStream();
+        }
+      }
+      if (key.isValid() && key.isWritable()) {
+        this.flushStream();
+      }
+    } catch (IOException ex) {
+      if (this.streamConnected) {
+        this.onStreamBroken(ex.getMessage());
+      } else {
+        LOGGER.info("opponent doesn't accept connection yet: " + ex.getMessage());
+        this.closeStream();
+        this.nextConnectTime = System.currentTimeMillis() + DELAY_BETWEEN_RETRY.toMillis();
+      }
+    }
+  }
+
+  private void onFrame(final ByteBuffer frame) throws IOException {
+    this.lastPacketInTime = System.currentTimeMillis();
+    final int length = frame.remaining();
+    final int kind = length == 0 ? 0 : frame.get();
+    switch (kind) {
+      case FRAME_EVENT: {
+        if (frame.remaining() < Integer.BYTES) {
+          throw new IOException("Too short event frame: " + length + " byte(s)");
+        }
+        final int sequence = frame.getInt();
+        // ack is sent for repeated events too, the opponent could miss the previous one
+        this.ackPending = true;
+        if (sequence <= this.receivedSequence) {
+          LOGGER.info("ignored repeated event frame: " + sequence);
+        } else if (sequence == this.receivedSequence + 1) {
+          this.receivedSequence = sequence;
+          try {
+            this.acceptIncomingEvent(BsGameEvent.fromBuffer(frame));
+          } catch (IllegalArgumentException ex) {
+            LOGGER.severe("incoming frame not for battleship game: " + length + " byte(s)");
           }
+        } else {
+          throw new IOException("Lost event frames, expected " + (this.receivedSequence + 1) + " but got " + sequence);
+        }
+      }
+      break;
+      case FRAME_ACK: {
+        if (frame.remaining() == Integer.BYTES) {
+          this.onAck(frame.getInt());
+        }
+      }
+      break;
+      case FRAME_ALIVE: {
+        LOGGER.info("incoming alive frame from opponent");
+      }
+      break;
+      case FRAME_CLOSE: {
+        this.reportConnectionError("opponent closed link");
+      }
+      break;
+      default: {
+        LOGGER.severe("unexpected frame kind: " + kind);
+      }
+      break;
+    }
+  }
+
+  // events of old opponents can be repeated by their send retries, so they are filtered too
+  private void acceptIncomingEvent(final BsGameEvent event) {
+    if (!this.recentIncomingIds.add(event.getUuid())) {
+      LOGGER.info("ignored repeated game event: " + event);
+      return;
+    }
+    if (this.recentIncomingIds.size() > MAX_RECENT_INCOMING_IDS) {
+      final Iterator<UUID> oldest = this.recentIncomingIds.iterator();
+      oldest.next();
+      oldest.remove();
+    }
+    LOGGER.info("incoming game event: " + event);
+    if (!this.incomingRecords.offer(event)) {
+      this.raiseGlobalError("Can't place incoming event into queue: " + event);
+    }
+  }
+
+  private void onAck(final int sequence) {
+    while (this.ackedSequence < sequence && !this.notAckedEvents.isEmpty()) {
+      this.notAckedEvents.removeFirst();
+      this.ackedSequence++;
+    }
+    this.ackWaitStart = System.currentTimeMillis();
+  }
+
+  private void putPendingAck() throws IOException {
+    if (this.ackPending) {
+      final int frameStart = this.beginFrame(FRAME_ACK);
+      this.streamOut.putInt(this.receivedSequence);
+      NetUtils.endFrame(this.streamOut, frameStart);
+      this.ackPending = false;
+    }
+  }
+
+  private void putEventFrame(final int sequence, final BsGameEvent event) throws IOException {
+    final int frameStart = this.beginFrame(FRAME_EVENT);
+    this.streamOut.putInt(sequence);
+    event.writeTo(this.streamOut, this.eventFormat);
+    NetUtils.endFrame(this.streamOut, frameStart);
+  }
+
+  /**
+   * Send queued game events, in persistent link only while there is room in the retransmit window.
+   *
+   * @return false if the link is broken
+   */
+  private boolean sendQueuedEvents() throws IOException {
+    if (this.persistent) {
+      if (!this.streamConnected) {
+        return true;
+      }
+      BsGameEvent nextEvent;
+      while (this.notAckedEvents.size() < RETRANSMIT_WINDOW && (nextEvent = this.outgoingRecords.poll()) != null) {
+        LOGGER.info("sending game event: " + nextEvent);
+        final long now = System.currentTimeMillis();
+        if (this.notAckedEvents.isEmpty()) {
+          this.ackWaitStart = now;
+        }
+        // kept in the window even if writing fails, it is sent again after reconnect
+        this.notAckedEvents.addLast(nextEvent);
+        this.lastPacketOutTime = now;
+        try {
+          this.putEventFrame(this.ackedSequence + this.notAckedEvents.size(), nextEvent);
         } catch (IOException ex) {
-          LOGGER.log(Level.SEVERE, "IOException in send game event", ex);
-        } catch (InterruptedException ex) {
-          Thread.currentThread().interrupt();
+          this.onStreamBroken(ex.getMessage());
+          return true;
+        }
+      }
+      try {
+        if (this.streamOut.position() > 0) {
+          this.flushStream();
         }
+      } catch (IOException ex) {
+        this.onStreamBroken(ex.getMessage());
+      }
+      return true;
+    }
+    BsGameEvent nextEvent;
+    while ((nextEvent = this.outgoingRecords.poll()) != null) {
+      LOGGER.info("sending game event: " + nextEvent);
+      if (!this.sendData(nextEvent.asArray(this.eventFormat))) {
+        this.reportConnectionError("can't send game event");
+        return false;
       }
+      this.lastPacketOutTime = System.currentTimeMillis();
+    }
+    return true;
+  }
+
+  // start frame with room for any frame, its body is put after the call
+  private int beginFrame(final int kind) throws IOException {
+    if (this.streamOut.remaining() < NetUtils.FRAME_PREFIX_LENGTH + MAX_FRAME_LENGTH) {
+      throw new IOException("Output buffer overflow, opponent doesn't read");
+    }
+    final int start = NetUtils.beginFrame(this.streamOut);
+    this.streamOut.put((byte) kind);
+    return start;
+  }
+
+  private void flushStream() throws IOException {
+    this.streamOut.flip();
+    try {
+      this.streamChannel.write(this.streamOut);
     } finally {
-      LOGGER.info("main loop closed");
+      this.streamOut.compact();
+    }
+    try {
+      this.streamKey.interestOps(this.streamOut.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    } catch (CancelledKeyException ex) {
+      throw new IOException("Connection closed", ex);
+    }
+  }
+
+  private void sendCloseFrame() {
+    if (this.persistent && this.streamConnected && !this.connectionErrorReported) {
+      // clear interruption of dispose, else the channel is closed on write
+      Thread.interrupted();
+      try {
+        NetUtils.endFrame(this.streamOut, this.beginFrame(FRAME_CLOSE));
+        this.streamOut.flip();
+        this.streamChannel.write(this.streamOut);
+      } catch (IOException ex) {
+        LOGGER.info("can't send close frame: " + ex.getMessage());
+      }
+    }
+  }
+
+  // report broken link once, nothing is reported after dispose
+  private void reportConnectionError(final String reason) {
+    if (!this.connectionErrorReported && this.serverThread.get() != null) {
+      this.connectionErrorReported = true;
+      LOGGER.severe("connection with opponent closed: " + reason);
+      this.opponentActive.set(false);
+      this.incomingRecords.offer(new BsGameEvent(GameEventType.EVENT_CONNECTION_ERROR, 0, 0));
     }
   }
 
@@ -258,7 +676,11 @@ public class TcpGameLink {
   }
 
   public Optional<BsGameEvent> pollIncomingEvent() {
-    return Optional.ofNullable(this.incomingRecords.poll());
+    return this.incomingRecords.poll();
+  }
+
+  public void setIncomingEventListener(final Consumer<BsGameEvent> listener) {
+    this.incomingRecords.setListener(listener);
   }
 
   public OpponentRecord getOpponentRecord() {
@@ -1,5 +1,6 @@
 package com.igormaznitsa.battleships.opponent.net;
 
+import com.igormaznitsa.battleships.opponent.BsGameEvent;
 import com.igormaznitsa.battleships.utils.Utils;
 
 import java.io.IOException;
@@ -128,7 +129,7 @@ public class UdpBroadcastingServer {
     try {
       while (!Thread.currentThread().isInterrupted()) {
         try {
-          final byte[] body = new UdpMessage(VERSION, this.uid, UdpMessage.Event.WAITING, this.interfaceAddress.getAddress().getHostAddress(), this.port, System.currentTimeMillis()).asArray();
+          final byte[] body = new UdpMessage(VERSION, this.uid, UdpMessage.Event.WAITING, this.interfaceAddress.getAddress().getHostAddress(), this.port, System.currentTimeMillis(), BsGameEvent.FORMAT_V3).asArray();
           this.udpSocket.send(new DatagramPacket(body, body.length, this.interfaceAddress.getBroadcast(), this.port));
           LOGGER.info("broadcast message sent");
         } catch (IOException ex) {
@@ -142,7 +143,7 @@ public class UdpBroadcastingServer {
           copy.forEach((uid, event) -> {
             try {
               final UdpMessage lastMessage = Objects.requireNonNull(this.lastMessagesMap.get(uid));
-              final byte[] messageBody = new UdpMessage(VERSION, this.uid, event, this.interfaceAddress.getAddress().getHostAddress(), this.port, System.currentTimeMillis()).asArray();
+              final byte[] messageBody = new UdpMessage(VERSION, this.uid, event, this.interfaceAddress.getAddress().getHostAddress(), this.port, System.currentTimeMillis(), BsGameEvent.FORMAT_V3).asArray();
               this.udpSocket.send(new DatagramPacket(messageBody, messageBody.length, InetAddress.getByName(lastMessage.getAddress()), lastMessage.getPort()));
               LOGGER.info("event " + event + " has been sent to " + uid);
             } catch (Exception ex) {
@@ -1,5 +1,7 @@
 package com.igormaznitsa.battleships.opponent.net;
 
+import com.igormaznitsa.battleships.opponent.BsGameEvent;
+
 import java.io.*;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicLong;
@@ -15,6 +17,7 @@ public final class UdpMessage implements Comparable<UdpMessage> {
   private final String address;
   private final int port;
   private final long timestamp;
+  private final int eventFormat;
 
   public UdpMessage(
           final int version,
@@ -22,7 +25,8 @@ public final class UdpMessage implements Comparable<UdpMessage> {
           final Event event,
           final String address,
           final int port,
-          final long timestamp
+          final long timestamp,
+          final int eventFormat
   ) {
     this.uid = UID_COUNTER.incrementAndGet();
     this.version = version;
@@ -31,6 +35,7 @@ public final class UdpMessage implements Comparable<UdpMessage> {
     this.address = address;
     this.port = port;
     this.timestamp = timestamp;
+    this.eventFormat = eventFormat;
   }
 
   public UdpMessage(final byte[] data) throws IOException {
@@ -42,6 +47,8 @@ public final class UdpMessage implements Comparable<UdpMessage> {
     this.address = in.readUTF();
     this.port = in.readInt();
     this.timestamp = in.readLong();
+    // optional tail, players before v3 neither write nor read it, formats below v2 don't exist
+    this.eventFormat = in.available() >= 4 ? Math.max(BsGameEvent.FORMAT_V2, in.readInt()) : BsGameEvent.FORMAT_V2;
   }
 
   @Override
@@ -71,6 +78,7 @@ public final class UdpMessage implements Comparable<UdpMessage> {
       out.writeUTF(this.address);
       out.writeInt(this.port);
       out.writeLong(this.timestamp);
+      out.writeInt(this.eventFormat);
       out.flush();
     }
     return buffer.toByteArray();
@@ -80,6 +88,15 @@ public final class UdpMessage implements Comparable<UdpMessage> {
     return this.version;
   }
 
+  /**
+   * Get the newest format of game events understood by the sender.
+   *
+   * @return format, {@link BsGameEvent#FORMAT_V2} for senders before v3
+   */
+  public int getEventFormat() {
+    return this.eventFormat;
+  }
+
   public String getPlayerUid() {
     return playerUid;
   }
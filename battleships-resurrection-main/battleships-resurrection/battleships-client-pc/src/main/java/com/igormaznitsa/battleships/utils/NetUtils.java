@@ -6,7 +6,7 @@ import java.net.InetAddress;
 import java.net.InterfaceAddress;
 import java.net.NetworkInterface;
 import java.nio.ByteBuffer;
-import java.nio.channels.SocketChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
@@ -14,21 +14,75 @@ import java.util.Optional;
 import java.util.stream.Collectors;
 
 public final class NetUtils {
+  public static final int FRAME_PREFIX_LENGTH = 4;
+
   private NetUtils() {
 
   }
 
-  public static int readData(final SocketChannel socketChannel, final byte[] buffer) throws IOException {
-    final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
-    byteBuffer.clear();
-    int offset = 0;
-    while (offset < buffer.length) {
-      int read = socketChannel.read(byteBuffer);
-      if (read < 0) break;
-      offset += read;
+  /**
+   * Read available data of length-prefixed frames from channel and pass every complete frame to
+   * consumer. A frame is an int length and that many bytes of body. Frames coalesced in one read
+   * are passed one by one, a partial frame is kept in the buffer till next call.
+   *
+   * @param channel        source channel, non-blocking one returns after single read
+   * @param buffer         buffer kept between calls in write mode, it should be direct and must
+   *                       have room for the longest frame with its length prefix
+   * @param maxFrameLength max allowed length of frame body
+   * @param consumer       gets the buffer with position and limit at bounds of frame body, it
+   *                       must not keep the buffer
+   * @return false if the channel has reached end of stream
+   * @throws IOException if the channel failed or wrong frame length
+   */
+  public static boolean readFrames(final ReadableByteChannel channel, final ByteBuffer buffer,
+                                   final int maxFrameLength, final FrameConsumer consumer) throws IOException {
+    final boolean open = channel.read(buffer) >= 0;
+    buffer.flip();
+    try {
+      while (buffer.remaining() >= FRAME_PREFIX_LENGTH) {
+        final int frameStart = buffer.position();
+        final int length = buffer.getInt(frameStart);
+        if (length < 0 || length > maxFrameLength) {
+          throw new IOException("Wrong frame length: " + length);
+        }
+        final int frameEnd = frameStart + FRAME_PREFIX_LENGTH + length;
+        if (frameEnd > buffer.limit()) {
+          break;
+        }
+        final int limit = buffer.limit();
+        buffer.position(frameStart + FRAME_PREFIX_LENGTH).limit(frameEnd);
+        try {
+          consumer.onFrame(buffer);
+        } finally {
+          buffer.limit(limit).position(frameEnd);
+        }
+      }
+    } finally {
+      buffer.compact();
     }
-    byteBuffer.flip();
-    return byteBuffer.limit();
+    return open;
+  }
+
+  /**
+   * Start frame in output buffer, its body should be put after the call.
+   *
+   * @param buffer output buffer in write mode
+   * @return start position of the frame to be passed into {@link #endFrame(ByteBuffer, int)}
+   */
+  public static int beginFrame(final ByteBuffer buffer) {
+    final int start = buffer.position();
+    buffer.putInt(0);
+    return start;
+  }
+
+  /**
+   * Complete frame in output buffer, its length prefix is written by the current position.
+   *
+   * @param buffer output buffer in write mode
+   * @param start  start position of the frame got from {@link #beginFrame(ByteBuffer)}
+   */
+  public static void endFrame(final ByteBuffer buffer, final int start) {
+    buffer.putInt(start, buffer.position() - start - FRAME_PREFIX_LENGTH);
   }
 
   public static Optional<NamedInterfaceAddress> findLanInterface(final Collection<NamedInterfaceAddress> interfaceSet) {
@@ -94,6 +148,11 @@ public final class NetUtils {
             hostName.orElseGet(() -> "UnknownHost" + Long.toHexString(System.currentTimeMillis()).toUpperCase(Locale.ENGLISH)));
   }
 
+  @FunctionalInterface
+  public interface FrameConsumer {
+    void onFrame(ByteBuffer frame) throws IOException;
+  }
+
   public static final class NamedInterfaceAddress implements Comparable<NamedInterfaceAddress> {
     private final String name;
     private final InterfaceAddress address;
@@ -0,0 +1,204 @@
+/*
+ *    Battleships PC client with GFX multi-player game support
+ *    Copyright (C) 2021 Igor Maznitsa
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package com.igormaznitsa.battleships.commons;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Codec of GFX wire packet, 24 bytes big endian: header 0xFFCAFE00, command code, three
+ * arguments and checksum which is sum of code and arguments.
+ * <p>
+ * Packets are encoded into own reusable buffer, several packets can be gathered in the buffer and
+ * written by one call. Decoding is push based, ints of a stream are fed one by one or taken from a
+ * buffer, the decoder skips everything until header. Nothing is allocated per packet.
+ * <p>
+ * Not thread safe, use one instance per connection.
+ */
+public final class GfxPacketCodec {
+
+  public static final int PACKET_HEADER = 0xFFCAFE00;
+  public static final int PACKET_SIZE = 24;
+  /**
+   * Number of ints in packet without header and checksum.
+   */
+  public static final int PACKET_INTS = 4;
+
+  public static final int DECODE_NEED_MORE = 0;
+  public static final int DECODE_PACKET = 1;
+  public static final int DECODE_WRONG_CHECKSUM = 2;
+
+  private final ByteBuffer buffer;
+  private final int[] packet = new int[PACKET_INTS];
+  private int decodePosition = -1;
+
+  /**
+   * Codec with buffer for one packet.
+   */
+  public GfxPacketCodec() {
+    this(1, false);
+  }
+
+  /**
+   * Codec with buffer for batch of packets.
+   *
+   * @param batchSize max number of packets gathered in buffer
+   * @param direct    true if the buffer should be direct one, for channels
+   */
+  public GfxPacketCodec(final int batchSize, final boolean direct) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+    }
+    this.buffer = direct ? ByteBuffer.allocateDirect(batchSize * PACKET_SIZE)
+        : ByteBuffer.allocate(batchSize * PACKET_SIZE);
+  }
+
+  /**
+   * Write packet into buffer, the buffer position is moved to the end of the packet.
+   *
+   * @param out  target buffer, must have at least {@link #PACKET_SIZE} bytes remaining
+   * @param code command code
+   * @param arg1 first argument
+   * @param arg2 second argument
+   * @param arg3 third argument
+   */
+  public static void encode(final ByteBuffer out, final int code, final int arg1, final int arg2,
+                            final int arg3) {
+    out.putInt(PACKET_HEADER)
+        .putInt(code)
+        .putInt(arg1)
+        .putInt(arg2)
+        .putInt(arg3)
+        .putInt(code + arg1 + arg2 + arg3);
+  }
+
+  /**
+   * Gather packet in the batch.
+   *
+   * @throws java.nio.BufferOverflowException if the batch is full
+   */
+  public GfxPacketCodec add(final int code, final int arg1, final int arg2, final int arg3) {
+    encode(this.buffer, code, arg1, arg2, arg3);
+    return this;
+  }
+
+  /**
+   * Gather packet in the batch.
+   *
+   * @param packet array contains code and three arguments
+   * @throws java.nio.BufferOverflowException if the batch is full
+   */
+  public GfxPacketCodec add(final int[] packet) {
+    encode(this.buffer, packet[0], packet[1], packet[2], packet[3]);
+    return this;
+  }
+
+  public boolean hasRoom() {
+    return this.buffer.remaining() >= PACKET_SIZE;
+  }
+
+  public boolean isEmpty() {
+    return this.buffer.position() == 0;
+  }
+
+  /**
+   * Prepare gathered packets for writing into channel, call {@link #reset()} when all bytes are
+   * written.
+   *
+   * @return the buffer of the codec, flipped
+   */
+  public ByteBuffer flip() {
+    this.buffer.flip();
+    return this.buffer;
+  }
+
+  /**
+   * Drop gathered packets and start new batch.
+   */
+  public void reset() {
+    this.buffer.clear();
+  }
+
+  /**
+   * Write gathered packets into stream by one call and start new batch. Works only for heap
+   * buffer.
+   *
+   * @param out target stream, not flushed
+   * @throws IOException if error during writing
+   */
+  public void writeTo(final OutputStream out) throws IOException {
+    try {
+      out.write(this.buffer.array(), this.buffer.arrayOffset(), this.buffer.position());
+    } finally {
+      this.buffer.clear();
+    }
+  }
+
+  /**
+   * Push next int of stream into decoder.
+   *
+   * @param value next int of stream
+   * @return {@link #DECODE_PACKET} if the packet is decoded and can be read through
+   * {@link #getPacket()}, {@link #DECODE_WRONG_CHECKSUM} if the packet is decoded but its checksum
+   * is wrong, {@link #DECODE_NEED_MORE} otherwise
+   */
+  public int decode(final int value) {
+    if (this.decodePosition < 0) {
+      if (value == PACKET_HEADER) {
+        this.decodePosition = 0;
+      }
+      return DECODE_NEED_MORE;
+    }
+    if (this.decodePosition < PACKET_INTS) {
+      this.packet[this.decodePosition++] = value;
+      return DECODE_NEED_MORE;
+    }
+    this.decodePosition = -1;
+    return this.packet[0] + this.packet[1] + this.packet[2] + this.packet[3] == value
+        ? DECODE_PACKET : DECODE_WRONG_CHECKSUM;
+  }
+
+  /**
+   * Push ints of buffer into decoder until packet is decoded or less than int remains in the
+   * buffer.
+   *
+   * @param in source buffer in read mode
+   * @return the same as {@link #decode(int)}
+   */
+  public int decode(final ByteBuffer in) {
+    while (in.remaining() >= 4) {
+      final int result = decode(in.getInt());
+      if (result != DECODE_NEED_MORE) {
+        return result;
+      }
+    }
+    return DECODE_NEED_MORE;
+  }
+
+  /**
+   * Get last decoded packet, the array is reused by the codec.
+   *
+   * @return array contains code and three arguments
+   */
+  public int[] getPacket() {
+    return this.packet;
+  }
+
+  public void resetDecoder() {
+    this.decodePosition = -1;
+  }
+}
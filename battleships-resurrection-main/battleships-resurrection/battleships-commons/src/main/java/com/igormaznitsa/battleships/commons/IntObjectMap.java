@@ -0,0 +1,269 @@
+/*
+ *    Battleships PC client with GFX multi-player game support
+ *    Copyright (C) 2021 Igor Maznitsa
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package com.igormaznitsa.battleships.commons;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Concurrent map with primitive int keys. Keys are spread over lock-striped segments, every
+ * segment is an open-addressing table with linear probing. Reads don't lock and don't allocate,
+ * writes lock only their segment. Null values are allowed, {@link #containsKey(int)} tells a key
+ * mapped to null from an absent one.
+ *
+ * @param <V> type of values
+ */
+public final class IntObjectMap<V> {
+
+  private static final int SEGMENTS = 16;
+  private static final int SEGMENT_SHIFT = 28;
+
+  private final Segment<V>[] segments;
+
+  public IntObjectMap() {
+    this(64);
+  }
+
+  public IntObjectMap(final int expectedSize) {
+    @SuppressWarnings("unchecked") final Segment<V>[] segments = (Segment<V>[]) new Segment<?>[SEGMENTS];
+    this.segments = segments;
+    final int perSegment = Math.max(expectedSize / SEGMENTS, 1);
+    for (int i = 0; i < SEGMENTS; i++) {
+      this.segments[i] = new Segment<>(perSegment);
+    }
+  }
+
+  private static int hash(final int key) {
+    return key * 0x9E3779B9;
+  }
+
+  private Segment<V> segmentFor(final int hash) {
+    return this.segments[hash >>> SEGMENT_SHIFT];
+  }
+
+  public V get(final int key) {
+    final int hash = hash(key);
+    final Entry<V> entry = segmentFor(hash).find(key, hash);
+    return entry == null ? null : entry.value;
+  }
+
+  public boolean containsKey(final int key) {
+    final int hash = hash(key);
+    return segmentFor(hash).find(key, hash) != null;
+  }
+
+  /**
+   * Put value for key.
+   *
+   * @param key   key
+   * @param value value, can be null
+   * @return previous value or null
+   */
+  public V put(final int key, final V value) {
+    final int hash = hash(key);
+    return segmentFor(hash).put(key, hash, value);
+  }
+
+  /**
+   * Remove key.
+   *
+   * @param key key
+   * @return removed value or null
+   */
+  public V remove(final int key) {
+    final int hash = hash(key);
+    return segmentFor(hash).remove(key, hash);
+  }
+
+  /**
+   * Remove key only if it is mapped to the same instance.
+   *
+   * @param key   key
+   * @param value expected value, compared by identity
+   * @return true if the key was removed
+   */
+  public boolean remove(final int key, final V value) {
+    final int hash = hash(key);
+    final Segment<V> segment = segmentFor(hash);
+    synchronized (segment) {
+      final Entry<V> entry = segment.find(key, hash);
+      if (entry == null || entry.value != value) {
+        return false;
+      }
+      segment.remove(key, hash);
+      return true;
+    }
+  }
+
+  public int size() {
+    int result = 0;
+    for (final Segment<V> segment : this.segments) {
+      result += segment.count;
+    }
+    return result;
+  }
+
+  /**
+   * Snapshot of values, not null ones only.
+   *
+   * @return list of values
+   */
+  public List<V> values() {
+    final List<V> result = new ArrayList<>();
+    for (final Segment<V> segment : this.segments) {
+      final AtomicReferenceArray<Entry<V>> table = segment.table;
+      for (int i = 0; i < table.length(); i++) {
+        final Entry<V> entry = table.get(i);
+        if (entry != null && entry != segment.tombstone && entry.value != null) {
+          result.add(entry.value);
+        }
+      }
+    }
+    return result;
+  }
+
+  private static final class Entry<V> {
+    private final int key;
+    private final V value;
+
+    private Entry(final int key, final V value) {
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+  private static final class Segment<V> {
+    private final Entry<V> tombstone = new Entry<>(0, null);
+
+    // replaced as a whole on resize, so readers always see a complete table
+    private volatile AtomicReferenceArray<Entry<V>> table;
+    // guarded by this, read without lock by size()
+    private int count;
+    // live entries plus tombstones, guarded by this
+    private int used;
+
+    private Segment(final int expectedSize) {
+      int capacity = 4;
+      while (capacity < expectedSize * 2) {
+        capacity <<= 1;
+      }
+      this.table = new AtomicReferenceArray<>(capacity);
+    }
+
+    private Entry<V> find(final int key, final int hash) {
+      final AtomicReferenceArray<Entry<V>> tab = this.table;
+      final int mask = tab.length() - 1;
+      int index = (hash ^ (hash >>> 16)) & mask;
+      while (true) {
+        final Entry<V> entry = tab.get(index);
+        if (entry == null) {
+          return null;
+        }
+        if (entry != this.tombstone && entry.key == key) {
+          return entry;
+        }
+        index = (index + 1) & mask;
+      }
+    }
+
+    private synchronized V put(final int key, final int hash, final V value) {
+      final AtomicReferenceArray<Entry<V>> tab = this.table;
+      final int mask = tab.length() - 1;
+      int index = (hash ^ (hash >>> 16)) & mask;
+      int free = -1;
+      while (true) {
+        final Entry<V> entry = tab.get(index);
+        if (entry == null) {
+          break;
+        }
+        if (entry == this.tombstone) {
+          if (free < 0) {
+            free = index;
+          }
+        } else if (entry.key == key) {
+          tab.lazySet(index, new Entry<>(key, value));
+          return entry.value;
+        }
+        index = (index + 1) & mask;
+      }
+
+      if (free >= 0) {
+        tab.lazySet(free, new Entry<>(key, value));
+      } else {
+        tab.lazySet(index, new Entry<>(key, value));
+        this.used++;
+      }
+      this.count++;
+
+      // load factor 0.5 keeps probe chains short and guarantees empty slots for readers
+      if (this.used * 2 > tab.length()) {
+        rehash(this.count * 4 > tab.length() ? tab.length() * 2 : tab.length());
+      }
+      return null;
+    }
+
+    private synchronized V remove(final int key, final int hash) {
+      final AtomicReferenceArray<Entry<V>> tab = this.table;
+      final int mask = tab.length() - 1;
+      int index = (hash ^ (hash >>> 16)) & mask;
+      while (true) {
+        final Entry<V> entry = tab.get(index);
+        if (entry == null) {
+          return null;
+        }
+        if (entry != this.tombstone && entry.key == key) {
+          if (tab.get((index + 1) & mask) == null) {
+            // end of probe chain, nobody probes through the slot and tombstones before it
+            tab.lazySet(index, null);
+            this.used--;
+            int prev = (index - 1) & mask;
+            while (tab.get(prev) == this.tombstone) {
+              tab.lazySet(prev, null);
+              this.used--;
+              prev = (prev - 1) & mask;
+            }
+          } else {
+            // tombstone instead of shifting, shifting could hide entries from concurrent readers
+            tab.lazySet(index, this.tombstone);
+          }
+          this.count--;
+          return entry.value;
+        }
+        index = (index + 1) & mask;
+      }
+    }
+
+    private void rehash(final int capacity) {
+      final AtomicReferenceArray<Entry<V>> oldTable = this.table;
+      final AtomicReferenceArray<Entry<V>> newTable = new AtomicReferenceArray<>(capacity);
+      final int mask = capacity - 1;
+      for (int i = 0; i < oldTable.length(); i++) {
+        final Entry<V> entry = oldTable.get(i);
+        if (entry != null && entry != this.tombstone) {
+          final int hash = hash(entry.key);
+          int index = (hash ^ (hash >>> 16)) & mask;
+          while (newTable.get(index) != null) {
+            index = (index + 1) & mask;
+          }
+          newTable.set(index, entry);
+        }
+      }
+      this.used = this.count;
+      this.table = newTable;
+    }
+  }
+}
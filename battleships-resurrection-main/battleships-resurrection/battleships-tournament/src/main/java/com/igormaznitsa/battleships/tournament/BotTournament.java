@@ -0,0 +1,133 @@
+/*
+ *    Battleships PC client with GFX multi-player game support
+ *    Copyright (C) 2021 Igor Maznitsa
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+
+package com.igormaznitsa.battleships.tournament;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Headless tournament of two AI players. Games run in the worker threads without Swing, threads of
+ * bots and blocking queues, every worker plays whole games one by one. Prints win rates, average
+ * shots to win and games per second.
+ */
+public final class BotTournament {
+
+  // keeps the logger with its level from garbage collection
+  private static final Logger OPPONENT_LOGGER =
+      Logger.getLogger("com.igormaznitsa.battleships.opponent");
+
+  private BotTournament() {
+  }
+
+  public static void main(final String... args) throws Exception {
+    final TournamentConfig config;
+    try {
+      config = TournamentConfig.parse(args);
+    } catch (IllegalArgumentException ex) {
+      System.err.println(ex.getMessage());
+      System.err.print(TournamentConfig.usage());
+      System.exit(2);
+      return;
+    }
+    System.exit(run(config) ? 0 : 1);
+  }
+
+  /**
+   * Play all games and print reports.
+   *
+   * @return false if any game has failed
+   */
+  static boolean run(final TournamentConfig config) throws InterruptedException {
+    // bots log every game start
+    OPPONENT_LOGGER.setLevel(Level.WARNING);
+
+    final TournamentStats stats = new TournamentStats();
+    final AtomicLong gameCounter = new AtomicLong();
+    final TournamentWorker[] workers = new TournamentWorker[config.workers];
+    for (int i = 0; i < workers.length; i++) {
+      workers[i] = new TournamentWorker(i, config, stats, gameCounter);
+    }
+
+    System.out.printf(Locale.ROOT, "%d games of A=%s against B=%s, %d workers%n", config.games,
+        config.playerA, config.playerB, config.workers);
+    final long started = System.nanoTime();
+    for (final TournamentWorker worker : workers) {
+      worker.start();
+    }
+
+    long[] previous = stats.snapshot();
+    long previousTime = started;
+    for (final TournamentWorker worker : workers) {
+      while (worker.isAlive()) {
+        worker.join(config.reportSeconds * 1000L);
+        final long now = System.nanoTime();
+        if (worker.isAlive() && now - previousTime >= config.reportSeconds * 1000000000L) {
+          final long[] current = stats.snapshot();
+          report(String.format(Locale.ROOT, "%6.1fs", (now - started) / 1.0e9d), previous,
+              current, (now - previousTime) / 1.0e9d);
+          previous = current;
+          previousTime = now;
+        }
+      }
+    }
+
+    final long[] result = stats.snapshot();
+    final double seconds = (System.nanoTime() - started) / 1.0e9d;
+    System.out.println("---- total ----");
+    report(" total", new long[result.length], result, seconds);
+    for (int i = 0; i < result.length; i++) {
+      System.out.printf(Locale.ROOT, "  %-18s %d%n", TournamentStats.NAMES[i], result[i]);
+    }
+    final String firstError = stats.getFirstError();
+    if (firstError != null) {
+      System.out.printf(Locale.ROOT, "  %-18s %s%n", "first error", firstError);
+    }
+    return result[TournamentStats.ERRORS] == 0L;
+  }
+
+  private static double percent(final long part, final long whole) {
+    return whole == 0L ? 0.0d : part * 100.0d / whole;
+  }
+
+  private static double average(final long sum, final long count) {
+    return count == 0L ? 0.0d : (double) sum / count;
+  }
+
+  private static void report(final String label, final long[] before, final long[] after,
+                             final double seconds) {
+    final long[] delta = new long[after.length];
+    for (int i = 0; i < delta.length; i++) {
+      delta[i] = after[i] - before[i];
+    }
+    final long games = delta[TournamentStats.GAMES];
+    System.out.printf(Locale.ROOT,
+        "%s games %9d %9.1f/s A wins %5.1f%% shots %5.2f B wins %5.1f%% shots %5.2f"
+            + " first turn wins %5.1f%% errors %d%n",
+        label,
+        games,
+        games / seconds,
+        percent(delta[TournamentStats.WINS_A], games),
+        average(delta[TournamentStats.SHOTS_TO_WIN_A], delta[TournamentStats.WINS_A]),
+        percent(delta[TournamentStats.WINS_B], games),
+        average(delta[TournamentStats.SHOTS_TO_WIN_B], delta[TournamentStats.WINS_B]),
+        percent(delta[TournamentStats.FIRST_TURN_WINS],
+            delta[TournamentStats.WINS_A] + delta[TournamentStats.WINS_B]),
+        delta[TournamentStats.ERRORS]);
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ *    Battleships PC client with GFX multi-player game support
+ *    Copyright (C) 2021 Igor Maznitsa
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+
+package com.igormaznitsa.battleships.tournament;
+
+import com.igormaznitsa.battleships.opponent.BsGameEvent;
+import com.igormaznitsa.battleships.opponent.GameEventType;
+import com.igormaznitsa.battleships.opponent.SynchronousBattleshipsPlayer;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+/**
+ * Plays a game of two synchronous players in the caller thread. Events of a player are routed to
+ * its opponent like {@code BattleshipsCommDaemon} does, but through plain deques. A table is reused
+ * for games of one worker.
+ */
+final class GameTable {
+
+  static final int WIN_A = 0;
+  static final int WIN_B = 1;
+  static final int FAILURE = 2;
+
+  // guard against players which never finish a game, a game has at most 200 shots
+  private static final int MAX_EVENTS = 2000;
+
+  private final ArrayDeque<BsGameEvent> eventsForA = new ArrayDeque<>();
+  private final ArrayDeque<BsGameEvent> eventsForB = new ArrayDeque<>();
+  private final Consumer<BsGameEvent> outputOfA = this::onEventOfA;
+  private final Consumer<BsGameEvent> outputOfB = this::onEventOfB;
+  private int shotsA;
+  private int shotsB;
+  private int result;
+
+  /**
+   * Play game till one of players lost.
+   *
+   * @param playerA      player A
+   * @param playerB      player B
+   * @param firstTurnOfA true if player A makes the first shot
+   * @return {@link #WIN_A}, {@link #WIN_B} or {@link #FAILURE}
+   */
+  int play(final SynchronousBattleshipsPlayer playerA, final SynchronousBattleshipsPlayer playerB,
+           final boolean firstTurnOfA) {
+    this.eventsForA.clear();
+    this.eventsForB.clear();
+    this.shotsA = 0;
+    this.shotsB = 0;
+    this.result = -1;
+
+    playerA.startGame(this.outputOfA);
+    playerB.startGame(this.outputOfB);
+    // the player which gets the opponent first turn event answers by turn permission
+    (firstTurnOfA ? this.eventsForB : this.eventsForA)
+        .add(new BsGameEvent(GameEventType.EVENT_OPPONENT_FIRST_TURN, 0, 0));
+
+    int events = 0;
+    while (this.result < 0) {
+      if (++events > MAX_EVENTS) {
+        this.result = FAILURE;
+      } else if (!this.eventsForA.isEmpty()) {
+        playerA.processGameEvent(this.eventsForA.poll(), this.outputOfA);
+      } else if (!this.eventsForB.isEmpty()) {
+        playerB.processGameEvent(this.eventsForB.poll(), this.outputOfB);
+      } else {
+        // both players wait for each other
+        this.result = FAILURE;
+      }
+    }
+    return this.result;
+  }
+
+  int getShotsA() {
+    return this.shotsA;
+  }
+
+  int getShotsB() {
+    return this.shotsB;
+  }
+
+  private void onEventOfA(final BsGameEvent event) {
+    this.onEvent(event, this.eventsForB, true);
+  }
+
+  private void onEventOfB(final BsGameEvent event) {
+    this.onEvent(event, this.eventsForA, false);
+  }
+
+  private void onEvent(final BsGameEvent event, final ArrayDeque<BsGameEvent> opponentEvents,
+                       final boolean fromA) {
+    switch (event.getType()) {
+      case EVENT_LOST: {
+        if (this.result < 0) {
+          this.result = fromA ? WIN_B : WIN_A;
+        }
+      }
+      break;
+      case EVENT_SHOT_MAIN:
+      case EVENT_SHOT_REGULAR: {
+        if (fromA) {
+          this.shotsA++;
+        } else {
+          this.shotsB++;
+        }
+        opponentEvents.add(event);
+      }
+      break;
+      case EVENT_FAILURE:
+      case EVENT_CONNECTION_ERROR:
+      case EVENT_GAME_ROOM_CLOSED: {
+        this.result = FAILURE;
+      }
+      break;
+      default: {
+        if (!event.getType().isNotification()) {
+          opponentEvents.add(event);
+        }
+      }
+      break;
+    }
+  }
+}
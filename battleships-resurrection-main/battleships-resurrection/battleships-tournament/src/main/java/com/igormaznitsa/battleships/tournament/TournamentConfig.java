@@ -0,0 +1,90 @@
+/*
+ *    Battleships PC client with GFX multi-player game support
+ *    Copyright (C) 2021 Igor Maznitsa
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+
+package com.igormaznitsa.battleships.tournament;
+
+import com.igormaznitsa.battleships.opponent.AiLevel;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Options of the tournament given as --name=value arguments.
+ */
+final class TournamentConfig {
+
+  private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+  static {
+    DEFAULTS.put("player-a", AiLevel.NORMAL.name());
+    DEFAULTS.put("player-b", AiLevel.ADVANCED.name());
+    DEFAULTS.put("games", "100000");
+    DEFAULTS.put("workers", "0");
+    DEFAULTS.put("report", "5");
+  }
+
+  final AiLevel playerA;
+  final AiLevel playerB;
+  final long games;
+  final int workers;
+  final int reportSeconds;
+
+  private TournamentConfig(final Map<String, String> values) {
+    this.playerA = parseLevel(values.get("player-a"));
+    this.playerB = parseLevel(values.get("player-b"));
+    this.games = Long.parseLong(values.get("games"));
+    final int workers = Integer.parseInt(values.get("workers"));
+    this.workers = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+    this.reportSeconds = Math.max(1, Integer.parseInt(values.get("report")));
+  }
+
+  private static AiLevel parseLevel(final String name) {
+    try {
+      return AiLevel.valueOf(name.toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException ex) {
+      throw new IllegalArgumentException("Unknown AI level: " + name);
+    }
+  }
+
+  static TournamentConfig parse(final String[] args) {
+    final Map<String, String> values = new LinkedHashMap<>(DEFAULTS);
+    for (final String arg : args) {
+      final int eq = arg.indexOf('=');
+      if (!arg.startsWith("--") || eq < 0) {
+        throw new IllegalArgumentException("Expected --name=value but found: " + arg);
+      }
+      final String name = arg.substring(2, eq);
+      if (!DEFAULTS.containsKey(name)) {
+        throw new IllegalArgumentException("Unknown option: " + name);
+      }
+      values.put(name, arg.substring(eq + 1));
+    }
+    return new TournamentConfig(values);
+  }
+
+  static String usage() {
+    final StringBuilder result = new StringBuilder("Options (default value):\n");
+    for (final Map.Entry<String, String> e : DEFAULTS.entrySet()) {
+      result.append("  --").append(e.getKey()).append('=').append(e.getValue()).append('\n');
+    }
+    result.append("Players are AI levels: ");
+    for (final AiLevel level : AiLevel.values()) {
+      result.append(level.name()).append(' ');
+    }
+    return result.append('\n').toString();
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ *    Battleships PC client with GFX multi-player game support
+ *    Copyright (C) 2021 Igor Maznitsa
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+
+package com.igormaznitsa.battleships.tournament;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Counters of the tournament, shared by all workers.
+ */
+final class TournamentStats {
+
+  static final int GAMES = 0;
+  static final int WINS_A = 1;
+  static final int WINS_B = 2;
+  static final int SHOTS_TO_WIN_A = 3;
+  static final int SHOTS_TO_WIN_B = 4;
+  static final int FIRST_TURN_WINS = 5;
+  static final int ERRORS = 6;
+
+  static final String[] NAMES = {
+      "games", "wins of A", "wins of B", "shots to win of A", "shots to win of B",
+      "first turn wins", "errors"
+  };
+
+  private final AtomicLongArray counters = new AtomicLongArray(NAMES.length);
+  private final AtomicReference<String> firstError = new AtomicReference<>();
+
+  void add(final int counter, final long value) {
+    this.counters.addAndGet(counter, value);
+  }
+
+  /**
+   * Keep description of failed game if it is the first one.
+   *
+   * @param description game and the error which stopped it
+   */
+  void addError(final String description) {
+    this.counters.incrementAndGet(ERRORS);
+    this.firstError.compareAndSet(null, description);
+  }
+
+  /**
+   * Get description of the first failed game.
+   *
+   * @return description, null if no game failed
+   */
+  String getFirstError() {
+    return this.firstError.get();
+  }
+
+  long[] snapshot() {
+    final long[] result = new long[NAMES.length];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = this.counters.get(i);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ *    Battleships PC client with GFX multi-player game support
+ *    Copyright (C) 2021 Igor Maznitsa
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+
+package com.igormaznitsa.battleships.tournament;
+
+import com.igormaznitsa.battleships.opponent.AiBattleshipsSingleSessionBot;
+import com.igormaznitsa.battleships.opponent.AiLevel;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread playing games one by one until the tournament has played all its games. Players are new
+ * for every game and live only in this thread.
+ */
+final class TournamentWorker extends Thread {
+
+  private final TournamentConfig config;
+  private final TournamentStats stats;
+  private final AtomicLong gameCounter;
+  private final GameTable table = new GameTable();
+
+  TournamentWorker(final int index, final TournamentConfig config, final TournamentStats stats,
+                   final AtomicLong gameCounter) {
+    super("tournament-worker-" + index);
+    this.setDaemon(true);
+    this.config = config;
+    this.stats = stats;
+    this.gameCounter = gameCounter;
+  }
+
+  private static AiBattleshipsSingleSessionBot makePlayer(final AiLevel level) {
+    // the thread of the bot is not started, events are processed synchronously
+    return new AiBattleshipsSingleSessionBot(level);
+  }
+
+  @Override
+  public void run() {
+    long game;
+    while ((game = this.gameCounter.getAndIncrement()) < this.config.games) {
+      // sides make the first turn by turns
+      final boolean firstTurnOfA = (game & 1L) == 0L;
+      int result;
+      String error = "game ended without winner";
+      try {
+        result = this.table.play(makePlayer(this.config.playerA), makePlayer(this.config.playerB),
+            firstTurnOfA);
+      } catch (RuntimeException | Error ex) {
+        final StackTraceElement[] trace = ex.getStackTrace();
+        error = trace.length == 0 ? ex.toString() : ex + " at " + trace[0];
+        result = GameTable.FAILURE;
+      }
+
+      this.stats.add(TournamentStats.GAMES, 1L);
+      switch (result) {
+        case GameTable.WIN_A: {
+          this.stats.add(TournamentStats.WINS_A, 1L);
+          this.stats.add(TournamentStats.SHOTS_TO_WIN_A, this.table.getShotsA());
+          if (firstTurnOfA) {
+            this.stats.add(TournamentStats.FIRST_TURN_WINS, 1L);
+          }
+        }
+        break;
+        case GameTable.WIN_B: {
+          this.stats.add(TournamentStats.WINS_B, 1L);
+          this.stats.add(TournamentStats.SHOTS_TO_WIN_B, this.table.getShotsB());
+          if (!firstTurnOfA) {
+            this.stats.add(TournamentStats.FIRST_TURN_WINS, 1L);
+          }
+        }
+        break;
+        default: {
+          this.stats.addError(String.format(Locale.ROOT, "game %d, A=%s, B=%s, first turn of %s: %s",
+              game, this.config.playerA, this.config.playerB, firstTurnOfA ? "A" : "B", error));
+        }
+        break;
+      }
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ *    Battleships PC client with GFX multi-player game support
+ *    Copyright (C) 2021 Igor Maznitsa
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package com.igormaznitsa.battleships.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Log-linear histogram of nanosecond values, every power of two is split into 32 buckets so a
+ * percentile is within about 3% of the real value. Values are recorded by the owning driver thread
+ * and drained by the reporter.
+ */
+final class LatencyHistogram {
+
+  private static final int SUB_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+  private static final int BUCKETS = SUB_BUCKETS + (64 - SUB_BITS) * SUB_BUCKETS;
+
+  private final long[] counts = new long[BUCKETS];
+  private long count;
+  private long max;
+
+  private static int indexOf(final long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+    return SUB_BUCKETS + shift * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+  }
+
+  // middle of the bucket
+  private static long valueOf(final int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    final int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+    final long lower = (long) (SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS) << shift;
+    return lower + ((1L << shift) >>> 1);
+  }
+
+  synchronized void record(final long value) {
+    final long positive = Math.max(0L, value);
+    this.counts[indexOf(positive)]++;
+    this.count++;
+    this.max = Math.max(this.max, positive);
+  }
+
+  synchronized void addTo(final LatencyHistogram target) {
+    synchronized (target) {
+      for (int i = 0; i < BUCKETS; i++) {
+        target.counts[i] += this.counts[i];
+      }
+      target.count += this.count;
+      target.max = Math.max(target.max, this.max);
+    }
+  }
+
+  /**
+   * Move all values into another histogram, this one becomes empty.
+   */
+  synchronized void drainTo(final LatencyHistogram target) {
+    this.addTo(target);
+    Arrays.fill(this.counts, 0L);
+    this.count = 0L;
+    this.max = 0L;
+  }
+
+  synchronized long getCount() {
+    return this.count;
+  }
+
+  synchronized long getMax() {
+    return this.max;
+  }
+
+  /**
+   * Value at percentile.
+   *
+   * @param percentile percentile from 0 to 100
+   * @return value in nanoseconds, 0 if nothing is recorded
+   */
+  synchronized long percentile(final double percentile) {
+    if (this.count == 0L) {
+      return 0L;
+    }
+    final long rank = Math.max(1L, (long) Math.ceil(this.count * percentile / 100.0d));
+    long seen = 0L;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += this.counts[i];
+      if (seen >= rank) {
+        return Math.min(valueOf(i), this.max);
+      }
+    }
+    return this.max;
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ *    Battleships PC client with GFX multi-player game support
+ *    Copyright (C) 2021 Igor Maznitsa
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package com.igormaznitsa.battleships.loadtest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Options of the load test given as --name=value arguments.
+ */
+final class LoadConfig {
+
+  private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+  static {
+    DEFAULTS.put("host", "127.0.0.1");
+    DEFAULTS.put("port", "30000");
+    DEFAULTS.put("players", "1000");
+    DEFAULTS.put("drivers", "2");
+    DEFAULTS.put("duration", "60");
+    DEFAULTS.put("ramp-up", "10");
+    DEFAULTS.put("report", "5");
+    DEFAULTS.put("move-interval-ms", "500");
+    DEFAULTS.put("pause-ms", "2000");
+    DEFAULTS.put("reconnect-ms", "1000");
+    DEFAULTS.put("restart-ms", "1000");
+    DEFAULTS.put("exit", "0.005");
+    DEFAULTS.put("pause", "0.01");
+    DEFAULTS.put("disconnect", "0.005");
+    DEFAULTS.put("keep-alive", "true");
+    DEFAULTS.put("first-player-id", "100000");
+    DEFAULTS.put("max-error-rate", "1.0");
+  }
+
+  final String host;
+  final int port;
+  final int players;
+  final int drivers;
+  final int durationSeconds;
+  final int rampUpSeconds;
+  final int reportSeconds;
+  final int moveIntervalMs;
+  final int pauseMs;
+  final int reconnectMs;
+  final int restartMs;
+  final double exitChance;
+  final double pauseChance;
+  final double disconnectChance;
+  final boolean keepAlive;
+  final int firstPlayerId;
+  final double maxErrorRate;
+
+  private LoadConfig(final Map<String, String> values) {
+    this.host = values.get("host");
+    this.port = Integer.parseInt(values.get("port"));
+    this.players = Integer.parseInt(values.get("players"));
+    this.drivers = Math.max(1, Integer.parseInt(values.get("drivers")));
+    this.durationSeconds = Integer.parseInt(values.get("duration"));
+    this.rampUpSeconds = Integer.parseInt(values.get("ramp-up"));
+    this.reportSeconds = Math.max(1, Integer.parseInt(values.get("report")));
+    this.moveIntervalMs = Integer.parseInt(values.get("move-interval-ms"));
+    this.pauseMs = Integer.parseInt(values.get("pause-ms"));
+    this.reconnectMs = Integer.parseInt(values.get("reconnect-ms"));
+    this.restartMs = Integer.parseInt(values.get("restart-ms"));
+    this.exitChance = Double.parseDouble(values.get("exit"));
+    this.pauseChance = Double.parseDouble(values.get("pause"));
+    this.disconnectChance = Double.parseDouble(values.get("disconnect"));
+    this.keepAlive = Boolean.parseBoolean(values.get("keep-alive"));
+    this.firstPlayerId = Integer.parseInt(values.get("first-player-id"));
+    this.maxErrorRate = Double.parseDouble(values.get("max-error-rate"));
+  }
+
+  static LoadConfig parse(final String[] args) {
+    final Map<String, String> values = new LinkedHashMap<>(DEFAULTS);
+    for (final String arg : args) {
+      final int eq = arg.indexOf('=');
+      if (!arg.startsWith("--") || eq < 0) {
+        throw new IllegalArgumentException("Expected --name=value but found: " + arg);
+      }
+      final String name = arg.substring(2, eq);
+      if (!DEFAULTS.containsKey(name)) {
+        throw new IllegalArgumentException("Unknown option: " + name);
+      }
+      values.put(name, arg.substring(eq + 1));
+    }
+    return new LoadConfig(values);
+  }
+
+  static String usage() {
+    final StringBuilder result = new StringBuilder("Options (default value):\n");
+    for (final Map.Entry<String, String> e : DEFAULTS.entrySet()) {
+      result.append("  --").append(e.getKey()).append('=').append(e.getValue()).append('\n');
+    }
+    return result.toString();
+  }
+}
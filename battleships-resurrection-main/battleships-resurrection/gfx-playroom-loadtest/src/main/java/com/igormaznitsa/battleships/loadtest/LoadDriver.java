@@ -0,0 +1,275 @@
+/*
+ *    Battleships PC client with GFX multi-player game support
+ *    Copyright (C) 2021 Igor Maznitsa
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package com.igormaznitsa.battleships.loadtest;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * Selector thread serving connections and timers of a share of virtual players. Everything of its
+ * players happens in this thread, so players need no synchronization.
+ */
+final class LoadDriver extends Thread {
+
+  private final Selector selector;
+  private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+  private final InetSocketAddress address;
+  final LoadConfig config;
+  final LoadStats stats;
+  final LatencyHistogram latency = new LatencyHistogram();
+  private long timerSequence;
+  private volatile boolean working = true;
+  private volatile Exception failure;
+
+  LoadDriver(final int index, final LoadConfig config, final LoadStats stats) throws IOException {
+    super("load-driver-" + index);
+    this.setDaemon(true);
+    this.config = config;
+    this.stats = stats;
+    this.address = new InetSocketAddress(config.host, config.port);
+    this.selector = Selector.open();
+  }
+
+  /**
+   * Must be called before the thread is started or from the thread itself.
+   */
+  void schedule(final long delayMs, final Runnable task) {
+    this.timers.add(new Timer(System.nanoTime() + delayMs * 1000000L, this.timerSequence++, task));
+  }
+
+  Connection connect(final Connection.Listener listener) {
+    SocketChannel channel = null;
+    try {
+      channel = SocketChannel.open();
+      channel.configureBlocking(false);
+      channel.socket().setTcpNoDelay(true);
+      final boolean connected = channel.connect(this.address);
+      final Connection connection = new Connection(channel, listener);
+      connection.key =
+          channel.register(this.selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT,
+              connection);
+      if (connected) {
+        connection.onConnected();
+      }
+      return connection;
+    } catch (IOException ex) {
+      this.stats.increment(LoadStats.ERROR_CONNECT);
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException ignored) {
+          // ignore
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Get the error which stopped the driver before shutdown.
+   *
+   * @return the error, null if the driver worked till shutdown
+   */
+  Exception getFailure() {
+    return this.failure;
+  }
+
+  void shutdown() {
+    this.working = false;
+    this.selector.wakeup();
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (this.working) {
+        final long now = System.nanoTime();
+        while (!this.timers.isEmpty() && this.timers.peek().time <= now) {
+          this.timers.poll().task.run();
+        }
+        if (this.timers.isEmpty()) {
+          this.selector.select(100L);
+        } else {
+          final long waitMs = (this.timers.peek().time - System.nanoTime()) / 1000000L;
+          if (waitMs > 0L) {
+            this.selector.select(waitMs);
+          } else {
+            this.selector.selectNow();
+          }
+        }
+
+        final Iterator<SelectionKey> iterator = this.selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+          final SelectionKey key = iterator.next();
+          iterator.remove();
+          final Connection connection = (Connection) key.attachment();
+          try {
+            if (key.isConnectable()) {
+              if (((SocketChannel) key.channel()).finishConnect()) {
+                key.interestOps(SelectionKey.OP_READ);
+                connection.onConnected();
+              }
+            } else {
+              if (key.isReadable()) {
+                connection.onReadable();
+              }
+              if (key.isValid() && key.isWritable()) {
+                connection.flush();
+              }
+            }
+          } catch (CancelledKeyException ex) {
+            connection.close(false);
+          } catch (IOException ex) {
+            // the listener counts the error
+            connection.close(true);
+          }
+        }
+      }
+    } catch (IOException | RuntimeException ex) {
+      // all players of the driver are lost, the run must not pass
+      this.failure = ex;
+      this.stats.increment(LoadStats.ERROR_DRIVER);
+    } finally {
+      for (final SelectionKey key : this.selector.keys()) {
+        try {
+          key.channel().close();
+        } catch (IOException ignored) {
+          // ignore
+        }
+      }
+    }
+  }
+
+  private static final class Timer implements Comparable<Timer> {
+    private final long time;
+    private final long sequence;
+    private final Runnable task;
+
+    private Timer(final long time, final long sequence, final Runnable task) {
+      this.time = time;
+      this.sequence = sequence;
+      this.task = task;
+    }
+
+    @Override
+    public int compareTo(final Timer that) {
+      final int result = Long.compare(this.time, that.time);
+      return result == 0 ? Long.compare(this.sequence, that.sequence) : result;
+    }
+  }
+
+  /**
+   * Non-blocking connection, data are written from own buffer when the channel allows.
+   */
+  static final class Connection {
+    final SocketChannel channel;
+    final Listener listener;
+    final ByteBuffer in = ByteBuffer.allocate(8192);
+    private final ByteBuffer out = ByteBuffer.allocate(16384);
+    SelectionKey key;
+    boolean connected;
+    boolean closed;
+
+    private Connection(final SocketChannel channel, final Listener listener) {
+      this.channel = channel;
+      this.listener = listener;
+    }
+
+    private void onConnected() throws IOException {
+      this.connected = true;
+      this.listener.onConnected(this);
+      this.flush();
+    }
+
+    private void onReadable() throws IOException {
+      if (this.channel.read(this.in) < 0) {
+        this.close(false);
+        return;
+      }
+      this.in.flip();
+      try {
+        this.listener.onData(this);
+      } finally {
+        this.in.compact();
+      }
+    }
+
+    /**
+     * Queue bytes, they are written when connected.
+     *
+     * @return false if the buffer is full
+     */
+    boolean write(final byte[] data) {
+      if (this.closed || this.out.remaining() < data.length) {
+        return false;
+      }
+      this.out.put(data);
+      if (this.connected) {
+        try {
+          this.flush();
+        } catch (IOException ex) {
+          this.close(true);
+        }
+      }
+      return true;
+    }
+
+    private void flush() throws IOException {
+      if (this.closed) {
+        return;
+      }
+      this.out.flip();
+      try {
+        this.channel.write(this.out);
+      } finally {
+        this.out.compact();
+      }
+      this.key.interestOps(this.out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+          : SelectionKey.OP_READ);
+    }
+
+    void close(final boolean error) {
+      if (this.closed) {
+        return;
+      }
+      this.closed = true;
+      if (this.key != null) {
+        this.key.cancel();
+      }
+      try {
+        this.channel.close();
+      } catch (IOException ignored) {
+        // ignore
+      }
+      this.listener.onClosed(this, error);
+    }
+
+    interface Listener {
+      void onConnected(Connection connection);
+
+      void onData(Connection connection);
+
+      void onClosed(Connection connection, boolean error);
+    }
+  }
+}
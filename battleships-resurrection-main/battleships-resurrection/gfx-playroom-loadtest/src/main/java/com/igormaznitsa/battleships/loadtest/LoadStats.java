@@ -0,0 +1,72 @@
+/*
+ *    Battleships PC client with GFX multi-player game support
+ *    Copyright (C) 2021 Igor Maznitsa
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package com.igormaznitsa.battleships.loadtest;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters of the load test, shared by all drivers.
+ */
+final class LoadStats {
+
+  static final int SESSIONS_CREATED = 0;
+  static final int SESSIONS_JOINED = 1;
+  static final int PACKETS_SENT = 2;
+  static final int RESPONSES_OK = 3;
+  static final int MOVES_RECEIVED = 4;
+  static final int MOVES_HELD = 5;
+  static final int PAUSES = 6;
+  static final int DISCONNECTS = 7;
+  static final int EXITS = 8;
+  static final int ERROR_CONNECT = 9;
+  static final int ERROR_IO = 10;
+  static final int ERROR_HTTP = 11;
+  static final int ERROR_CHECKSUM = 12;
+  static final int ERROR_OPPONENT_LOST = 13;
+  static final int ERROR_SESSION_REMOVED = 14;
+  static final int ERROR_SERVER_OVERLOADED = 15;
+  static final int ERROR_DRIVER = 16;
+
+  static final String[] NAMES = {
+      "sessions created", "sessions joined", "packets sent", "responses ok", "moves received",
+      "moves held", "pauses", "disconnects", "exits", "connect errors", "io errors", "http errors",
+      "checksum errors", "opponent lost", "session removed", "server overloaded", "driver failures"
+  };
+
+  static final int FIRST_ERROR = ERROR_CONNECT;
+
+  private final AtomicLongArray counters = new AtomicLongArray(NAMES.length);
+
+  void increment(final int counter) {
+    this.counters.incrementAndGet(counter);
+  }
+
+  long[] snapshot() {
+    final long[] result = new long[NAMES.length];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = this.counters.get(i);
+    }
+    return result;
+  }
+
+  static long errors(final long[] snapshot) {
+    long result = 0L;
+    for (int i = FIRST_ERROR; i < snapshot.length; i++) {
+      result += snapshot[i];
+    }
+    return result;
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ *    Battleships PC client with GFX multi-player game support
+ *    Copyright (C) 2021 Igor Maznitsa
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package com.igormaznitsa.battleships.loadtest;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load generator for the GFX playroom server. It runs many headless players over a few selector
+ * threads and periodically prints throughput, relay latency percentiles and errors.
+ */
+public final class PlayroomLoadTest {
+
+  private PlayroomLoadTest() {
+  }
+
+  public static void main(final String... args) throws Exception {
+    final LoadConfig config;
+    try {
+      config = LoadConfig.parse(args);
+    } catch (IllegalArgumentException ex) {
+      System.err.println(ex.getMessage());
+      System.err.print(LoadConfig.usage());
+      System.exit(2);
+      return;
+    }
+    System.exit(run(config) ? 0 : 1);
+  }
+
+  /**
+   * Run the load and print reports.
+   *
+   * @return false if the error rate is over the allowed one or a driver failed
+   */
+  static boolean run(final LoadConfig config) throws IOException, InterruptedException {
+    final LoadStats stats = new LoadStats();
+    final LoadDriver[] drivers = new LoadDriver[config.drivers];
+    for (int i = 0; i < drivers.length; i++) {
+      drivers[i] = new LoadDriver(i, config, stats);
+    }
+
+    final AtomicInteger playerIds = new AtomicInteger(config.firstPlayerId);
+    final long rampUpMs = config.rampUpSeconds * 1000L;
+    for (int i = 0; i < config.players; i++) {
+      final LoadDriver driver = drivers[i % drivers.length];
+      final VirtualPlayer player = new VirtualPlayer(driver, playerIds);
+      driver.schedule(rampUpMs * i / Math.max(1, config.players), player::start);
+    }
+
+    System.out.printf(Locale.ROOT, "%d players against %s:%d, %d drivers, %s connections%n",
+        config.players, config.host, config.port, config.drivers,
+        config.keepAlive ? "persistent" : "one-shot");
+    for (final LoadDriver driver : drivers) {
+      driver.start();
+    }
+
+    final LatencyHistogram total = new LatencyHistogram();
+    final long started = System.nanoTime();
+    final long finish = started + config.durationSeconds * 1000000000L;
+    long[] previous = stats.snapshot();
+    long previousTime = started;
+    while (System.nanoTime() < finish) {
+      Thread.sleep(Math.min(config.reportSeconds * 1000L,
+          Math.max(1L, (finish - System.nanoTime()) / 1000000L)));
+      final LatencyHistogram interval = new LatencyHistogram();
+      for (final LoadDriver driver : drivers) {
+        driver.latency.drainTo(interval);
+      }
+      interval.addTo(total);
+      final long now = System.nanoTime();
+      final long[] current = stats.snapshot();
+      report(String.format(Locale.ROOT, "%6.1fs", (now - started) / 1.0e9d), previous, current,
+          (now - previousTime) / 1.0e9d, interval);
+      previous = current;
+      previousTime = now;
+    }
+
+    for (final LoadDriver driver : drivers) {
+      driver.shutdown();
+    }
+    for (final LoadDriver driver : drivers) {
+      driver.join(5000L);
+    }
+
+    final long[] result = stats.snapshot();
+    final double seconds = (System.nanoTime() - started) / 1.0e9d;
+    System.out.println("---- total ----");
+    report(" total", new long[result.length], result, seconds, total);
+    for (int i = 0; i < result.length; i++) {
+      System.out.printf(Locale.ROOT, "  %-18s %d%n", LoadStats.NAMES[i], result[i]);
+    }
+
+    boolean driversOk = true;
+    for (final LoadDriver driver : drivers) {
+      final Exception failure = driver.getFailure();
+      if (failure != null) {
+        driversOk = false;
+        System.out.printf(Locale.ROOT, "%s failed: %s%n", driver.getName(), failure);
+      }
+    }
+
+    final double errorRate = errorRate(result);
+    System.out.printf(Locale.ROOT, "error rate %.3f%% (allowed %.3f%%)%n", errorRate,
+        config.maxErrorRate);
+    return driversOk && errorRate <= config.maxErrorRate;
+  }
+
+  // errors per sent packet and opened session, in percent
+  private static double errorRate(final long[] stats) {
+    final long operations = stats[LoadStats.PACKETS_SENT] + stats[LoadStats.SESSIONS_CREATED]
+        + stats[LoadStats.SESSIONS_JOINED];
+    return operations == 0L ? 0.0d : LoadStats.errors(stats) * 100.0d / operations;
+  }
+
+  private static void report(final String label, final long[] before, final long[] after,
+                             final double seconds, final LatencyHistogram latency) {
+    final long[] delta = new long[after.length];
+    for (int i = 0; i < delta.length; i++) {
+      delta[i] = after[i] - before[i];
+    }
+    System.out.printf(Locale.ROOT,
+        "%s sent %8.1f/s relayed %8.1f/s sessions %6d latency ms p50 %7.2f p99 %7.2f"
+            + " p999 %7.2f max %7.2f errors %d (%.3f%%)%n",
+        label,
+        delta[LoadStats.PACKETS_SENT] / seconds,
+        delta[LoadStats.MOVES_RECEIVED] / seconds,
+        delta[LoadStats.SESSIONS_CREATED] + delta[LoadStats.SESSIONS_JOINED],
+        latency.percentile(50.0d) / 1.0e6d,
+        latency.percentile(99.0d) / 1.0e6d,
+        latency.percentile(99.9d) / 1.0e6d,
+        latency.getMax() / 1.0e6d,
+        LoadStats.errors(delta),
+        errorRate(delta));
+  }
+}
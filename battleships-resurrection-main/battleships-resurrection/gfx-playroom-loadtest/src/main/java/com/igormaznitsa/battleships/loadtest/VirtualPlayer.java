@@ -0,0 +1,421 @@
+/*
+ *    Battleships PC client with GFX multi-player game support
+ *    Copyright (C) 2021 Igor Maznitsa
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package com.igormaznitsa.battleships.loadtest;
+
+import com.igormaznitsa.battleships.commons.GfxPacketCodec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless GFX client. It keeps /getoutstream open, plays the session by moves sent through
+ * /getinstream and sometimes exits, pauses or drops its out stream. A move carries its send time,
+ * so the opponent, which lives in the same process, measures relay latency of the server.
+ * <p>
+ * All methods are called by the thread of the driver.
+ */
+final class VirtualPlayer {
+
+  private static final int GC_JOINTOSESSION = 2;
+  private static final int GC_NEWSESSION = 3;
+  private static final int GC_EXIT = 4;
+  private static final int GC_OPPONENTLOST = 5;
+  private static final int GC_SESSIONREMOVE = 6;
+  private static final int GC_GAMEMOVE = 7;
+  private static final int GC_OPPONENTJOIN = 9;
+  private static final int GC_WAITPACKET = 13;
+  private static final int GC_LOCKPACKET = 14;
+  private static final int GC_SERVEROVERLADEN = 15;
+  private static final int GC_SERVERPAUSE = 17;
+
+  private static final byte[] HEADERS_END = {'\r', '\n', '\r', '\n'};
+
+  private final LoadDriver driver;
+  private final LoadConfig config;
+  private final LoadStats stats;
+  private final AtomicInteger playerIds;
+  private final GfxPacketCodec decoder = new GfxPacketCodec();
+
+  private int playerId;
+  private int sessionId;
+  private long packetNumber;
+  private boolean playing;
+  private boolean paused;
+  // incremented on every restart, timers of previous life are ignored
+  private int generation;
+  // moves sent before it were held by the server while the player was paused or disconnected
+  private long resumedAt;
+
+  private LoadDriver.Connection out;
+  private boolean outHeadersRead;
+  private LoadDriver.Connection in;
+  private int responsesDue;
+
+  VirtualPlayer(final LoadDriver driver, final AtomicInteger playerIds) {
+    this.driver = driver;
+    this.config = driver.config;
+    this.stats = driver.stats;
+    this.playerIds = playerIds;
+  }
+
+  void start() {
+    this.generation++;
+    this.playerId = this.playerIds.getAndIncrement();
+    this.sessionId = -1;
+    this.packetNumber = 0L;
+    this.playing = false;
+    this.paused = false;
+    this.resumedAt = System.nanoTime();
+    this.openOutStream();
+  }
+
+  private void restart(final long delayMs) {
+    this.generation++;
+    this.playing = false;
+    this.closeOutStream();
+    this.closeInStream();
+    final int expected = this.generation;
+    this.driver.schedule(delayMs, () -> {
+      if (expected == this.generation) {
+        this.start();
+      }
+    });
+  }
+
+  private void openOutStream() {
+    this.outHeadersRead = false;
+    this.decoder.resetDecoder();
+    final String request = "POST /getoutstream HTTP/1.0\r\nplayerID: " + this.playerId + "\r\n"
+        + (this.sessionId < 0 ? "" : "sessionID: " + this.sessionId + "\r\n")
+        + "Host: " + this.config.host + ':' + this.config.port + "\r\n\r\n";
+    this.out = this.driver.connect(new OutStream());
+    if (this.out == null) {
+      this.restart(this.config.restartMs);
+    } else {
+      this.out.write(request.getBytes(StandardCharsets.ISO_8859_1));
+    }
+  }
+
+  private void closeOutStream() {
+    final LoadDriver.Connection connection = this.out;
+    this.out = null;
+    if (connection != null) {
+      connection.close(false);
+    }
+  }
+
+  private void closeInStream() {
+    final LoadDriver.Connection connection = this.in;
+    this.in = null;
+    this.responsesDue = 0;
+    if (connection != null) {
+      connection.close(false);
+    }
+  }
+
+  private void scheduleTick(final long delayMs) {
+    final int expected = this.generation;
+    this.driver.schedule(delayMs, () -> {
+      if (expected == this.generation && this.playing && !this.paused) {
+        this.tick();
+      }
+    });
+  }
+
+  private long nextMoveDelay() {
+    final int interval = this.config.moveIntervalMs;
+    return interval / 2 + ThreadLocalRandom.current().nextInt(Math.max(1, interval));
+  }
+
+  private void tick() {
+    final double action = ThreadLocalRandom.current().nextDouble();
+    if (action < this.config.exitChance) {
+      this.stats.increment(LoadStats.EXITS);
+      this.sendPacket(GC_EXIT, 0, 0);
+      // the packet must reach the server before the out stream is closed
+      this.playing = false;
+      final int expected = this.generation;
+      this.driver.schedule(this.config.restartMs, () -> {
+        if (expected == this.generation) {
+          this.restart(0L);
+        }
+      });
+    } else if (action < this.config.exitChance + this.config.pauseChance) {
+      this.stats.increment(LoadStats.PAUSES);
+      this.sendPacket(GC_LOCKPACKET, 0, 0);
+      this.paused = true;
+      final int expected = this.generation;
+      this.driver.schedule(this.config.pauseMs, () -> {
+        if (expected == this.generation) {
+          this.paused = false;
+          this.resumedAt = System.nanoTime();
+          this.sendPacket(GC_WAITPACKET, 0, 0);
+          this.scheduleTick(this.nextMoveDelay());
+        }
+      });
+    } else if (action
+        < this.config.exitChance + this.config.pauseChance + this.config.disconnectChance) {
+      this.stats.increment(LoadStats.DISCONNECTS);
+      this.closeOutStream();
+      this.paused = true;
+      final int expected = this.generation;
+      this.driver.schedule(this.config.reconnectMs, () -> {
+        if (expected == this.generation) {
+          this.openOutStream();
+        }
+      });
+    } else {
+      final long now = System.nanoTime();
+      this.sendPacket(GC_GAMEMOVE, (int) (now >>> 32), (int) now);
+      this.scheduleTick(this.nextMoveDelay());
+    }
+  }
+
+  private void sendPacket(final int code, final int arg1, final int arg2) {
+    final ByteBuffer packet = ByteBuffer.allocate(GfxPacketCodec.PACKET_SIZE);
+    GfxPacketCodec.encode(packet, code, arg1, arg2, 0);
+    final String headers = "playerID: " + this.playerId + "\r\nsessionID: " + this.sessionId
+        + "\r\npn: " + this.packetNumber++ + "\r\nContent-Length: " + GfxPacketCodec.PACKET_SIZE
+        + "\r\n\r\n";
+    final byte[] request;
+    if (this.config.keepAlive) {
+      request = concat("POST /getinstream HTTP/1.1\r\npersistent: 1\r\n" + headers, packet.array());
+      if (this.in == null) {
+        this.in = this.driver.connect(new InStream(true));
+        if (this.in == null) {
+          return;
+        }
+      }
+      if (this.in.write(request)) {
+        this.responsesDue++;
+      } else {
+        this.stats.increment(LoadStats.ERROR_IO);
+        return;
+      }
+    } else {
+      request = concat("POST /getinstream HTTP/1.0\r\n" + headers, packet.array());
+      final LoadDriver.Connection connection = this.driver.connect(new InStream(false));
+      if (connection == null) {
+        return;
+      }
+      connection.write(request);
+    }
+    this.stats.increment(LoadStats.PACKETS_SENT);
+  }
+
+  private static byte[] concat(final String head, final byte[] body) {
+    final byte[] headBytes = head.getBytes(StandardCharsets.ISO_8859_1);
+    final byte[] result = new byte[headBytes.length + body.length];
+    System.arraycopy(headBytes, 0, result, 0, headBytes.length);
+    System.arraycopy(body, 0, result, headBytes.length, body.length);
+    return result;
+  }
+
+  /**
+   * Find end of HTTP headers in the buffer.
+   *
+   * @return index of the first byte after the empty line, -1 if not received yet
+   */
+  private static int headersEnd(final ByteBuffer buffer) {
+    for (int i = buffer.position(); i + HEADERS_END.length <= buffer.limit(); i++) {
+      boolean found = true;
+      for (int j = 0; j < HEADERS_END.length && found; j++) {
+        found = buffer.get(i + j) == HEADERS_END[j];
+      }
+      if (found) {
+        return i + HEADERS_END.length;
+      }
+    }
+    return -1;
+  }
+
+  // status line must be "HTTP/1.x 200 ..."
+  private static boolean isOk(final ByteBuffer buffer) {
+    final int from = buffer.position();
+    return buffer.remaining() >= 12 && buffer.get(from) == 'H' && buffer.get(from + 9) == '2'
+        && buffer.get(from + 10) == '0' && buffer.get(from + 11) == '0';
+  }
+
+  private void onPacket(final int[] packet) {
+    switch (packet[0]) {
+      case GC_NEWSESSION: {
+        this.sessionId = packet[1];
+        this.stats.increment(LoadStats.SESSIONS_CREATED);
+      }
+      break;
+      case GC_OPPONENTJOIN: {
+        this.beginPlay();
+      }
+      break;
+      case GC_JOINTOSESSION: {
+        this.sessionId = packet[1];
+        this.stats.increment(LoadStats.SESSIONS_JOINED);
+        this.beginPlay();
+      }
+      break;
+      case GC_GAMEMOVE: {
+        final long sent = ((long) packet[1] << 32) | (packet[2] & 0xFFFFFFFFL);
+        if (sent - this.resumedAt >= 0L) {
+          this.driver.latency.record(System.nanoTime() - sent);
+        } else {
+          this.stats.increment(LoadStats.MOVES_HELD);
+        }
+        this.stats.increment(LoadStats.MOVES_RECEIVED);
+      }
+      break;
+      case GC_EXIT: {
+        this.restart(this.config.restartMs);
+      }
+      break;
+      case GC_OPPONENTLOST: {
+        this.stats.increment(LoadStats.ERROR_OPPONENT_LOST);
+        this.restart(this.config.restartMs);
+      }
+      break;
+      case GC_SESSIONREMOVE: {
+        this.stats.increment(LoadStats.ERROR_SESSION_REMOVED);
+        this.restart(this.config.restartMs);
+      }
+      break;
+      case GC_SERVEROVERLADEN:
+      case GC_SERVERPAUSE: {
+        this.stats.increment(LoadStats.ERROR_SERVER_OVERLOADED);
+        this.restart(this.config.restartMs);
+      }
+      break;
+      default: {
+        // other packets don't change the load
+      }
+      break;
+    }
+  }
+
+  private void beginPlay() {
+    if (!this.playing) {
+      this.playing = true;
+      this.scheduleTick(this.nextMoveDelay());
+    }
+  }
+
+  private final class OutStream implements LoadDriver.Connection.Listener {
+    @Override
+    public void onConnected(final LoadDriver.Connection connection) {
+    }
+
+    @Override
+    public void onData(final LoadDriver.Connection connection) {
+      if (connection != out) {
+        return;
+      }
+      final ByteBuffer buffer = connection.in;
+      if (!outHeadersRead) {
+        final int end = headersEnd(buffer);
+        if (end < 0) {
+          return;
+        }
+        if (!isOk(buffer)) {
+          stats.increment(LoadStats.ERROR_HTTP);
+          restart(config.restartMs);
+          return;
+        }
+        buffer.position(end);
+        outHeadersRead = true;
+        if (paused && playing) {
+          // reconnected after disconnect, the server drains held packets itself
+          paused = false;
+          resumedAt = System.nanoTime();
+          scheduleTick(nextMoveDelay());
+        }
+      }
+      while (connection == out) {
+        final int result = decoder.decode(buffer);
+        if (result == GfxPacketCodec.DECODE_PACKET) {
+          onPacket(decoder.getPacket());
+        } else if (result == GfxPacketCodec.DECODE_WRONG_CHECKSUM) {
+          stats.increment(LoadStats.ERROR_CHECKSUM);
+        } else {
+          break;
+        }
+      }
+    }
+
+    @Override
+    public void onClosed(final LoadDriver.Connection connection, final boolean error) {
+      if (connection == out) {
+        // closed by the server
+        stats.increment(connection.connected ? LoadStats.ERROR_IO : LoadStats.ERROR_CONNECT);
+        out = null;
+        restart(config.restartMs);
+      }
+    }
+  }
+
+  private final class InStream implements LoadDriver.Connection.Listener {
+    private final boolean persistent;
+
+    private InStream(final boolean persistent) {
+      this.persistent = persistent;
+    }
+
+    @Override
+    public void onConnected(final LoadDriver.Connection connection) {
+    }
+
+    @Override
+    public void onData(final LoadDriver.Connection connection) {
+      final ByteBuffer buffer = connection.in;
+      while (true) {
+        final int end = headersEnd(buffer);
+        if (end < 0) {
+          return;
+        }
+        if (isOk(buffer)) {
+          stats.increment(LoadStats.RESPONSES_OK);
+        } else {
+          stats.increment(LoadStats.ERROR_HTTP);
+        }
+        buffer.position(end);
+        if (!this.persistent) {
+          connection.close(false);
+          return;
+        }
+        if (connection == in) {
+          responsesDue--;
+        }
+      }
+    }
+
+    @Override
+    public void onClosed(final LoadDriver.Connection connection, final boolean error) {
+      if (!connection.connected) {
+        stats.increment(LoadStats.ERROR_CONNECT);
+      }
+      if (!this.persistent || connection != in) {
+        if (error && connection.connected) {
+          stats.increment(LoadStats.ERROR_IO);
+        }
+        return;
+      }
+      // the server closes idle connection, it is an error only if responses are lost
+      if (connection.connected && (error || responsesDue > 0)) {
+        stats.increment(LoadStats.ERROR_IO);
+      }
+      in = null;
+      responsesDue = 0;
+    }
+  }
+}
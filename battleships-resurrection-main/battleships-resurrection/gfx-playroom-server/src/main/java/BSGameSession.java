@@ -1,4 +1,6 @@
 import java.util.*;  
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 public class BSGameSession 
 {
@@ -41,8 +43,12 @@ public class BSGameSession
 	boolean player1wait = true;
 	boolean player2wait = true;
 
-	long time_player1connectlost = 0;
-	long time_player2connectlost = 0;
+	// time to reconnect the out stream before the player is considered as lost
+	static final long CONNECTION_LOST_TIMEOUT = 60000;
+
+	// liveness deadlines of players without out stream, guarded by this
+	GameTimerWheel.Timeout player1_lost_timeout = null;
+	GameTimerWheel.Timeout player2_lost_timeout = null;
 	
 	int sessionID = 0;
 	
@@ -51,6 +57,20 @@ public class BSGameSession
 	boolean session_paused = false;
 	
 	boolean player1IsFirstMoving = false;
+
+	// time to deliver the oldest queued packet before the receiver is considered as lost
+	static final long DELIVERY_TIMEOUT = 10000;
+
+	// outbound packets for players, drained when the receiver can get them
+	final BSMailbox player1_mailbox = new BSMailbox();
+	final BSMailbox player2_mailbox = new BSMailbox();
+
+	// close the session when all queued packets are delivered
+	final AtomicBoolean close_after_delivery = new AtomicBoolean();
+
+	// presence flags in BSMatchmaker queues
+	final AtomicBoolean in_wait_queue = new AtomicBoolean();
+	final AtomicBoolean in_empty_queue = new AtomicBoolean();
 	static Random rnd;
 	
 	public boolean isSessionPause()
@@ -58,17 +78,52 @@ public class BSGameSession
 		return session_paused;	
 	}
 	
-	public void setTimeLostConnection(int userID)
+	public synchronized void setTimeLostConnection(int userID)
+	{
+		if ((userID==0)||!checkValidationUser(userID)) return;
+		cancelTimeLostConnection(userID);
+		GameTimerWheel.Timeout timeout = parent_server.timer_wheel.schedule(new Runnable()
+		{
+			public void run()
+			{
+				if (isLost())
+				{
+					GameLog.info("session lost",sessionID,GameLog.NONE);
+					close();
+				}
+			}
+		},CONNECTION_LOST_TIMEOUT);
+		if (userID==playerid_1) player1_lost_timeout = timeout; else player2_lost_timeout = timeout;
+	}
+
+	public synchronized void cancelTimeLostConnection(int userID)
 	{
-		if (playerid_1==userID) time_player1connectlost=System.currentTimeMillis();
+		if ((userID==playerid_1)&&(player1_lost_timeout!=null))
+		{
+			player1_lost_timeout.cancel();
+			player1_lost_timeout = null;
+		}
 		else
-		if (playerid_2==userID) time_player2connectlost=System.currentTimeMillis();
+		if ((userID==playerid_2)&&(player2_lost_timeout!=null))
+		{
+			player2_lost_timeout.cancel();
+			player2_lost_timeout = null;
+		}
 	}
 	
 	public void setPlayerWaitMode(int player_id,boolean mode)
 	{
 		if (player_id==playerid_1) player1wait=mode;
 		if (player_id==playerid_2) player2wait=mode;
+		if (mode) drainForPlayer(player_id);
+	}
+
+	public void drainForPlayer(int player_id)
+	{
+		if (player_id==0) return;
+		if (player_id==playerid_1) drain(player1_mailbox);
+		else
+		if (player_id==playerid_2) drain(player2_mailbox);
 	}
 
 	public boolean isActive()
@@ -86,39 +141,18 @@ public class BSGameSession
 		if ((playerid_1==0)&&(playerid_2==0)) return true; else return false;
 	}
 
+	// session is lost when no player has out stream
 	public boolean isLost()
 	{
-		boolean pl1_e = false;
-		boolean pl2_e = false;
-		if (playerid_1!=0)
-		{
-			if(parent_server.getPlayerStream(playerid_1)!=null) pl1_e = true;
-			else
-				if ((System.currentTimeMillis()-time_player1connectlost)>60000) pl1_e = false;
-		}
-		else
-		{
-			pl1_e = false;	
-		}
-
-		if (playerid_2!=0)
-		{
-			if(parent_server.getPlayerStream(playerid_2)!=null) pl2_e = true;
-			else
-				if ((System.currentTimeMillis()-time_player2connectlost)>60000) pl2_e = false;
-		}
-		else
-		{
-			pl2_e = false;	
-		}
-		
-		if (pl2_e||pl1_e) return false; else return true;
-		
+		if (isEmpty()) return false;
+		if ((playerid_1!=0)&&(parent_server.getPlayerStream(playerid_1)!=null)) return false;
+		if ((playerid_2!=0)&&(parent_server.getPlayerStream(playerid_2)!=null)) return false;
+		return true;
 	}
 	
 	public void activate(int owner_id)
 	{
-		System.out.println("Player "+owner_id+" activated session "+sessionID);
+		GameLog.info("session activated",sessionID,owner_id);
 
 		session_paused = false;
 		
@@ -137,13 +171,17 @@ public class BSGameSession
 		else
 			player1IsFirstMoving=false;
 		//=============================================
+
+		parent_server.matchmaker.offerWait(this);
 	}
 	
-	public boolean join(int player_id,int sess)
+	// The owner gets GC_OPPONENTJOIN through its mailbox, an owner which is gone is detected by
+	// the delivery deadline and the joined player gets GC_OPPONENTLOST
+	public void join(int player_id,int sess)
 	{
-		System.out.println("Player "+player_id+" joined to session "+sessionID); 
+		GameLog.info("player joined",sessionID,player_id);
 		playerid_2 = player_id; 
-		return sendDataPacket(player_id,new int[]{GC_OPPONENTJOIN,0,0,0},sess,true);
+		sendDataPacket(player_id,new int[]{GC_OPPONENTJOIN,0,0,0},sess,true);
 	}
 
 	public boolean checkValidationPacketNumberForPlayer(int playerID,long packetnumber)
@@ -154,7 +192,8 @@ public class BSGameSession
 								{
 									if((packetnumber-pl1_lpc)>1)
 									{
-										System.out.println("Lost packet detected!");
+										GameLog.warn("lost packet detected",sessionID,playerID,packetnumber-pl1_lpc-1);
+										parent_server.metrics.onLostPackets(packetnumber-pl1_lpc-1);
 									}
 									
 									pl1_lpc = packetnumber;
@@ -170,7 +209,8 @@ public class BSGameSession
 								{
 									if((packetnumber-pl2_lpc)>1)
 									{
-										System.out.println("Lost packet detected!");
+										GameLog.warn("lost packet detected",sessionID,playerID,packetnumber-pl2_lpc-1);
+										parent_server.metrics.onLostPackets(packetnumber-pl2_lpc-1);
 									}
 
 									pl2_lpc = packetnumber;
@@ -195,65 +235,143 @@ public class BSGameSession
 		if ((playerid_1==player_id)||(playerid_2==player_id)) return true ; else return false;
 	}
 	
+	// Queues packet for the opponent of sender, returns false if the packet can't be queued
 	public boolean sendDataPacket(int sender_id,int [] data_array,int sess,boolean recurseenable)
 	{
 		if (isWait()) return false; 
 		
-		int reciever_id=0;
+		BSMailbox mailbox = sender_id==playerid_1 ? player2_mailbox : player1_mailbox;
+		if (!mailbox.post(data_array))
+		{
+			GameLog.warn("mailbox overflow",sessionID,sender_id);
+			return false;
+		}
+		drain(mailbox);
+		return true;
+	}
 
-		synchronized(data_array)
+	// Packets of the mailbox are sent by one thread at a time, other threads only increase the
+	// counter to make the draining thread repeat the pass. Streams writing into the socket
+	// (thread per connection) are drained by the delivery executor of the server, so a slow
+	// receiver doesn't stall the sender. Undelivered packets stay in the mailbox and the deadline
+	// is watched by the timer wheel.
+	void drain(final BSMailbox mailbox)
+	{
+		if (!mailbox.enter()) return;
+
+		ExecutorService delivery = parent_server.delivery;
+		if (delivery == null)
+		{
+			drainEntered(mailbox);
+			return;
+		}
+		try
 		{
-			if (sender_id == playerid_1) 
-				reciever_id = playerid_2; 
-			else 
+			delivery.execute(new Runnable()
+			{
+				public void run()
+				{
+					drainEntered(mailbox);
+				}
+			});
+		}
+		catch(RejectedExecutionException e)
+		{
+			// server is stopping
+		}
+	}
+
+	// called by the thread which entered the mailbox
+	void drainEntered(final BSMailbox mailbox)
+	{
+		int reciever_id = 0;
+		boolean lost = false;
+		int missed = 1;
+		while(true)
+		{
+			boolean modd;
+			if (mailbox==player1_mailbox)
+			{
 				reciever_id = playerid_1;
-			
-			boolean modd=false;
-			for(int la=0;la<20;la++)
+				modd = player1wait;
+			}
+			else
 			{
-				if ((reciever_id==playerid_1)&&player1wait)modd=true;
-				else
-					if ((reciever_id==playerid_2)&&player2wait)modd=true;
-				
-				if (modd)
+				reciever_id = playerid_2;
+				modd = player2wait;
+			}
+
+			if (modd && (reciever_id!=0))
+			{
+				IGameOutStream outstream = parent_server.getPlayerStream(reciever_id);
+				if ((outstream!=null)&&(outstream.getSessionID()==this.sessionID))
 				{
-					GameHTTPStream outstream = null;
-					outstream = parent_server.getPlayerStream(reciever_id);
-					
-					if (outstream!=null)
+					int count;
+					while((count=mailbox.peekBatch())>0)
 					{
-						if (outstream.sessionID!=this.sessionID) return false;
-						for (int hh=0;hh<5;hh++)
+						if (!outstream.sendPackets(mailbox.batch,count))
 						{
-							if (outstream.sendPacket(data_array)) return true;
-							try
-							{
-								Thread.sleep(300);
-							}
-							catch(InterruptedException ee)
-							{ return false;}
+							parent_server.metrics.onSendRetry();
+							break;
 						}
+						long now = System.nanoTime();
+						for(int li=0;li<count;li++) parent_server.metrics.onRelay(now-BSMailbox.postTime(mailbox.batch[li]));
+						mailbox.removeBatch(count);
 					}
 				}
-				try
-				{
-					Thread.sleep(500); 
-				}
-				catch(InterruptedException e)
+			}
+
+			if (mailbox.isEmpty())
+			{
+				mailbox.cancelDeadline();
+			}
+			else
+			if (mailbox.isExpired())
+			{
+				lost = true;
+				mailbox.clear();
+				mailbox.cancelDeadline();
+			}
+			else
+			{
+				mailbox.armDeadline(parent_server.timer_wheel,DELIVERY_TIMEOUT,new Runnable()
 				{
-					return false;
-				}
+					public void run()
+					{
+						drain(mailbox);
+					}
+				});
 			}
-			System.out.println("Can't send packet to player "+reciever_id);
+
+			missed = mailbox.leave(missed);
+			if (missed==0) break;
+		}
+
+		if (lost)
+		{
+			GameLog.warn("packet delivery timeout",sessionID,reciever_id);
+			if (close_after_delivery.get())
+			{
+				close();
+				return;
+			}
+			// send to player command what opponent is lose
+			BSMailbox opponent = mailbox==player1_mailbox ? player2_mailbox : player1_mailbox;
+			opponent.post(new int[]{GC_OPPONENTLOST,0,0,0});
+			closeAfterDelivery();
+		}
+		else
+		if (player1_mailbox.isEmpty() && player2_mailbox.isEmpty() && close_after_delivery.compareAndSet(true,false))
+		{
+			close();
 		}
-		
-		// send to player command what opponent is lose
-		if ((sess>=0)&&recurseenable)
-			sendDataPacket(reciever_id,new int[]{GC_OPPONENTLOST,0,0,0},sessionID,false);
-		
-		this.close(); 
-		
-		return false;	
+	}
+
+	public void closeAfterDelivery()
+	{
+		close_after_delivery.set(true);
+		drain(player1_mailbox);
+		drain(player2_mailbox);
 	}
 
 	public BSGameSession(int session_id,GameHTTPServer parent)
@@ -271,7 +389,7 @@ public class BSGameSession
 			sendDataPacketForPlayerID(playerid_1, new int[]{GC_SESSIONREMOVE,0,0,0}); 
 		if(playerid_2!=0) 
 			sendDataPacketForPlayerID(playerid_2, new int[]{GC_SESSIONREMOVE,0,0,0});
-		close();
+		closeAfterDelivery();
 	}
 	
 	public void pause()
@@ -300,14 +418,28 @@ public class BSGameSession
 	
 	public void close()
 	{
+		synchronized(this)
+		{
+			if (player1_lost_timeout!=null) player1_lost_timeout.cancel();
+			if (player2_lost_timeout!=null) player2_lost_timeout.cancel();
+			player1_lost_timeout = null;
+			player2_lost_timeout = null;
+		}
 		playerid_1 = 0;
 		playerid_2 = 0;
 		pl1_lpc = -1;
 		pl2_lpc = -1;
 		player1wait = true;
 		player2wait = true;
+
+		close_after_delivery.set(false);
+		player1_mailbox.clear();
+		player2_mailbox.clear();
+		drain(player1_mailbox);
+		drain(player2_mailbox);
 	
-		System.out.println("Session "+sessionID+" closed");
+		parent_server.matchmaker.offerEmpty(this);
+		GameLog.info("session closed",sessionID,GameLog.NONE);
 	}
 	
 	public int hashCode()
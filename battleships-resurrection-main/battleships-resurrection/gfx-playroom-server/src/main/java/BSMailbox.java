@@ -0,0 +1,102 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Outbound packets of one player of a session. Packets are posted from any thread and sent by
+ * one draining thread at a time, see BSGameSession.drain(). Fields without modifiers are touched
+ * only by the draining thread.
+ */
+public class BSMailbox {
+
+  static final int MAX_PACKETS = 128;
+  // max number of packets gathered into one write
+  static final int MAX_BATCH = 8;
+
+  final ConcurrentLinkedQueue<int[]> packets = new ConcurrentLinkedQueue<int[]>();
+  final AtomicInteger size = new AtomicInteger();
+  final AtomicInteger wip = new AtomicInteger();
+
+  final int[][] batch = new int[MAX_BATCH][];
+  GameTimerWheel.Timeout deadline = null;
+  int deadline_generation = 0;
+  volatile int expired_generation = -1;
+
+  // queued packet keeps nanoTime of posting in ints 4 and 5, streams send only the first four ints
+  public boolean post(int[] packet) {
+    if (size.incrementAndGet() > MAX_PACKETS) {
+      size.decrementAndGet();
+      return false;
+    }
+    long time = System.nanoTime();
+    packets.offer(new int[]{packet[0], packet[1], packet[2], packet[3], (int) (time >>> 32), (int) time});
+    return true;
+  }
+
+  static long postTime(int[] packet) {
+    return ((long) packet[4] << 32) | (packet[5] & 0xFFFFFFFFL);
+  }
+
+  // fills batch by packets from the head of the queue without removing them, returns their number
+  int peekBatch() {
+    int count = 0;
+    for (Iterator<int[]> iter = packets.iterator(); iter.hasNext() && count < MAX_BATCH; ) {
+      batch[count++] = iter.next();
+    }
+    return count;
+  }
+
+  void removeBatch(int count) {
+    for (int i = 0; i < count; i++) {
+      // by identity, the mailbox could be cleared by close() meanwhile
+      if (packets.remove(batch[i])) {
+        size.decrementAndGet();
+      }
+      batch[i] = null;
+    }
+  }
+
+  public void clear() {
+    while (packets.poll() != null) {
+      size.decrementAndGet();
+    }
+  }
+
+  public boolean isEmpty() {
+    return packets.isEmpty();
+  }
+
+  // returns true if the caller became the draining thread
+  boolean enter() {
+    return wip.getAndIncrement() == 0;
+  }
+
+  // returns the number of drain requests arrived during the pass, 0 if the drain is finished
+  int leave(int missed) {
+    return wip.addAndGet(-missed);
+  }
+
+  void armDeadline(GameTimerWheel wheel, long delay_ms, final Runnable on_expire) {
+    if (deadline != null) {
+      return;
+    }
+    final int generation = ++deadline_generation;
+    deadline = wheel.schedule(new Runnable() {
+      public void run() {
+        expired_generation = generation;
+        on_expire.run();
+      }
+    }, delay_ms);
+  }
+
+  void cancelDeadline() {
+    if (deadline != null) {
+      deadline.cancel();
+      deadline = null;
+    }
+  }
+
+  boolean isExpired() {
+    return deadline != null && expired_generation == deadline_generation;
+  }
+}
@@ -0,0 +1,50 @@
+import java.util.concurrent.*;
+
+/**
+ * Lock-free queues of sessions waiting for an opponent and of empty sessions. A session is
+ * placed into a queue by its state change and checked again when it is taken, so stale entries
+ * are just skipped. The pool is created by the server with its configured size, if there is no
+ * free session then the server is overloaded.
+ */
+public class BSMatchmaker {
+
+  final ConcurrentLinkedQueue<BSGameSession> wait_queue = new ConcurrentLinkedQueue<BSGameSession>();
+  final ConcurrentLinkedQueue<BSGameSession> empty_queue = new ConcurrentLinkedQueue<BSGameSession>();
+
+  GameHTTPServer parent = null;
+
+  public BSMatchmaker(GameHTTPServer parent) {
+    this.parent = parent;
+  }
+
+  public void offerWait(BSGameSession bsg) {
+    if (bsg.in_wait_queue.compareAndSet(false, true)) {
+      wait_queue.offer(bsg);
+    }
+  }
+
+  public void offerEmpty(BSGameSession bsg) {
+    if (bsg.in_empty_queue.compareAndSet(false, true)) {
+      empty_queue.offer(bsg);
+    }
+  }
+
+  // the flag is reset before the state check, so a state change after the check enqueues the session again,
+  // returns null if all sessions are busy
+  public BSGameSession takeWaitOrEmpty() {
+    BSGameSession bsg;
+    while ((bsg = wait_queue.poll()) != null) {
+      bsg.in_wait_queue.set(false);
+      if (bsg.isWait()) {
+        return bsg;
+      }
+    }
+    while ((bsg = empty_queue.poll()) != null) {
+      bsg.in_empty_queue.set(false);
+      if (bsg.isEmpty()) {
+        return bsg;
+      }
+    }
+    return null;
+  }
+}
@@ -1,3 +1,4 @@
+import java.io.*;
 
 public class BSSServer {
 
@@ -11,7 +12,45 @@ public class BSSServer {
     System.out.println("|                                                         |");
     System.out.println("===========================================================");
 
-    GameHTTPServer serv = new GameHTTPServer(30000, 20, true);
+    int frontMode = GameHTTPServer.FRONT_THREADS;
+    int node = 0;
+    String nodes = null;
+    String snapshot = null;
+    String log_file = null;
+    int log_level = GameLog.INFO;
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if ("-nio".equalsIgnoreCase(arg)) {
+        frontMode = GameHTTPServer.FRONT_NIO;
+      } else if ("-virtual".equalsIgnoreCase(arg)) {
+        frontMode = GameHTTPServer.FRONT_VIRTUAL;
+      } else if ("-cluster".equalsIgnoreCase(arg) && i + 1 < args.length) {
+        nodes = args[++i];
+      } else if ("-node".equalsIgnoreCase(arg) && i + 1 < args.length) {
+        node = Integer.parseInt(args[++i]);
+      } else if ("-snapshot".equalsIgnoreCase(arg) && i + 1 < args.length) {
+        snapshot = args[++i];
+      } else if ("-log".equalsIgnoreCase(arg) && i + 1 < args.length) {
+        log_file = args[++i];
+      } else if ("-loglevel".equalsIgnoreCase(arg) && i + 1 < args.length) {
+        log_level = GameLog.parseLevel(args[++i]);
+      }
+    }
+
+    try {
+      GameLog.configure(log_level, log_file, 16 * 1024 * 1024, 5);
+    } catch (IOException e) {
+      System.out.println("Error of opening log file " + log_file);
+      return;
+    }
+
+    GameCluster cluster = nodes == null ? null : new GameCluster(node, nodes);
+    int port = cluster == null ? 30000 : cluster.getHttpPort();
+
+    GameHTTPServer serv = new GameHTTPServer(port, 20, true, frontMode, cluster);
+    if (snapshot != null) {
+      serv.openJournal(snapshot, 1000);
+    }
     serv.serverStart();
 
     while (true) {
@@ -0,0 +1,208 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Periodic snapshots of active sessions in a memory-mapped file, so a restarted server keeps
+ * sessions of its players. Snapshots are appended by own thread, session fields are read without
+ * locks and a snapshot can be a bit behind the packets but it never touches the packet path.
+ * <p>
+ * The file is a ring of 40 byte records after the header, a snapshot is BEGIN record, one record
+ * per non-empty session and END record with CRC of the session records. When a snapshot doesn't
+ * fit to the end of the file it is written from the start again. On restore the complete snapshot
+ * with the biggest sequence number is taken, torn ones are skipped.
+ */
+public class BSSessionJournal extends Thread {
+
+  static final int MAGIC = 0x42535331;
+  static final int HEADER_SIZE = 40;
+  static final int RECORD_SIZE = 40;
+  static final int FILE_SIZE = HEADER_SIZE + RECORD_SIZE * 65536;
+
+  static final int RECORD_BEGIN = 1;
+  static final int RECORD_SESSION = 2;
+  static final int RECORD_END = 3;
+
+  static final int FLAG_PLAYER1_WAIT = 1;
+  static final int FLAG_PLAYER2_WAIT = 2;
+  static final int FLAG_PLAYER1_FIRST = 4;
+  static final int FLAG_PAUSED = 8;
+
+  final GameHTTPServer parent;
+  final long interval_ms;
+  final FileChannel channel;
+  final MappedByteBuffer map;
+  final CRC32 crc = new CRC32();
+
+  long sequence = 0;
+  int position = HEADER_SIZE;
+  volatile boolean work_flag = true;
+
+  public BSSessionJournal(GameHTTPServer parent, String file_name, long interval_ms) throws IOException {
+    super("session-journal");
+    setDaemon(true);
+    this.parent = parent;
+    this.interval_ms = interval_ms;
+    channel = FileChannel.open(Paths.get(file_name), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    map = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+    if (map.getInt(0) != MAGIC) {
+      map.putInt(0, MAGIC);
+      // no BEGIN record is valid in the fresh file
+      for (int pos = HEADER_SIZE; pos < FILE_SIZE; pos += RECORD_SIZE) {
+        map.putInt(pos, 0);
+      }
+    }
+  }
+
+  // Rebuilds sessions of the last complete snapshot, returns number of restored sessions
+  public int restore() {
+    int best = -1;
+    long best_sequence = -1;
+    for (int pos = HEADER_SIZE; pos < FILE_SIZE; pos += RECORD_SIZE) {
+      if (map.getInt(pos) == RECORD_BEGIN && map.getLong(pos + 16) > best_sequence && isComplete(pos)) {
+        best = pos;
+        best_sequence = map.getLong(pos + 16);
+      }
+    }
+    if (best < 0) {
+      return 0;
+    }
+
+    int count = map.getInt(best + 4);
+    for (int i = 1; i <= count; i++) {
+      restoreSession(best + i * RECORD_SIZE);
+    }
+    sequence = best_sequence + 1;
+    position = best + (count + 2) * RECORD_SIZE;
+    return count;
+  }
+
+  boolean isComplete(int begin) {
+    int count = map.getInt(begin + 4);
+    int end = begin + (count + 1) * RECORD_SIZE;
+    if (count < 0 || end + RECORD_SIZE > FILE_SIZE) {
+      return false;
+    }
+    return map.getInt(end) == RECORD_END
+        && map.getLong(end + 16) == map.getLong(begin + 16)
+        && map.getInt(end + 4) == checksum(begin + RECORD_SIZE, count);
+  }
+
+  int checksum(int from, int count) {
+    ByteBuffer records = map.duplicate();
+    records.position(from);
+    records.limit(from + count * RECORD_SIZE);
+    crc.reset();
+    crc.update(records);
+    return (int) crc.getValue();
+  }
+
+  void restoreSession(int pos) {
+    int sessionID = map.getInt(pos + 4);
+    if (parent.isRemoteSession(sessionID)) {
+      return;
+    }
+    BSGameSession bsg = parent.getSession(sessionID);
+    if (bsg == null) {
+      bsg = new BSGameSession(sessionID, parent);
+      parent.sessions_table.put(sessionID, bsg);
+    }
+
+    int flags = map.getInt(pos + 32);
+    bsg.playerid_1 = map.getInt(pos + 8);
+    bsg.playerid_2 = map.getInt(pos + 12);
+    bsg.pl1_lpc = map.getLong(pos + 16);
+    bsg.pl2_lpc = map.getLong(pos + 24);
+    bsg.player1wait = (flags & FLAG_PLAYER1_WAIT) != 0;
+    bsg.player2wait = (flags & FLAG_PLAYER2_WAIT) != 0;
+    bsg.player1IsFirstMoving = (flags & FLAG_PLAYER1_FIRST) != 0;
+    bsg.session_paused = (flags & FLAG_PAUSED) != 0;
+
+    // players get the usual time to reconnect their out streams
+    restorePlayer(bsg, bsg.playerid_1);
+    restorePlayer(bsg, bsg.playerid_2);
+    if (bsg.isWait()) {
+      parent.matchmaker.offerWait(bsg);
+    }
+    GameLog.info("session restored", sessionID, bsg.playerid_1);
+  }
+
+  void restorePlayer(BSGameSession bsg, int playerID) {
+    if (playerID == 0) {
+      return;
+    }
+    if (!parent.dyn_playerID) {
+      parent.user_sessions.put(playerID, bsg);
+    }
+    bsg.setTimeLostConnection(playerID);
+  }
+
+  public void run() {
+    while (work_flag) {
+      try {
+        Thread.sleep(interval_ms);
+      } catch (InterruptedException e) {
+      }
+      writeSnapshot();
+    }
+    map.force();
+    try {
+      channel.close();
+    } catch (IOException e) {
+    }
+  }
+
+  public void stopJournal() {
+    work_flag = false;
+    interrupt();
+  }
+
+  void writeSnapshot() {
+    List<BSGameSession> sessions = parent.sessions_table.values();
+    if ((sessions.size() + 2) * RECORD_SIZE > FILE_SIZE - HEADER_SIZE) {
+      GameLog.warn("too many sessions for snapshot", "sessions " + sessions.size());
+      return;
+    }
+    if (position + (sessions.size() + 2) * RECORD_SIZE > FILE_SIZE) {
+      position = HEADER_SIZE;
+    }
+
+    int begin = position;
+    int pos = begin + RECORD_SIZE;
+    int count = 0;
+    for (BSGameSession bsg : sessions) {
+      int playerid_1 = bsg.playerid_1;
+      int playerid_2 = bsg.playerid_2;
+      if (playerid_1 == 0 && playerid_2 == 0) {
+        continue;
+      }
+      int flags = (bsg.player1wait ? FLAG_PLAYER1_WAIT : 0)
+          | (bsg.player2wait ? FLAG_PLAYER2_WAIT : 0)
+          | (bsg.player1IsFirstMoving ? FLAG_PLAYER1_FIRST : 0)
+          | (bsg.session_paused ? FLAG_PAUSED : 0);
+      putRecord(pos, RECORD_SESSION, bsg.sessionID, playerid_1, playerid_2, bsg.pl1_lpc, bsg.pl2_lpc, flags);
+      pos += RECORD_SIZE;
+      count++;
+    }
+
+    // END before BEGIN, so BEGIN is seen only for a complete snapshot
+    putRecord(pos, RECORD_END, checksum(begin + RECORD_SIZE, count), 0, 0, sequence, 0, 0);
+    putRecord(begin, RECORD_BEGIN, count, 0, 0, sequence, 0, 0);
+    sequence++;
+    position = pos + RECORD_SIZE;
+  }
+
+  void putRecord(int pos, int type, int arg, int player1, int player2, long value1, long value2, int flags) {
+    map.putInt(pos, type);
+    map.putInt(pos + 4, arg);
+    map.putInt(pos + 8, player1);
+    map.putInt(pos + 12, player2);
+    map.putLong(pos + 16, value1);
+    map.putLong(pos + 24, value2);
+    map.putInt(pos + 32, flags);
+    map.putInt(pos + 36, 0);
+  }
+}
@@ -0,0 +1,246 @@
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * Static cluster of playroom servers. Session ids are striped over nodes, the session is owned
+ * by node sessionID % size and every node creates only own ids, so any node knows the owner
+ * without a shared directory. Matchmaking is local, a new player gets session of the node it is
+ * connected to.
+ * <p>
+ * A /getinstream packet for a foreign session is forwarded to the owner. A /getoutstream of a
+ * foreign session, opened after reconnection to another node, is attached to the owner as remote
+ * stream and packets for the player go back through the link.
+ */
+public class GameCluster {
+
+  final int node_id;
+  final String[] hosts;
+  final int[] http_ports;
+  final int[] link_ports;
+  final GameClusterLink[] links;
+
+  GameHTTPServer parent = null;
+  ServerSocket link_ssckt = null;
+  volatile boolean work_flag = true;
+
+  /**
+   * @param node_id index of this node in the list
+   * @param nodes   comma separated list of host:http_port:link_port, the same on every node
+   */
+  public GameCluster(int node_id, String nodes) {
+    String[] items = nodes.split(",");
+    if (node_id < 0 || node_id >= items.length) {
+      throw new IllegalArgumentException("Wrong node index " + node_id + " for " + items.length + " nodes");
+    }
+    this.node_id = node_id;
+    hosts = new String[items.length];
+    http_ports = new int[items.length];
+    link_ports = new int[items.length];
+    for (int i = 0; i < items.length; i++) {
+      String[] parts = items[i].trim().split(":");
+      if (parts.length != 3) {
+        throw new IllegalArgumentException("Wrong node [" + items[i] + "], host:http_port:link_port is expected");
+      }
+      hosts[i] = parts[0];
+      http_ports[i] = Integer.parseInt(parts[1]);
+      link_ports[i] = Integer.parseInt(parts[2]);
+    }
+    links = new GameClusterLink[items.length];
+  }
+
+  public int size() {
+    return hosts.length;
+  }
+
+  public int getHttpPort() {
+    return http_ports[node_id];
+  }
+
+  public int ownerOf(int sessionID) {
+    return sessionID % hosts.length;
+  }
+
+  public boolean isLocal(int sessionID) {
+    return ownerOf(sessionID) == node_id;
+  }
+
+  // id of the index-th session created by this node
+  public int sessionIdFor(int index) {
+    return index * hosts.length + node_id;
+  }
+
+  public void start(GameHTTPServer parent) throws IOException {
+    this.parent = parent;
+    link_ssckt = new ServerSocket(link_ports[node_id]);
+    for (int i = 0; i < links.length; i++) {
+      if (i != node_id) {
+        links[i] = new GameClusterLink(this, i, hosts[i], link_ports[i]);
+        links[i].start();
+      }
+    }
+
+    Thread acceptor = new Thread("cluster-accept") {
+      public void run() {
+        try {
+          while (work_flag) {
+            final Socket sckt = link_ssckt.accept();
+            Thread reader = new Thread("cluster-in-" + sckt.getRemoteSocketAddress()) {
+              public void run() {
+                readLink(sckt);
+              }
+            };
+            reader.setDaemon(true);
+            reader.start();
+          }
+        } catch (IOException e) {
+        }
+      }
+    };
+    acceptor.setDaemon(true);
+    acceptor.start();
+    GameLog.info("cluster started", "node " + node_id + " of " + hosts.length + ", link port " + link_ports[node_id]);
+  }
+
+  public void stop() {
+    work_flag = false;
+    for (GameClusterLink link : links) {
+      if (link != null) {
+        link.stopLink();
+      }
+    }
+    try {
+      if (link_ssckt != null) {
+        link_ssckt.close();
+      }
+    } catch (IOException e) {
+    }
+  }
+
+  public void forwardInPacket(int playerID, int sessionID, long pn, int[] cmnd_buffer) {
+    links[ownerOf(sessionID)].send(GameClusterLink.FRAME_IN_PACKET, node_id, playerID, sessionID, pn, cmnd_buffer);
+  }
+
+  public void attachRemote(IGameOutStream ghs) {
+    links[ownerOf(ghs.getSessionID())].send(GameClusterLink.FRAME_ATTACH, node_id, ghs.getPlayerID(), ghs.getSessionID(), 0, null);
+  }
+
+  public void detachRemote(IGameOutStream ghs) {
+    links[ownerOf(ghs.getSessionID())].send(GameClusterLink.FRAME_DETACH, node_id, ghs.getPlayerID(), ghs.getSessionID(), 0, null);
+  }
+
+  // packets for players of the node can't be delivered, their streams are treated as closed
+  void onLinkLost(int node) {
+    if (parent == null) {
+      return;
+    }
+    for (Iterator<IGameOutStream> iter = parent.player_streams.values().iterator(); iter.hasNext(); ) {
+      IGameOutStream ghs = iter.next();
+      if (ghs instanceof RemoteOutStream && ((RemoteOutStream) ghs).node == node) {
+        parent.detachOutStream(ghs);
+      }
+    }
+  }
+
+  void readLink(Socket sckt) {
+    int[] frame = new int[GameClusterLink.FRAME_INTS];
+    try {
+      sckt.setTcpNoDelay(true);
+      DataInputStream dis = new DataInputStream(new BufferedInputStream(sckt.getInputStream()));
+      while (work_flag && GameClusterLink.readFrame(dis, frame)) {
+        onFrame(frame);
+      }
+    } catch (IOException e) {
+    } finally {
+      try {
+        sckt.close();
+      } catch (IOException e) {
+      }
+    }
+  }
+
+  void onFrame(int[] frame) {
+    int origin = frame[1];
+    int playerID = frame[2];
+    int sessionID = frame[3];
+    switch (frame[0]) {
+      case GameClusterLink.FRAME_IN_PACKET: {
+        BSGameSession bsg = parent.checkInStream(playerID, sessionID);
+        if (bsg != null) {
+          long pn = ((long) frame[4] << 32) | (frame[5] & 0xFFFFFFFFL);
+          parent.processInPacket(bsg, playerID, sessionID, pn, new int[]{frame[6], frame[7], frame[8], frame[9]});
+        }
+      }
+      break;
+      case GameClusterLink.FRAME_ATTACH: {
+        RemoteOutStream ros = new RemoteOutStream(origin, playerID, sessionID);
+        parent.registerPlayerOutStream(ros);
+        GameLog.log(GameLog.INFO, "remote stream registered", sessionID, playerID, GameLog.NONE, origin, null);
+        parent.resumeOutStream(ros);
+      }
+      break;
+      case GameClusterLink.FRAME_DETACH: {
+        IGameOutStream ghs = parent.getPlayerStream(playerID);
+        if (ghs instanceof RemoteOutStream && ((RemoteOutStream) ghs).node == origin) {
+          parent.detachOutStream(ghs);
+        }
+      }
+      break;
+      case GameClusterLink.FRAME_OUT_PACKET: {
+        IGameOutStream ghs = parent.getPlayerStream(playerID);
+        if (ghs != null && !(ghs instanceof RemoteOutStream) && ghs.getSessionID() == sessionID) {
+          ghs.sendPacket(new int[]{frame[6], frame[7], frame[8], frame[9]});
+        }
+      }
+      break;
+      default: {
+        GameLog.log(GameLog.WARN, "unknown cluster frame", sessionID, playerID, frame[0], origin, null);
+      }
+      break;
+    }
+  }
+
+  /**
+   * Out stream of a player connected to another node, registered on the owner of the session.
+   */
+  class RemoteOutStream implements IGameOutStream {
+    final int node;
+    final int playerID;
+    int sessionID;
+
+    RemoteOutStream(int node, int playerID, int sessionID) {
+      this.node = node;
+      this.playerID = playerID;
+      this.sessionID = sessionID;
+    }
+
+    public int getPlayerID() {
+      return playerID;
+    }
+
+    public int getSessionID() {
+      return sessionID;
+    }
+
+    public void setSessionID(int sessionID) {
+      this.sessionID = sessionID;
+    }
+
+    public boolean sendPacket(int[] packet) {
+      return links[node].send(GameClusterLink.FRAME_OUT_PACKET, node_id, playerID, sessionID, 0, packet);
+    }
+
+    public boolean sendPackets(int[][] packets, int count) {
+      // all or nothing, packets stay in the mailbox if the link is overloaded
+      if (links[node].queue.remainingCapacity() < count) {
+        return false;
+      }
+      for (int i = 0; i < count; i++) {
+        if (!sendPacket(packets[i])) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
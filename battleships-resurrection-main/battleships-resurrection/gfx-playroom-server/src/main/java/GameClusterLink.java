@@ -0,0 +1,147 @@
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.*;
+
+/**
+ * Outgoing binary link to a peer node of the cluster. Frames are queued by any thread and written
+ * by the link thread, the stream is flushed when the queue becomes empty so frames sent together
+ * go by one write. The link reconnects if the peer is restarted, frames queued while the peer is
+ * absent are dropped and remote streams of the peer are detached.
+ * <p>
+ * Every frame is 10 big endian ints: type, origin node, playerID, sessionID, packet number (two
+ * ints) and four ints of game packet.
+ */
+public class GameClusterLink extends Thread {
+
+  static final int FRAME_INTS = 10;
+
+  // /getinstream packet for session of the receiver
+  static final int FRAME_IN_PACKET = 1;
+  // /getoutstream of session of the receiver is opened on the origin node
+  static final int FRAME_ATTACH = 2;
+  // /getoutstream on the origin node is closed
+  static final int FRAME_DETACH = 3;
+  // packet for player whose /getoutstream is opened on the receiver
+  static final int FRAME_OUT_PACKET = 4;
+
+  static final int QUEUE_SIZE = 1024;
+  static final long RECONNECT_DELAY = 1000;
+
+  final ArrayBlockingQueue<int[]> queue = new ArrayBlockingQueue<int[]>(QUEUE_SIZE);
+  final String host;
+  final int port;
+  final int node_id;
+  final GameCluster cluster;
+  volatile boolean work_flag = true;
+  volatile Socket socket = null;
+
+  public GameClusterLink(GameCluster cluster, int node_id, String host, int port) {
+    super("cluster-link-" + node_id);
+    this.cluster = cluster;
+    this.node_id = node_id;
+    this.host = host;
+    this.port = port;
+    setDaemon(true);
+  }
+
+  public boolean send(int type, int origin, int playerID, int sessionID, long pn, int[] packet) {
+    int[] frame = new int[FRAME_INTS];
+    frame[0] = type;
+    frame[1] = origin;
+    frame[2] = playerID;
+    frame[3] = sessionID;
+    frame[4] = (int) (pn >>> 32);
+    frame[5] = (int) pn;
+    if (packet != null) {
+      frame[6] = packet[0];
+      frame[7] = packet[1];
+      frame[8] = packet[2];
+      frame[9] = packet[3];
+    }
+    if (!queue.offer(frame)) {
+      GameLog.log(GameLog.WARN, "cluster link overloaded, frame dropped", sessionID, playerID, type, node_id, null);
+      return false;
+    }
+    return true;
+  }
+
+  public void stopLink() {
+    work_flag = false;
+    interrupt();
+    try {
+      Socket sckt = socket;
+      if (sckt != null) {
+        sckt.close();
+      }
+    } catch (IOException e) {
+    }
+  }
+
+  public void run() {
+    while (work_flag) {
+      int[] frame;
+      try {
+        frame = queue.take();
+      } catch (InterruptedException e) {
+        continue;
+      }
+
+      DataOutputStream dos;
+      try {
+        Socket sckt = new Socket(host, port);
+        sckt.setTcpNoDelay(true);
+        socket = sckt;
+        dos = new DataOutputStream(new BufferedOutputStream(sckt.getOutputStream(), FRAME_INTS * 4 * 64));
+        GameLog.log(GameLog.INFO, "cluster link opened", GameLog.NONE, GameLog.NONE, GameLog.NONE, node_id, null);
+      } catch (IOException e) {
+        GameLog.warn("can't open cluster link, frames dropped", host + ":" + port);
+        queue.clear();
+        cluster.onLinkLost(node_id);
+        try {
+          Thread.sleep(RECONNECT_DELAY);
+        } catch (InterruptedException ee) {
+        }
+        continue;
+      }
+
+      try {
+        while (work_flag) {
+          writeFrame(dos, frame);
+          frame = queue.poll();
+          if (frame == null) {
+            dos.flush();
+            frame = queue.take();
+          }
+        }
+      } catch (IOException e) {
+        GameLog.log(GameLog.WARN, "cluster link lost", GameLog.NONE, GameLog.NONE, GameLog.NONE, node_id, null);
+        cluster.onLinkLost(node_id);
+      } catch (InterruptedException e) {
+      } finally {
+        try {
+          socket.close();
+        } catch (IOException e) {
+        }
+        socket = null;
+      }
+    }
+  }
+
+  static void writeFrame(DataOutputStream dos, int[] frame) throws IOException {
+    for (int i = 0; i < FRAME_INTS; i++) {
+      dos.writeInt(frame[i]);
+    }
+  }
+
+  // returns false on end of stream
+  static boolean readFrame(DataInputStream dis, int[] frame) throws IOException {
+    try {
+      for (int i = 0; i < FRAME_INTS; i++) {
+        frame[i] = dis.readInt();
+      }
+      return true;
+    } catch (EOFException e) {
+      return false;
+    }
+  }
+}
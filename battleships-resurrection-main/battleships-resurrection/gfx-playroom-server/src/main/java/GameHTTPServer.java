@@ -2,77 +2,240 @@
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
+import com.igormaznitsa.battleships.commons.IntObjectMap;
 
 public class GameHTTPServer extends Thread
 {
+	// front-end modes
+	public static final int FRONT_THREADS = 0;	// thread per connection
+	public static final int FRONT_NIO = 1;		// single selector thread
+	public static final int FRONT_VIRTUAL = 2;	// virtual thread per connection, needs build with -Ploom
+
 	ServerSocket ssckt;
+	GameNIOFront nio_front = null;
+	ThreadFactory handler_factory = null;
+	// drains session mailboxes into streams with blocking writes, null for the NIO front
+	ExecutorService delivery = null;
 
-	Hashtable sessions_table = null;
-	Hashtable players_table = null;
+	IntObjectMap<BSGameSession> sessions_table = null;
+	// registered out streams of players
+	IntObjectMap<IGameOutStream> player_streams = null;
+	// users registered through GF front, value is null until the user gets session
+	IntObjectMap<BSGameSession> user_sessions = null;
 	Hashtable users_table = null;
 
 	boolean server_pause = false;
 	boolean work_flag = true;
 
-	SessionGarbageCollector sgc = null;
+	BSMatchmaker matchmaker = null;
+	GameTimerWheel timer_wheel = null;
+	// null if the server works alone
+	GameCluster cluster = null;
+	// null if sessions are not kept between restarts
+	BSSessionJournal journal = null;
+	final GameMetrics metrics = new GameMetrics();
 	
 	boolean dyn_playerID = true;
 
-	class SessionGarbageCollector extends Thread
+	public IGameOutStream getPlayerStream(int player_id)
 	{
-		int interval = 30;
-		
-		public void run()
+		return player_streams.get(player_id);
+	}
+
+	// the owner of a foreign session is notified under the lock, so it gets attach and detach of
+	// streams of a player in the same order
+	public synchronized void registerPlayerOutStream(IGameOutStream ghs)
+	{
+		player_streams.put(ghs.getPlayerID(),ghs);
+		if (isRemoteSession(ghs.getSessionID()))
 		{
-			while(work_flag)
+			cluster.attachRemote(ghs);
+			return;
+		}
+		BSGameSession bsg = getSession(ghs.getSessionID());
+		if (bsg!=null) bsg.cancelTimeLostConnection(ghs.getPlayerID());
+	}
+
+	public synchronized boolean removePlayerOutStream(IGameOutStream ghs)
+	{
+		// the player could already reconnect with new stream
+		if (!player_streams.remove(ghs.getPlayerID(),ghs)) return false;
+		if (isRemoteSession(ghs.getSessionID())) cluster.detachRemote(ghs);
+		return true;
+	}	
+
+	// true if the session is owned by another node of the cluster
+	public boolean isRemoteSession(int sessionID)
+	{
+		return (cluster!=null) && (sessionID >= 0) && !cluster.isLocal(sessionID);
+	}
+
+	public int sessionIdFor(int index)
+	{
+		return cluster==null ? index : cluster.sessionIdFor(index);
+	}
+
+	// Selects session for a new /getoutstream and sends the first packet into the stream,
+	// returns false if the stream must be closed
+	public boolean attachOutStream(IGameOutStream ghs)
+	{
+		int playerID = ghs.getPlayerID();
+		if (ghs.getSessionID() < 0)
+		{
+			// server in pause?
+			if (IsServerPause())
 			{
-				Enumeration enm = sessions_table.elements(); 
-				while(enm.hasMoreElements())
-				{
-					BSGameSession bsg = (BSGameSession) enm.nextElement(); 
-					if (!bsg.isEmpty())
-					{
-						if (bsg.isLost())bsg.close(); 
-					}
-				}
+				ghs.sendPacket(new int[]{BSGameSession.GC_SERVERPAUSE,0,0,0});
+				return false;
+			}
 
-				try
-				{
-					Thread.sleep(interval); 
-				}
-				catch(InterruptedException ee){return;}
+			//is the first query and required SessionID
+			BSGameSession bsg = getWaitOrEmptySesssion();
+			if (bsg == null)
+			{
+				ghs.sendPacket(new int[]{BSGameSession.GC_SERVEROVERLADEN,0,0,0});
+				return false;
 			}
+
+			int [] packet = new int[4];
+			if (bsg.isEmpty())
+			{
+				if (!dyn_playerID) setSessionToUser(playerID,bsg);
+				bsg.activate(playerID);
+				packet[0] = BSGameSession.GC_NEWSESSION;
+				packet[2] = bsg.player1IsFirstMoving ? -1 : 0;
+			}
+			else
+			{
+				bsg.join(playerID,ghs.getSessionID());
+				if (!dyn_playerID) setSessionToUser(playerID,bsg);
+				packet[0] = BSGameSession.GC_JOINTOSESSION;
+				packet[2] = bsg.player1IsFirstMoving ? 0 : -1;
+			}
+			packet[1] = bsg.sessionID;
+			ghs.setSessionID(bsg.sessionID);
+			ghs.sendPacket(packet);
 		}
-		
-		public SessionGarbageCollector(int interval_sec)
-		{
-			interval = interval_sec*1000; 
-			this.setPriority(Thread.NORM_PRIORITY-1);  
-			this.start(); 
-		}
+
+		registerPlayerOutStream(ghs);
+		GameLog.info("out stream registered",ghs.getSessionID(),playerID);
+		resumeOutStream(ghs);
+		return true;
 	}
-	
-	public GameHTTPStream getPlayerStream(int player_id)
+
+	// Sends packets queued for the player while the stream was absent or busy
+	public void resumeOutStream(IGameOutStream ghs)
+	{
+		BSGameSession bsg = getSession(ghs.getSessionID());
+		if (bsg!=null) bsg.drainForPlayer(ghs.getPlayerID());
+	}
+
+	public void detachOutStream(IGameOutStream ghs)
 	{
-		return (GameHTTPStream)players_table.get(new Integer(player_id));
+		removePlayerOutStream(ghs);
+		BSGameSession bsg = getSession(ghs.getSessionID());
+		if (bsg!=null) bsg.setTimeLostConnection(ghs.getPlayerID());
+		GameLog.info("out stream removed",ghs.getSessionID(),ghs.getPlayerID());
 	}
 
-	public synchronized void registerPlayerOutStream(GameHTTPStream ghs)
+	// Checks headers of /getinstream, returns the target session or null if the request must be dropped
+	public BSGameSession checkInStream(int playerID,int sessionID,String packet_number)
 	{
-		synchronized (players_table) 
+		if (packet_number == null) return null;
+		return checkInStream(playerID,sessionID);
+	}
+
+	public BSGameSession checkInStream(int playerID,int sessionID)
+	{
+		if ((sessionID < 0) || (playerID == 0)) return null;
+
+		if (!checkUserValidation(playerID)) return null;
+
+		BSGameSession bsg = getSession(sessionID);
+		if (bsg == null)
 		{
-			players_table.put(new Integer(ghs.playerID),ghs);
+			IGameOutStream gstr = getPlayerStream(playerID);
+			if (gstr != null) gstr.sendPacket(new int[]{BSGameSession.GC_SESSIONREMOVE,0,0,0});
+			return null;
 		}
+
+		if (!bsg.checkValidationUser(playerID)) return null;
+		return bsg;
 	}
 
-	public synchronized void removePlayerOutStream(GameHTTPStream ghs)
+	static long parsePacketNumber(String packet_number)
 	{
-		synchronized (players_table)	
+		try
 		{
-			players_table.remove(new Integer(ghs.playerID));
+			return Long.parseLong(packet_number);
 		}
-	}	
+		catch (NumberFormatException ee)
+		{
+			GameLog.warn("wrong pn field",packet_number);
+			return -1;
+		}
+	}
+
+	// Sends /getinstream packet of a foreign session to its owner, the owner checks it
+	public void forwardInPacket(int playerID,int sessionID,String packet_number,int [] cmnd_buffer)
+	{
+		if ((playerID == 0) || (packet_number == null)) return;
+		cluster.forwardInPacket(playerID,sessionID,parsePacketNumber(packet_number),cmnd_buffer);
+	}
+
+	public void processInPacket(BSGameSession bsg,int playerID,int sessionID,String packet_number,int [] cmnd_buffer)
+	{
+		processInPacket(bsg,playerID,sessionID,parsePacketNumber(packet_number),cmnd_buffer);
+	}
+
+	public void processInPacket(BSGameSession bsg,int playerID,int sessionID,long pck,int [] cmnd_buffer)
+	{
+		metrics.onInPacket(cmnd_buffer[0]);
+		if (!bsg.checkValidationPacketNumberForPlayer(playerID,pck)) return;
+
+		switch (cmnd_buffer[0])
+		{
+			case BSGameSession.GC_LOCKPACKET:
+			{
+				bsg.setPlayerWaitMode(playerID,false);
+			}
+			break;
+			case BSGameSession.GC_WAITPACKET:
+			{
+				bsg.setPlayerWaitMode(playerID,true);
+			}
+			break;
+			case BSGameSession.GC_EXIT:
+			{
+				if (!dyn_playerID) removeSessionFromUser(playerID);
+				bsg.sendDataPacket(playerID,cmnd_buffer,sessionID,true);
+				bsg.closeAfterDelivery();
+			}
+			break;
+			default:
+			{
+				if (!bsg.sendDataPacket(playerID,cmnd_buffer,sessionID,true)) bsg.close();
+			}
+			break;
+		}
+	}
 	
+	// Response of /metrics with headers
+	public byte[] metricsResponse()
+	{
+		String body = metrics.render(this);
+		String head = "HTTP/1.0 200 OK\r\nContent-Type: text/plain; version=0.0.4; charset=utf-8\r\nContent-Length: "+body.length()+"\r\n\r\n";
+		try
+		{
+			return (head+body).getBytes("UTF-8");
+		}
+		catch(UnsupportedEncodingException e)
+		{
+			return (head+body).getBytes();
+		}
+	}
+
 	public boolean IsServerPause()
 	{
 		return server_pause;	
@@ -82,32 +245,25 @@ public class GameHTTPServer extends Thread
 	{
 		server_pause = true;
 		
-		synchronized(sessions_table)
+		Iterator iter = sessions_table.values().iterator(); 
+		while(iter.hasNext())
 		{
-			Enumeration enmm = sessions_table.elements(); 
-			while(enmm.hasMoreElements())
+			BSGameSession bsg = (BSGameSession) iter.next();
+			if (!bsg.isActive()&&(!bsg.isSessionPause()))
 			{
-				BSGameSession bsg = (BSGameSession) enmm.nextElement();
-				if (!bsg.isActive()&&(!bsg.isSessionPause()))
-				{
-					bsg.pause(); 	
-				}
+				bsg.pause(); 	
 			}
 		}
 	}
 	
 	public BSGameSession getSession(int session_id)
 	{
-		return (BSGameSession)sessions_table.get(new Integer(session_id));
+		return sessions_table.get(session_id);
 	}
 
 	public boolean resumeSessionForUser(int playerID)
 	{
-		BSGameSession bsg = null;
-		synchronized (players_table)
-		{
-			bsg = (BSGameSession)players_table.get(new Integer(playerID));
-		}
+		BSGameSession bsg = getSessionForUser(playerID);
 		if (bsg==null) return false;
 		bsg.resume(); 
 		return true;
@@ -115,11 +271,7 @@ public class GameHTTPServer extends Thread
 	
 	public boolean pauseSessionForUser(int playerID)
 	{
-		BSGameSession bsg = null;
-		synchronized (players_table)
-		{
-			bsg = (BSGameSession)players_table.get(new Integer(playerID));
-		}
+		BSGameSession bsg = getSessionForUser(playerID);
 		if (bsg==null) return false;
 		bsg.pause();
 		return true;
@@ -127,76 +279,101 @@ public class GameHTTPServer extends Thread
 	
 	public boolean stopSessionForUser(int playerID)
 	{
-		BSGameSession bsg = null;
-		synchronized (players_table)
-		{
-			bsg = (BSGameSession)players_table.get(new Integer(playerID));
-		}
+		BSGameSession bsg = getSessionForUser(playerID);
 		if (bsg==null) return false;
 		bsg.closeSession();
 		return true;
 	}
 
-	public BSGameSession getWaitOrEmptySesssion()
+	public BSGameSession getSessionForUser(int playerID)
 	{
-		synchronized(sessions_table)
+		BSGameSession bsg = user_sessions.get(playerID);
+		if (bsg==null)
 		{
-			BSGameSession emptys = null;
-			BSGameSession current = null;
-			Enumeration enm = sessions_table.elements(); 
-			while(enm.hasMoreElements())
-			{
-				current = (BSGameSession) enm.nextElement();
-				if (current.isEmpty()) emptys = current;  
-				if (current.isWait()) return current;  
-			}
-			if (emptys == null) 
-			{	
-				System.out.println("Free sessions not found");
-				return null;
-			}
-			else
-			{
-				return emptys;	
-			}
+			IGameOutStream ghs = getPlayerStream(playerID);
+			if (ghs!=null) bsg = getSession(ghs.getSessionID());
 		}
+		return bsg;
+	}
+
+	public BSGameSession getWaitOrEmptySesssion()
+	{
+		return matchmaker.takeWaitOrEmpty();
 	}
 	
 	public void run()
 	{
+		if (nio_front!=null)
+		{
+			nio_front.run();
+			return;
+		}
+
 		try
 		{
 			while(work_flag)
 			{
 				Socket sckk = ssckt.accept();
+				metrics.onAccept();
 				//System.out.println("Incomming connection");
-				new GameHTTPStream(sckk,this);
+				startHandler(new GameHTTPStream(sckk,this));
 			}
 		}
 		catch(IOException e){}
 	}
 
+	void startHandler(GameHTTPStream ghs)
+	{
+		if (handler_factory!=null)
+			handler_factory.newThread(ghs).start();
+		else
+			new Thread(ghs).start();
+	}
+
+	// VirtualHandlerFactory is compiled only by the loom profile, it needs JDK 21+
+	static ThreadFactory makeVirtualThreadFactory()
+	{
+		try
+		{
+			Class<?> cls = Class.forName("VirtualHandlerFactory");
+			return ThreadFactory.class.cast(cls.getMethod("create",String.class).invoke(null,"ghs-"));
+		}
+		catch(Throwable e)
+		{
+			return null;
+		}
+	}
+
 	public void stopServer()
 	{
 		work_flag = false;
+		timer_wheel.stopWheel();
+		if (cluster!=null) cluster.stop();
+		if (journal!=null) journal.stopJournal();
+		if (delivery!=null) delivery.shutdownNow();
+		if (nio_front!=null)
+		{
+			nio_front.stop();
+		}
+		else
 		try
 		{
 			ssckt.close();
 		}
 		catch(IOException e){}
-		System.out.println("Server stoped");
+		GameLog.info("server stopped");
 	}
 
 	public void addUserID(int userID)
 	{
-		players_table.put(new Integer(userID),null);   
+		user_sessions.put(userID,null);
 	}
 
 	public boolean setSessionToUser(int userID,BSGameSession bsg)
 	{
 		if (checkUserValidation(userID))
 		{
-			players_table.put(new Integer(userID),bsg);  
+			user_sessions.put(userID,bsg);
 			return true;
 		}
 		else
@@ -207,7 +384,7 @@ public class GameHTTPServer extends Thread
 	{
 		if (checkUserValidation(userID))
 		{
-			players_table.put(new Integer(userID),null);  
+			user_sessions.put(userID,null);
 			return true;
 		}
 		else
@@ -216,55 +393,118 @@ public class GameHTTPServer extends Thread
 	
 	public boolean checkUserValidation(int userID)
 	{
-		return players_table.containsKey(new Integer(userID));
+		return user_sessions.containsKey(userID) || player_streams.containsKey(userID);
 	}
 	
 	public GameHTTPServer(int port,int sessions_number,boolean player_id_dyn)
+	{
+		this(port,sessions_number,player_id_dyn,FRONT_THREADS);
+	}
+
+	public GameHTTPServer(int port,int sessions_number,boolean player_id_dyn,int front_mode)
+	{
+		this(port,sessions_number,player_id_dyn,front_mode,null);
+	}
+
+	public GameHTTPServer(int port,int sessions_number,boolean player_id_dyn,int front_mode,GameCluster cluster)
 	{
 		try
 		{
-			ssckt = new ServerSocket(port); 
-			System.out.println("Created server on "+port);
+			if (front_mode == FRONT_NIO)
+			{
+				nio_front = new GameNIOFront(port,this);
+				GameLog.info("NIO server created","port "+port);
+			}
+			else
+			{
+				ssckt = new ServerSocket(port); 
+				GameLog.info("server created","port "+port);
+				if (front_mode == FRONT_VIRTUAL)
+				{
+					handler_factory = makeVirtualThreadFactory();
+					if (handler_factory == null)
+						GameLog.warn("virtual threads are not supported by the build, thread per connection is used");
+					else
+						GameLog.info("connections are served by virtual threads");
+				}
+				delivery = Executors.newCachedThreadPool(handler_factory!=null ? handler_factory : new ThreadFactory()
+				{
+					int counter = 0;
+
+					public synchronized Thread newThread(Runnable task)
+					{
+						Thread thread = new Thread(task,"delivery-"+(counter++));
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+			}
 		}
 		catch(IOException e)
 		{
-			System.out.println("Error of opening server socket "+port);
+			GameLog.error("can't open server socket","port "+port);
 			return;
 		}
 
 		dyn_playerID = player_id_dyn; 
+		this.cluster = cluster;
 		
-		players_table = new Hashtable(10);
-		players_table.clear();  
-		sessions_table = new Hashtable(sessions_number);
-		sessions_table.clear();  
+		player_streams = new IntObjectMap<IGameOutStream>(sessions_number*2);
+		user_sessions = new IntObjectMap<BSGameSession>();
+		sessions_table = new IntObjectMap<BSGameSession>(sessions_number);
 		users_table = new Hashtable(); 
 		users_table.clear(); 
+		timer_wheel = new GameTimerWheel("timer-wheel",100,512);
+		timer_wheel.start();
+		matchmaker = new BSMatchmaker(this);
 		for(int li=0;li<sessions_number;li++)
 		{
-			BSGameSession bsgs = new BSGameSession(li,this); 
-			sessions_table.put( new Integer(bsgs.sessionID),bsgs);
+			BSGameSession bsgs = new BSGameSession(sessionIdFor(li),this); 
+			sessions_table.put(bsgs.sessionID,bsgs);
+			matchmaker.offerEmpty(bsgs);
 		}
-		System.out.println("Created session pool for "+sessions_number+" sessions"); 
+		GameLog.info("session pool created",sessions_number+" sessions");
 
-		sgc = new SessionGarbageCollector(30); 
-		System.out.println("Session garbage collector are started with interval 30 sec\r\n"); 
+		GameLog.info("sessions without players are closed in "+(BSGameSession.CONNECTION_LOST_TIMEOUT/1000)+" sec");
+
+		if (cluster!=null)
+		try
+		{
+			cluster.start(this);
+		}
+		catch(IOException e)
+		{
+			GameLog.error("can't open cluster link socket","port "+cluster.link_ports[cluster.node_id]);
+		}
+	}
+
+	// Restores sessions from the snapshot file and starts periodic snapshots, must be called before serverStart()
+	public void openJournal(String file_name,long interval_ms)
+	{
+		try
+		{
+			journal = new BSSessionJournal(this,file_name,interval_ms);
+		}
+		catch(IOException e)
+		{
+			GameLog.error("can't open snapshot file",file_name);
+			return;
+		}
+		GameLog.info("sessions restored",journal.restore()+" sessions from "+file_name);
+		journal.start();
 	}
 
 	public void serverStart()
 	{
 		if (IsServerPause())
 		{
-			synchronized(sessions_table)
+			Iterator iter = sessions_table.values().iterator(); 
+			while(iter.hasNext())
 			{
-				Enumeration enmm = sessions_table.elements(); 
-				while(enmm.hasMoreElements())
+				BSGameSession bsg = (BSGameSession) iter.next();
+				if (!bsg.isActive())
 				{
-					BSGameSession bsg = (BSGameSession) enmm.nextElement();
-					if (!bsg.isActive())
-					{
-						bsg.resume();
-					}
+					bsg.resume();
 				}
 			}
 		}
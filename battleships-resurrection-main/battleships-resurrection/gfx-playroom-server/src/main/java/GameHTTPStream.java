@@ -2,8 +2,10 @@
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.locks.*;
+import com.igormaznitsa.battleships.commons.GfxPacketCodec;
 
-public class GameHTTPStream extends Thread {
+public class GameHTTPStream implements Runnable, IGameOutStream {
 
   Socket sckt = null;
   DataInputStream dis = null;
@@ -15,365 +17,300 @@ public class GameHTTPStream extends Thread {
   BSGameSession bsg = null;
   String packet_number = null;
 
-  static final int pckt_header = 0xFFCAFE00;
-
   boolean mode_waitpacket = true;
 
+  // response to a request of persistent connection
+  static final byte[] HTTP11_OK = "HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n".getBytes();
+  // idle persistent connection is closed after the time
+  static final int KEEP_ALIVE_TIMEOUT = 60000;
+  // header of a client asking for persistent connection, HttpURLConnection sends
+  // Connection: keep-alive by itself so the standard header can't be the flag
+  static final String PERSISTENT_HEADER = "persistent";
+  boolean keep_alive = false;
+
   int[] cmnd_buffer = null;
-  int[] tcmnd_buffer = null;
+
+  // guarded by send_lock
+  final GfxPacketCodec out_codec = new GfxPacketCodec(BSMailbox.MAX_BATCH, false);
+  final GfxPacketCodec in_codec = new GfxPacketCodec();
 
   boolean cmndsent = true;
 
+  // not a monitor to avoid pinning of carrier thread when the handler is a virtual thread
+  final ReentrantLock send_lock = new ReentrantLock();
+
   public boolean getWait() {
     return mode_waitpacket;
   }
 
-  public int ChcksumCalculate(int arg0, int arg1, int arg2, int arg3) {
-    return arg0 + arg1 + arg2 + arg3;
+  public boolean sendPacket(int[] packet) {
+    send_lock.lock();
+    try {
+      out_codec.add(packet);
+      out_codec.writeTo(dos);
+      dos.flush();
+    } catch (Exception er) {
+      return onSendError();
+    } finally {
+      send_lock.unlock();
+    }
+    return true;
   }
 
-  public synchronized boolean sendPacket(int[] packet) {
+  public boolean sendPackets(int[][] packets, int count) {
+    send_lock.lock();
     try {
-      synchronized (packet) {
-        dos.writeInt(pckt_header);
-        dos.writeInt(packet[0]);
-        dos.writeInt(packet[1]);
-        dos.writeInt(packet[2]);
-        dos.writeInt(packet[3]);
-        dos.writeInt(ChcksumCalculate(packet[0], packet[1], packet[2], packet[3]));
-        dos.flush();
-      }
-    } catch (Exception er) {
-      System.out.println("Error of sending packet");
-      try {
-        if (sckt != null) {
-          sckt.close();
+      for (int i = 0; i < count; i++) {
+        if (!out_codec.hasRoom()) {
+          out_codec.writeTo(dos);
         }
-      } catch (Exception e) {
+        out_codec.add(packets[i]);
       }
-      sckt = null;
-      return false;
+      out_codec.writeTo(dos);
+      dos.flush();
+    } catch (Exception er) {
+      return onSendError();
+    } finally {
+      send_lock.unlock();
     }
     return true;
   }
 
+  // called under send_lock
+  boolean onSendError() {
+    GameLog.warn("error of sending packet", sessionID, playerID);
+    out_codec.reset();
+    try {
+      if (sckt != null) {
+        sckt.close();
+      }
+    } catch (Exception e) {
+    }
+    sckt = null;
+    return false;
+  }
+
+  public int getPlayerID() {
+    return playerID;
+  }
+
+  public int getSessionID() {
+    return sessionID;
+  }
+
+  public void setSessionID(int sessionID) {
+    this.sessionID = sessionID;
+  }
+
   public void setWait(boolean mode) {
     this.mode_waitpacket = mode;
   }
 
-  public void run() {
-    String ds = null;
+  // Reads request line and headers of the next request, returns false if there is no valid request
+  boolean readRequest() throws IOException {
+    command = null;
+    packet_number = null;
+    playerID = 0;
+    sessionID = -1;
+    bsg = null;
 
+    String ds = dis.readLine();
+    if (ds == null) {
+      return false;
+    }
+
+    //System.out.println("HTTP Req: "+ds);
+    // Decoding command
+    StringTokenizer st = new StringTokenizer(ds, " ");
+    String version;
     try {
+      st.nextToken();
+      command = st.nextToken();
+      version = st.nextToken().trim();
+    } catch (NoSuchElementException e) {
+      GameLog.warn("wrong request line", ds);
+      return false;
+    }
+
+    command = command.toLowerCase().trim();
+    // persistent only on explicit request of the client, one-shot clients send HTTP/1.1 too
+    keep_alive = false;
+
+    String key = null;
+    String value = null;
+
+    while (true) {
       ds = dis.readLine();
       if (ds == null) {
-        return;
+        return false;
       }
 
       //System.out.println("HTTP Req: "+ds);
-      // Decoding command
-      StringTokenizer st = new StringTokenizer(ds, " ");
-      try {
-        st.nextToken();
-        command = st.nextToken();
-        st.nextToken();
-      } catch (NoSuchElementException e) {
-        System.out.println("-=Error command=-");
-        return;
+      if (ds.length() == 0) {
+        break;
       }
-
-      command = command.toLowerCase().trim();
-
-      String key = null;
-      String value = null;
-
-      while (true) {
-        ds = dis.readLine();
-        if (ds == null) {
-          return;
-        }
-
-        //System.out.println("HTTP Req: "+ds);
-        if (ds.length() == 0) {
-          break;
-        }
-        st = new StringTokenizer(ds, ":");
-        try {
-          key = st.nextToken().trim();
-          value = st.nextToken().trim();
-          if (key.equalsIgnoreCase("playerID")) {
-            try {
-              playerID = Integer.parseInt(value);
-            } catch (NumberFormatException e) {
-              System.out.println("Error of value in playerID field [" + value + "]");
-              return;
-            }
-          } else if (key.equalsIgnoreCase("pn")) {
-            packet_number = value;
-          } else if (key.equalsIgnoreCase("sessionID")) {
-            try {
-              sessionID = Integer.parseInt(value);
-            } catch (NumberFormatException e) {
-              System.out.println("Error of value in sessionID field [" + value + "]");
-              return;
-            }
+      st = new StringTokenizer(ds, ":");
+      try {
+        key = st.nextToken().trim();
+        value = st.nextToken().trim();
+        if (key.equalsIgnoreCase("playerID")) {
+          try {
+            playerID = Integer.parseInt(value);
+          } catch (NumberFormatException e) {
+            GameLog.warn("wrong playerID field", value);
+            return false;
+          }
+        } else if (key.equalsIgnoreCase("pn")) {
+          packet_number = value;
+        } else if (key.equalsIgnoreCase("sessionID")) {
+          try {
+            sessionID = Integer.parseInt(value);
+          } catch (NumberFormatException e) {
+            GameLog.warn("wrong sessionID field", value);
+            return false;
+          }
+        } else if (key.equalsIgnoreCase(PERSISTENT_HEADER)) {
+          keep_alive = value.equals("1") && version.equalsIgnoreCase("HTTP/1.1");
+        } else if (key.equalsIgnoreCase("Connection")) {
+          if (value.equalsIgnoreCase("close")) {
+            keep_alive = false;
           }
-        } catch (NoSuchElementException e) {
-          System.out.println("Error string in query [" + ds + "]");
-          return;
         }
+      } catch (NoSuchElementException e) {
+        GameLog.warn("wrong header", ds);
+        return false;
       }
+    }
+    return true;
+  }
 
-      dos.write("HTTP/1.0 200 OK\r\n\r\n".getBytes());
-      dos.flush();
-
-      if (command.endsWith("/test")) {
-        return;
+  // Reads packet of /getinstream and passes it to the session, returns false if the connection
+  // must be closed. A one-shot connection is closed without reading of a rejected packet, a
+  // persistent one reads and drops it to get the next request.
+  boolean readInPacket() throws IOException {
+    //System.out.println("Incomming packet from "+playerID); 
+    //if (packet_number!=null) System.out.println("pn: "+packet_number);  
+    boolean remote = parent.isRemoteSession(sessionID);
+    if (!remote) {
+      bsg = parent.checkInStream(playerID, sessionID, packet_number);
+      if (bsg == null && !keep_alive) {
+        return false;
       }
+    }
 
-      bsg = parent.getSession(sessionID);
+    // Reading of command 
+    int result;
+    do {
+      result = in_codec.decode(dis.readInt());
+    } while (result == GfxPacketCodec.DECODE_NEED_MORE);
+    if (result == GfxPacketCodec.DECODE_WRONG_CHECKSUM) {
+      GameLog.warn("wrong checksum", sessionID, playerID);
+      parent.metrics.onChecksumFailure();
+      return false;
+    }
 
-      if (command.endsWith("/getinstream")) {
-        //System.out.println("Incomming packet from "+playerID); 
-        //if (packet_number!=null) System.out.println("pn: "+packet_number);  
-        if ((sessionID < 0) || (playerID == 0) || (packet_number == null)) {
-          return;
-        }
+    int[] packet = in_codec.getPacket();
+    cmnd_buffer[0] = packet[0];
+    cmnd_buffer[1] = packet[1];
+    cmnd_buffer[2] = packet[2];
+    cmnd_buffer[3] = packet[3];
 
-        if (!parent.checkUserValidation(playerID)) {
-          return;
-        }
+    //System.out.println("["+cmnd_buffer[0]+"]["+cmnd_buffer[1]+"]["+cmnd_buffer[2]+"]["+cmnd_buffer[3]+"]");
+    if (keep_alive) {
+      // the client can send the next request before the packet is processed
+      dos.write(HTTP11_OK);
+      dos.flush();
+    }
 
-        if (bsg == null) {
-          GameHTTPStream gstr = (GameHTTPStream) parent.players_table.get(new Integer(playerID));
-          if (gstr != null) {
-            gstr.sendPacket(new int[]{BSGameSession.GC_SESSIONREMOVE, 0, 0, 0});
-            return;
-          }
-        }
+    if (remote) {
+      parent.forwardInPacket(playerID, sessionID, packet_number, cmnd_buffer);
+    } else if (bsg != null) {
+      parent.processInPacket(bsg, playerID, sessionID, packet_number, cmnd_buffer);
+    }
+    return true;
+  }
 
-        if (!bsg.checkValidationUser(playerID)) {
+  public void run() {
+    try {
+      while (readRequest()) {
+        if (command.endsWith("/metrics")) {
+          dos.write(parent.metricsResponse());
+          dos.flush();
           return;
         }
 
-        long pck = -1;
-        try {
-          pck = Long.parseLong(packet_number);
-        } catch (NumberFormatException ee) {
-          System.out.println("Error format of \"PN\" field [" + packet_number + "]");
-        }
-
-        // Reading of command 
-        while (true) {
-          int cmm = dis.readInt();
-          if (cmm == pckt_header) {
-            break;
-          }
-        }
-
-        try {
-          synchronized (tcmnd_buffer) {
-            tcmnd_buffer[0] = dis.readInt();
-            tcmnd_buffer[1] = dis.readInt();
-            tcmnd_buffer[2] = dis.readInt();
-            tcmnd_buffer[3] = dis.readInt();
-            tcmnd_buffer[4] = dis.readInt();
-            if (ChcksumCalculate(tcmnd_buffer[0], tcmnd_buffer[1], tcmnd_buffer[2], tcmnd_buffer[3]) != tcmnd_buffer[4]) {
-              System.out.println("Error checksum!");
+        if (keep_alive && command.endsWith("/getinstream")) {
+          // persistent connection, requests can be pipelined
+          sckt.setSoTimeout(KEEP_ALIVE_TIMEOUT);
+          try {
+            if (!readInPacket()) {
               return;
             }
-
-            cmnd_buffer[0] = tcmnd_buffer[0];
-            cmnd_buffer[1] = tcmnd_buffer[1];
-            cmnd_buffer[2] = tcmnd_buffer[2];
-            cmnd_buffer[3] = tcmnd_buffer[3];
+          } catch (EOFException ee) {
+            return;
           }
-
-          //System.out.println("["+cmnd_buffer[0]+"]["+cmnd_buffer[1]+"]["+cmnd_buffer[2]+"]["+cmnd_buffer[3]+"]");
-        } catch (IOException ee) {
-          return;
+          continue;
         }
 
-        if (!bsg.checkValidationPacketNumberForPlayer(playerID, pck)) {
+        dos.write("HTTP/1.0 200 OK\r\n\r\n".getBytes());
+        dos.flush();
+
+        if (command.endsWith("/test")) {
           return;
         }
 
-        switch (cmnd_buffer[0]) {
-          case BSGameSession.GC_LOCKPACKET: {
-            if (playerID == 0) {
-              break;
-            }
-            bsg.setPlayerWaitMode(playerID, false);
-          }
-          break;
-          case BSGameSession.GC_WAITPACKET: {
-            if (playerID == 0) {
-              break;
-            }
-            bsg.setPlayerWaitMode(playerID, true);
-          }
-          break;
-          case BSGameSession.GC_EXIT: {
-            if (!parent.dyn_playerID) {
-              parent.removeSessionFromUser(playerID);
-            }
-            bsg.sendDataPacket(playerID, cmnd_buffer, sessionID, true);
-            bsg.close();
-            return;
-          }
-          default: {
-            synchronized (cmnd_buffer) {
-              if (!bsg.sendDataPacket(playerID, cmnd_buffer, sessionID, true)) {
-                bsg.close();
-                return;
-              }
-            }
+        if (command.endsWith("/getinstream")) {
+          try {
+            readInPacket();
+          } catch (IOException ee) {
           }
-          break;
-        }
-      } else if (command.endsWith("/getoutstream")) {
-        int arg0 = -1;
-        int arg1 = -1;
-        int arg2 = -1;
-        int arg3 = -1;
-
-        if (sessionID < 0) {
-          // server in pause?
-          if (parent.IsServerPause()) {
-            try {
-              dos.writeInt(pckt_header);
-              this.dos.writeInt(BSGameSession.GC_SERVERPAUSE);
-              this.dos.writeInt(0);
-              this.dos.writeInt(0);
-              this.dos.writeInt(0);
-              this.dos.writeInt(ChcksumCalculate(BSGameSession.GC_SERVERPAUSE, 0, 0, 0));
-              this.dos.flush();
-              return;
-            } catch (IOException ee) {
-            }
+          return;
+        } else if (command.endsWith("/getoutstream")) {
+          if (!parent.attachOutStream(this)) {
             return;
           }
 
-          //is the first query and required SessionID
-          bsg = parent.getWaitOrEmptySesssion();
-          if (bsg == null) {
+          while (true) {
             try {
-              dos.writeInt(pckt_header);
-              this.dos.writeInt(BSGameSession.GC_SERVEROVERLADEN);
-              this.dos.writeInt(0);
-              this.dos.writeInt(0);
-              this.dos.writeInt(0);
-              this.dos.writeInt(ChcksumCalculate(BSGameSession.GC_SERVEROVERLADEN, 0, 0, 0));
-              this.dos.flush();
-              return;
-            } catch (IOException ee) {
-            }
-          } else {
-            if (bsg.isEmpty()) {
-              if (!parent.dyn_playerID) {
-                parent.setSessionToUser(playerID, bsg);
+              int ttt = dis.read();
+              if (ttt < 0) {
+                break;
               }
-              bsg.activate(playerID);
-              this.dos.writeInt(pckt_header);
-              this.dos.writeInt(BSGameSession.GC_NEWSESSION);
-              arg0 = BSGameSession.GC_NEWSESSION;
-              this.dos.writeInt(bsg.sessionID);
-              arg1 = bsg.sessionID;
-              this.sessionID = bsg.sessionID;
-              if (bsg.player1IsFirstMoving) {
-                this.dos.writeInt(0xFFFFFFFF);
-                arg2 = 0xFFFFFFFF;
-              } else {
-                this.dos.writeInt(0);
-                arg2 = 0;
-              }
-            } else {
-              if (!bsg.join(playerID, sessionID)) {
-                if (!parent.dyn_playerID) {
-                  parent.setSessionToUser(playerID, bsg);
-                }
-                bsg.activate(playerID);
-                this.dos.writeInt(pckt_header);
-                this.dos.writeInt(BSGameSession.GC_NEWSESSION);
-                arg0 = BSGameSession.GC_NEWSESSION;
-                this.dos.writeInt(bsg.sessionID);
-                arg1 = bsg.sessionID;
-                this.sessionID = bsg.sessionID;
-                if (bsg.player1IsFirstMoving) {
-                  this.dos.writeInt(-1);
-                  arg2 = -1;
-                } else {
-                  this.dos.writeInt(0);
-                  arg2 = 0;
-                }
-              } else {
-                if (!parent.dyn_playerID) {
-                  parent.setSessionToUser(playerID, bsg);
-                }
-                this.dos.writeInt(pckt_header);
-                this.dos.writeInt(BSGameSession.GC_JOINTOSESSION);
-                arg0 = BSGameSession.GC_JOINTOSESSION;
-                this.dos.writeInt(bsg.sessionID);
-                arg1 = bsg.sessionID;
-                this.sessionID = bsg.sessionID;
-                if (!bsg.player1IsFirstMoving) {
-                  this.dos.writeInt(-1);
-                  arg2 = -1;
-                } else {
-                  this.dos.writeInt(0);
-                  arg2 = 0;
+            } catch (IOException en) {
+              try {
+                if (dis != null) {
+                  dis.close();
                 }
+              } catch (IOException ee) {
               }
+              dis = null;
+              break;
             }
-
-            this.dos.writeInt(0);
-            arg3 = 0;
-            this.dos.writeInt(ChcksumCalculate(arg0, arg1, arg2, arg3));
-            this.dos.flush();
           }
-        }
-
-        parent.registerPlayerOutStream(this);
-        System.out.println("Registration of user stream for player " + playerID);
-        while (true) {
+          parent.detachOutStream(this);
           try {
-            int ttt = dis.read();
-            if (ttt < 0) {
-              break;
+            if (dos != null) {
+              dos.close();
             }
-          } catch (IOException en) {
-            try {
-              if (dis != null) {
-                dis.close();
-              }
-            } catch (IOException ee) {
+            if (sckt != null) {
+              sckt.close();
             }
-            dis = null;
-            break;
-          }
-        }
-        parent.removePlayerOutStream(this);
-        bsg.setTimeLostConnection(playerID);
-        System.out.println("Removed user stream for player " + playerID);
-        try {
-          if (dos != null) {
-            dos.close();
-          }
-          if (sckt != null) {
-            sckt.close();
+          } catch (IOException ee) {
           }
-        } catch (IOException ee) {
-        }
-        dos = null;
-        sckt = null;
+          dos = null;
+          sckt = null;
 
-        System.out.println("Player " + playerID + " connection is lost");
-      } else {
-        System.out.println("Error command [" + command + "]");
-        return;
+          GameLog.info("connection lost", sessionID, playerID);
+          return;
+        } else {
+          GameLog.warn("unknown command", command);
+          return;
+        }
       }
+    } catch (SocketTimeoutException ee) {
+      // idle persistent connection
     } catch (IOException ee) {
-      System.out.println(">>>IOException !!!");
+      GameLog.warn("connection error", sessionID, playerID);
     } finally {
       try {
         if (dis != null) {
@@ -392,7 +329,6 @@ public class GameHTTPStream extends Thread {
 
   public GameHTTPStream(Socket client, GameHTTPServer parent) {
     cmnd_buffer = new int[4];
-    tcmnd_buffer = new int[5];
 
     sckt = client;
     this.parent = parent;
@@ -400,8 +336,7 @@ public class GameHTTPStream extends Thread {
       dis = new DataInputStream(sckt.getInputStream());
       dos = new DataOutputStream(sckt.getOutputStream());
     } catch (IOException ee) {
-      System.out.println("!!!IOException in Thread start");
+      GameLog.warn("can't open streams of connection");
     }
-    this.start();
   }
 }
@@ -0,0 +1,450 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Asynchronous log of the server. Records are put into a bounded ring by any thread without
+ * locks and written by one thread in logfmt, for instance
+ * <pre>
+ * time=2021-04-10T12:00:00.123Z level=INFO event="session closed" sessionId=3
+ * </pre>
+ * Events are constant strings and fields are primitives, so a disabled level costs one
+ * comparison and an enabled one doesn't allocate. If the ring is full the record is dropped and
+ * counted, the caller never waits for the disk. Written into stdout or into files rotated by size.
+ */
+public final class GameLog {
+
+  public static final int DEBUG = 0;
+  public static final int INFO = 1;
+  public static final int WARN = 2;
+  public static final int ERROR = 3;
+  public static final int OFF = 4;
+
+  // value of absent field
+  public static final int NONE = Integer.MIN_VALUE;
+
+  static final String[] LEVEL_NAMES = {"DEBUG", "INFO", "WARN", "ERROR"};
+
+  static final int CAPACITY = 8192;
+  static final int MASK = CAPACITY - 1;
+  // an idle writer is unparked by the next record, the timeout only reports dropped records
+  static final long IDLE_PARK_NS = 1000000000L;
+
+  static volatile int min_level = INFO;
+
+  // slot i is free for position p when sequences[i] == p and holds record when it is p + 1
+  static final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+  static final AtomicLong tail = new AtomicLong();
+  static final long[] times = new long[CAPACITY];
+  static final int[] levels = new int[CAPACITY];
+  static final String[] events = new String[CAPACITY];
+  static final int[] sessions = new int[CAPACITY];
+  static final int[] players = new int[CAPACITY];
+  static final int[] commands = new int[CAPACITY];
+  static final long[] values = new long[CAPACITY];
+  static final String[] details = new String[CAPACITY];
+  static final AtomicLong dropped = new AtomicLong();
+
+  static volatile Writer writer = null;
+  // next position read by the writer, touched only by the current writer thread
+  static long head = 0;
+
+  static {
+    for (int i = 0; i < CAPACITY; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  private GameLog() {
+  }
+
+  /**
+   * Sets min level and target of the log, must be called before the server starts.
+   *
+   * @param level     min level of written records
+   * @param file_name log file, null for stdout
+   * @param max_bytes size of file to rotate it
+   * @param max_files number of kept rotated files
+   */
+  public static synchronized void configure(int level, String file_name, long max_bytes, int max_files) throws IOException {
+    min_level = level;
+    if (writer != null) {
+      writer.stopWriter();
+    }
+    writer = new Writer(file_name, max_bytes, max_files);
+    writer.start();
+  }
+
+  public static int parseLevel(String name) {
+    for (int i = 0; i < LEVEL_NAMES.length; i++) {
+      if (LEVEL_NAMES[i].equalsIgnoreCase(name)) {
+        return i;
+      }
+    }
+    return "off".equalsIgnoreCase(name) ? OFF : INFO;
+  }
+
+  public static boolean isEnabled(int level) {
+    return level >= min_level;
+  }
+
+  public static void debug(String event, int sessionID, int playerID, int command) {
+    if (DEBUG >= min_level) {
+      put(DEBUG, event, sessionID, playerID, command, NONE, null);
+    }
+  }
+
+  public static void info(String event) {
+    if (INFO >= min_level) {
+      put(INFO, event, NONE, NONE, NONE, NONE, null);
+    }
+  }
+
+  public static void info(String event, int sessionID, int playerID) {
+    if (INFO >= min_level) {
+      put(INFO, event, sessionID, playerID, NONE, NONE, null);
+    }
+  }
+
+  public static void info(String event, String detail) {
+    if (INFO >= min_level) {
+      put(INFO, event, NONE, NONE, NONE, NONE, detail);
+    }
+  }
+
+  public static void warn(String event) {
+    if (WARN >= min_level) {
+      put(WARN, event, NONE, NONE, NONE, NONE, null);
+    }
+  }
+
+  public static void warn(String event, int sessionID, int playerID) {
+    if (WARN >= min_level) {
+      put(WARN, event, sessionID, playerID, NONE, NONE, null);
+    }
+  }
+
+  public static void warn(String event, int sessionID, int playerID, long value) {
+    if (WARN >= min_level) {
+      put(WARN, event, sessionID, playerID, NONE, value, null);
+    }
+  }
+
+  public static void warn(String event, String detail) {
+    if (WARN >= min_level) {
+      put(WARN, event, NONE, NONE, NONE, NONE, detail);
+    }
+  }
+
+  public static void error(String event, String detail) {
+    if (ERROR >= min_level) {
+      put(ERROR, event, NONE, NONE, NONE, NONE, detail);
+    }
+  }
+
+  public static void log(int level, String event, int sessionID, int playerID, int command, long value, String detail) {
+    if (level < DEBUG || level > ERROR) {
+      // not a level of record, counted as dropped
+      dropped.incrementAndGet();
+      return;
+    }
+    if (level >= min_level) {
+      put(level, event, sessionID, playerID, command, value, detail);
+    }
+  }
+
+  static void put(int level, String event, int sessionID, int playerID, int command, long value, String detail) {
+    if (writer == null) {
+      startDefault();
+    }
+    long pos = tail.get();
+    int index;
+    while (true) {
+      index = (int) pos & MASK;
+      long diff = sequences.get(index) - pos;
+      if (diff == 0) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          break;
+        }
+        pos = tail.get();
+      } else if (diff < 0) {
+        dropped.incrementAndGet();
+        return;
+      } else {
+        pos = tail.get();
+      }
+    }
+    times[index] = System.currentTimeMillis();
+    levels[index] = level;
+    events[index] = event;
+    sessions[index] = sessionID;
+    players[index] = playerID;
+    commands[index] = command;
+    values[index] = value;
+    details[index] = detail;
+    // publishes the fields to the writer
+    sequences.set(index, pos + 1);
+    Writer current = writer;
+    if (current != null && current.idle) {
+      LockSupport.unpark(current);
+    }
+  }
+
+  static synchronized void startDefault() {
+    if (writer == null) {
+      try {
+        writer = new Writer(null, 0, 0);
+        writer.start();
+      } catch (IOException e) {
+        // stdout can't fail to open
+      }
+    }
+  }
+
+  /**
+   * The only consumer of the ring.
+   */
+  static final class Writer extends Thread {
+    final String file_name;
+    final long max_bytes;
+    final int max_files;
+    final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    final SimpleDateFormat second_format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.");
+    final byte[] digits = new byte[20];
+
+    FileChannel channel;
+    long written = 0;
+    long cached_second = -1;
+    byte[] cached_prefix = null;
+    volatile boolean work_flag = true;
+    // set before the writer parks for empty ring, checked by put()
+    volatile boolean idle = false;
+
+    Writer(String file_name, long max_bytes, int max_files) throws IOException {
+      super("log-writer");
+      setDaemon(true);
+      this.file_name = file_name;
+      this.max_bytes = max_bytes;
+      this.max_files = max_files;
+      second_format.setTimeZone(TimeZone.getTimeZone("UTC"));
+      channel = open();
+      Runtime.getRuntime().addShutdownHook(new Thread("log-flush") {
+        public void run() {
+          stopWriter();
+        }
+      });
+    }
+
+    FileChannel open() throws IOException {
+      if (file_name == null) {
+        return new FileOutputStream(FileDescriptor.out).getChannel();
+      }
+      FileChannel result = FileChannel.open(Paths.get(file_name), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+      written = result.size();
+      return result;
+    }
+
+    void stopWriter() {
+      if (!work_flag) {
+        return;
+      }
+      work_flag = false;
+      LockSupport.unpark(this);
+      try {
+        join(1000);
+      } catch (InterruptedException e) {
+      }
+    }
+
+    public void run() {
+      while (true) {
+        boolean stopping = !work_flag;
+        int count = drain();
+        if (count == 0) {
+          flush();
+          if (stopping) {
+            break;
+          }
+          idle = true;
+          // a record published before the flag was seen by put() must not wait for the timeout
+          if (sequences.get((int) head & MASK) != head + 1) {
+            LockSupport.parkNanos(IDLE_PARK_NS);
+          }
+          idle = false;
+        }
+      }
+      try {
+        if (file_name != null) {
+          channel.close();
+        }
+      } catch (IOException e) {
+      }
+    }
+
+    int drain() {
+      int count = 0;
+      while (true) {
+        int index = (int) head & MASK;
+        if (sequences.get(index) != head + 1) {
+          break;
+        }
+        ensureRoom();
+        int start = buffer.position();
+        try {
+          format(index);
+        } catch (Throwable e) {
+          // only the broken record is lost, counted as dropped
+          buffer.position(start);
+          dropped.incrementAndGet();
+        }
+        events[index] = null;
+        details[index] = null;
+        sequences.set(index, head + CAPACITY);
+        head++;
+        count++;
+      }
+      long lost = dropped.getAndSet(0);
+      if (lost > 0) {
+        ensureRoom();
+        ascii("time=");
+        time(System.currentTimeMillis());
+        ascii(" level=WARN event=\"log records dropped\" value=");
+        number(lost);
+        buffer.put((byte) '\n');
+      }
+      return count;
+    }
+
+    void format(int index) {
+      ascii("time=");
+      time(times[index]);
+      ascii(" level=");
+      ascii(LEVEL_NAMES[levels[index]]);
+      ascii(" event=");
+      quoted(events[index]);
+      if (sessions[index] != NONE) {
+        ascii(" sessionId=");
+        number(sessions[index]);
+      }
+      if (players[index] != NONE) {
+        ascii(" playerId=");
+        number(players[index]);
+      }
+      if (commands[index] != NONE) {
+        ascii(" command=");
+        number(commands[index]);
+      }
+      if (values[index] != NONE) {
+        ascii(" value=");
+        number(values[index]);
+      }
+      if (details[index] != null) {
+        ascii(" detail=");
+        quoted(details[index]);
+      }
+      buffer.put((byte) '\n');
+    }
+
+    // a record is limited by 1 KB, longer details are cut
+    void ensureRoom() {
+      if (buffer.remaining() < 1024) {
+        flush();
+      }
+    }
+
+    void time(long millis) {
+      long second = millis / 1000;
+      if (second != cached_second) {
+        cached_second = second;
+        cached_prefix = second_format.format(new Date(second * 1000)).getBytes();
+      }
+      buffer.put(cached_prefix);
+      int ms = (int) (millis % 1000);
+      buffer.put((byte) ('0' + ms / 100));
+      buffer.put((byte) ('0' + ms / 10 % 10));
+      buffer.put((byte) ('0' + ms % 10));
+      buffer.put((byte) 'Z');
+    }
+
+    void ascii(String text) {
+      for (int i = 0; i < text.length(); i++) {
+        buffer.put((byte) text.charAt(i));
+      }
+    }
+
+    void quoted(String text) {
+      buffer.put((byte) '"');
+      int length = Math.min(text.length(), 256);
+      for (int i = 0; i < length; i++) {
+        char chr = text.charAt(i);
+        if (chr == '"' || chr == '\\') {
+          buffer.put((byte) '\\');
+          buffer.put((byte) chr);
+        } else if (chr < ' ' || chr > '~') {
+          buffer.put((byte) '?');
+        } else {
+          buffer.put((byte) chr);
+        }
+      }
+      buffer.put((byte) '"');
+    }
+
+    void number(long value) {
+      if (value < 0) {
+        buffer.put((byte) '-');
+        if (value == Long.MIN_VALUE) {
+          ascii("9223372036854775808");
+          return;
+        }
+        value = -value;
+      }
+      int pos = digits.length;
+      do {
+        digits[--pos] = (byte) ('0' + value % 10);
+        value /= 10;
+      } while (value != 0);
+      buffer.put(digits, pos, digits.length - pos);
+    }
+
+    void flush() {
+      if (buffer.position() == 0) {
+        return;
+      }
+      buffer.flip();
+      try {
+        while (buffer.hasRemaining()) {
+          written += channel.write(buffer);
+        }
+        if (file_name != null && written >= max_bytes) {
+          rotate();
+        }
+      } catch (IOException e) {
+        // nowhere to report, the records are lost
+      } finally {
+        buffer.clear();
+      }
+    }
+
+    void rotate() throws IOException {
+      channel.close();
+      for (int i = max_files - 1; i > 0; i--) {
+        Path from = Paths.get(file_name + "." + i);
+        if (Files.exists(from)) {
+          Files.move(from, Paths.get(file_name + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+      if (max_files > 0) {
+        Files.move(Paths.get(file_name), Paths.get(file_name + ".1"), StandardCopyOption.REPLACE_EXISTING);
+      } else {
+        Files.delete(Paths.get(file_name));
+      }
+      written = 0;
+      channel = open();
+    }
+  }
+}
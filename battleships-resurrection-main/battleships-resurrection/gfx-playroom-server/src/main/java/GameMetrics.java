@@ -0,0 +1,120 @@
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Counters and histograms of the server, rendered for /metrics in Prometheus text format.
+ * Recording is lock-free and doesn't allocate, gauges of sessions are computed on request.
+ */
+public class GameMetrics {
+
+  static final String[] COMMAND_NAMES = {
+      "unknown", "GC_NONE", "GC_JOINTOSESSION", "GC_NEWSESSION", "GC_EXIT", "GC_OPPONENTLOST",
+      "GC_SESSIONREMOVE", "GC_GAMEMOVE", "GC_GAMERESULT", "GC_OPPONENTJOIN", "GC_PAUSE",
+      "GC_WAITMOVING", "GC_OK", "GC_WAITPACKET", "GC_LOCKPACKET", "GC_SERVEROVERLADEN", "GC_GAME",
+      "GC_SERVERPAUSE", "GC_SERVERSTART"
+  };
+
+  // upper bounds of relay latency buckets in microseconds, the last one is the delivery timeout
+  static final long[] LATENCY_BOUNDS_US = {
+      50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000,
+      1000000, 2500000, 5000000, 10000000
+  };
+  static final String[] LATENCY_LABELS = new String[LATENCY_BOUNDS_US.length];
+
+  static {
+    for (int i = 0; i < LATENCY_BOUNDS_US.length; i++) {
+      LATENCY_LABELS[i] = java.math.BigDecimal.valueOf(LATENCY_BOUNDS_US[i], 6).stripTrailingZeros().toPlainString();
+    }
+  }
+
+  final LongAdder accepted_connections = new LongAdder();
+  final LongAdder checksum_failures = new LongAdder();
+  final LongAdder lost_packet_gaps = new LongAdder();
+  final LongAdder lost_packets = new LongAdder();
+  final LongAdder send_retries = new LongAdder();
+  final AtomicLongArray in_packets = new AtomicLongArray(COMMAND_NAMES.length);
+
+  // not cumulative, the last cell counts values above all bounds
+  final AtomicLongArray latency_buckets = new AtomicLongArray(LATENCY_BOUNDS_US.length + 1);
+  final LongAdder latency_sum_ns = new LongAdder();
+
+  public void onAccept() {
+    accepted_connections.increment();
+  }
+
+  public void onChecksumFailure() {
+    checksum_failures.increment();
+  }
+
+  public void onInPacket(int command) {
+    in_packets.incrementAndGet(command > 0 && command < COMMAND_NAMES.length ? command : 0);
+  }
+
+  public void onLostPackets(long gap) {
+    lost_packet_gaps.increment();
+    lost_packets.add(gap);
+  }
+
+  public void onSendRetry() {
+    send_retries.increment();
+  }
+
+  public void onRelay(long latency_ns) {
+    long latency_us = latency_ns / 1000;
+    int bucket = 0;
+    while (bucket < LATENCY_BOUNDS_US.length && latency_us > LATENCY_BOUNDS_US[bucket]) {
+      bucket++;
+    }
+    latency_buckets.incrementAndGet(bucket);
+    latency_sum_ns.add(latency_ns);
+  }
+
+  public String render(GameHTTPServer server) {
+    int active = 0;
+    int waiting = 0;
+    for (Iterator<BSGameSession> iter = server.sessions_table.values().iterator(); iter.hasNext(); ) {
+      BSGameSession bsg = iter.next();
+      if (bsg.isActive()) {
+        active++;
+      } else if (bsg.isWait()) {
+        waiting++;
+      }
+    }
+
+    StringBuilder out = new StringBuilder(4096);
+    counter(out, "bss_connections_accepted_total", "Accepted HTTP connections.", accepted_connections.sum());
+
+    out.append("# HELP bss_sessions Sessions by state.\n# TYPE bss_sessions gauge\n");
+    out.append("bss_sessions{state=\"active\"} ").append(active).append('\n');
+    out.append("bss_sessions{state=\"waiting\"} ").append(waiting).append('\n');
+
+    out.append("# HELP bss_in_packets_total Packets received by /getinstream.\n# TYPE bss_in_packets_total counter\n");
+    for (int i = 0; i < COMMAND_NAMES.length; i++) {
+      out.append("bss_in_packets_total{command=\"").append(COMMAND_NAMES[i]).append("\"} ").append(in_packets.get(i)).append('\n');
+    }
+
+    counter(out, "bss_checksum_failures_total", "Packets dropped because of wrong checksum.", checksum_failures.sum());
+    counter(out, "bss_lost_packet_gaps_total", "Gaps in packet numbers of players.", lost_packet_gaps.sum());
+    counter(out, "bss_lost_packets_total", "Packets missed in the gaps.", lost_packets.sum());
+    counter(out, "bss_send_retries_total", "Sends refused by out streams, the packets stay queued.", send_retries.sum());
+
+    out.append("# HELP bss_relay_latency_seconds Time from queuing of packet to writing into out stream of the receiver.\n");
+    out.append("# TYPE bss_relay_latency_seconds histogram\n");
+    long cumulative = 0;
+    for (int i = 0; i < LATENCY_BOUNDS_US.length; i++) {
+      cumulative += latency_buckets.get(i);
+      out.append("bss_relay_latency_seconds_bucket{le=\"").append(LATENCY_LABELS[i]).append("\"} ").append(cumulative).append('\n');
+    }
+    cumulative += latency_buckets.get(LATENCY_BOUNDS_US.length);
+    out.append("bss_relay_latency_seconds_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+    out.append("bss_relay_latency_seconds_sum ").append(latency_sum_ns.sum() / 1e9).append('\n');
+    out.append("bss_relay_latency_seconds_count ").append(cumulative).append('\n');
+    return out.toString();
+  }
+
+  static void counter(StringBuilder out, String name, String help, long value) {
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(name).append(" counter\n");
+    out.append(name).append(' ').append(value).append('\n');
+  }
+}
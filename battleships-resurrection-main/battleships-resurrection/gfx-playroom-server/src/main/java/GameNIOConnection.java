@@ -0,0 +1,508 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import com.igormaznitsa.battleships.commons.GfxPacketCodec;
+
+/**
+ * Connection served by {@link GameNIOFront}. Parses the HTTP preamble and the framed packet
+ * incrementally, all methods except {@link #sendPacket(int[])} and {@link #sendPackets(int[][], int)}
+ * are called from the selector thread.
+ */
+public class GameNIOConnection implements IGameOutStream {
+
+  static final int STATE_REQUEST = 0;
+  static final int STATE_HEADERS = 1;
+  static final int STATE_INPACKET = 2;
+  static final int STATE_OUTSTREAM = 3;
+  static final int STATE_CLOSING = 4;
+
+  static final int MAX_LINE_LENGTH = 4096;
+  static final int MAX_PENDING_PACKETS = 64;
+  // max number of packets gathered into one write
+  static final int OUT_BATCH = 16;
+
+  static final byte[] HTTP_OK = "HTTP/1.0 200 OK\r\n\r\n".getBytes();
+  // response to a request of persistent connection
+  static final byte[] HTTP11_OK = "HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n".getBytes();
+  // max number of responses to pipelined requests gathered into one write
+  static final int RESPONSE_BATCH = 32;
+  static final byte[] HTTP11_OK_BATCH = new byte[HTTP11_OK.length * RESPONSE_BATCH];
+
+  static {
+    for (int i = 0; i < RESPONSE_BATCH; i++) {
+      System.arraycopy(HTTP11_OK, 0, HTTP11_OK_BATCH, i * HTTP11_OK.length, HTTP11_OK.length);
+    }
+  }
+
+  SocketChannel channel = null;
+  SelectionKey key = null;
+  GameNIOFront front = null;
+
+  ByteBuffer in_buffer = ByteBuffer.allocate(MAX_LINE_LENGTH);
+  // packets are queued as is, callers don't change arrays after sending
+  final ConcurrentLinkedQueue<int[]> out_queue = new ConcurrentLinkedQueue<int[]>();
+  final AtomicInteger pending = new AtomicInteger();
+  ByteBuffer out_preamble = null;
+  final GfxPacketCodec out_codec = new GfxPacketCodec(OUT_BATCH, true);
+  ByteBuffer out_batch = null;
+
+  int state = STATE_REQUEST;
+  boolean close_after_write = false;
+  volatile boolean close_requested = false;
+  volatile boolean closed = false;
+  // a packet was refused, the session mailbox waits for the queue to be written out
+  volatile boolean send_refused = false;
+
+  String command = null;
+  volatile int playerID = 0;
+  volatile int sessionID = -1;
+  String packet_number = null;
+  BSGameSession bsg = null;
+  // /getinstream of session owned by another node, the packet is forwarded
+  boolean remote_session = false;
+  // HTTP/1.1 request with the persistent header, /getinstream requests are served until the
+  // client closes or the connection is idle for GameHTTPStream.KEEP_ALIVE_TIMEOUT
+  boolean keep_alive = false;
+  boolean http11 = false;
+  // time of the last read, checked by the front for idle persistent connections
+  long last_read = System.currentTimeMillis();
+  // responses to persistent requests which are not written yet
+  int responses_due = 0;
+
+  // packets of a persistent connection are processed by workers in order of arrival
+  final ConcurrentLinkedQueue<Runnable> in_tasks = new ConcurrentLinkedQueue<Runnable>();
+  final AtomicInteger in_tasks_wip = new AtomicInteger();
+
+  final GfxPacketCodec in_codec = new GfxPacketCodec();
+
+  // guarded by this
+  boolean attached = false;
+  boolean lost = false;
+
+  public GameNIOConnection(SocketChannel channel, SelectionKey key, GameNIOFront front) {
+    this.channel = channel;
+    this.key = key;
+    this.front = front;
+  }
+
+  public int getPlayerID() {
+    return playerID;
+  }
+
+  public int getSessionID() {
+    return sessionID;
+  }
+
+  public void setSessionID(int sessionID) {
+    this.sessionID = sessionID;
+  }
+
+  public boolean sendPacket(int[] packet) {
+    if (!reserve(1)) {
+      return false;
+    }
+    out_queue.offer(packet);
+    front.requestWrite(this);
+    return true;
+  }
+
+  public boolean sendPackets(int[][] packets, int count) {
+    if (!reserve(count)) {
+      return false;
+    }
+    for (int i = 0; i < count; i++) {
+      out_queue.offer(packets[i]);
+    }
+    front.requestWrite(this);
+    return true;
+  }
+
+  boolean reserve(int count) {
+    if (closed) {
+      return false;
+    }
+    if (pending.addAndGet(count) > MAX_PENDING_PACKETS) {
+      pending.addAndGet(-count);
+      send_refused = true;
+      GameLog.warn("too many pending packets", sessionID, playerID);
+      return false;
+    }
+    return true;
+  }
+
+  void onRead() {
+    int read;
+    try {
+      read = channel.read(in_buffer);
+    } catch (IOException e) {
+      read = -1;
+    }
+    if (read < 0) {
+      close();
+      return;
+    }
+    last_read = System.currentTimeMillis();
+
+    in_buffer.flip();
+    try {
+      parse();
+    } finally {
+      in_buffer.compact();
+    }
+
+    if (!closed && !in_buffer.hasRemaining()) {
+      GameLog.warn("too long string in query");
+      close();
+    }
+  }
+
+  void parse() {
+    while (!closed) {
+      switch (state) {
+        case STATE_REQUEST:
+        case STATE_HEADERS: {
+          String line = readLine();
+          if (line == null) {
+            return;
+          }
+          if (state == STATE_REQUEST) {
+            if (!onRequestLine(line)) {
+              close();
+              return;
+            }
+            state = STATE_HEADERS;
+          } else if (line.length() == 0) {
+            onHeadersEnd();
+          } else if (!onHeaderLine(line)) {
+            close();
+            return;
+          }
+        }
+        break;
+        case STATE_INPACKET: {
+          int result = in_codec.decode(in_buffer);
+          if (result == GfxPacketCodec.DECODE_NEED_MORE) {
+            return;
+          }
+          onInPacket(result == GfxPacketCodec.DECODE_PACKET);
+        }
+        break;
+        default: {
+          // nothing expected from the client anymore
+          in_buffer.position(in_buffer.limit());
+          return;
+        }
+      }
+    }
+  }
+
+  String readLine() {
+    int start = in_buffer.position();
+    int limit = in_buffer.limit();
+    for (int i = start; i < limit; i++) {
+      if (in_buffer.get(i) == '\n') {
+        int end = i;
+        if (end > start && in_buffer.get(end - 1) == '\r') {
+          end--;
+        }
+        char[] chars = new char[end - start];
+        for (int c = 0; c < chars.length; c++) {
+          chars[c] = (char) (in_buffer.get(start + c) & 0xFF);
+        }
+        in_buffer.position(i + 1);
+        return new String(chars);
+      }
+    }
+    return null;
+  }
+
+  boolean onRequestLine(String line) {
+    packet_number = null;
+    playerID = 0;
+    sessionID = -1;
+    bsg = null;
+    remote_session = false;
+
+    StringTokenizer st = new StringTokenizer(line, " ");
+    String version;
+    try {
+      st.nextToken();
+      command = st.nextToken();
+      version = st.nextToken().trim();
+    } catch (NoSuchElementException e) {
+      GameLog.warn("wrong request line", line);
+      return false;
+    }
+    command = command.toLowerCase().trim();
+    // persistent only on explicit request of the client, one-shot clients send HTTP/1.1 too
+    keep_alive = false;
+    http11 = version.equalsIgnoreCase("HTTP/1.1");
+    return true;
+  }
+
+  boolean onHeaderLine(String line) {
+    StringTokenizer st = new StringTokenizer(line, ":");
+    try {
+      String key = st.nextToken().trim();
+      String value = st.nextToken().trim();
+      if (key.equalsIgnoreCase("playerID")) {
+        try {
+          playerID = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+          GameLog.warn("wrong playerID field", value);
+          return false;
+        }
+      } else if (key.equalsIgnoreCase("pn")) {
+        packet_number = value;
+      } else if (key.equalsIgnoreCase("sessionID")) {
+        try {
+          sessionID = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+          GameLog.warn("wrong sessionID field", value);
+          return false;
+        }
+      } else if (key.equalsIgnoreCase(GameHTTPStream.PERSISTENT_HEADER)) {
+        keep_alive = value.equals("1") && http11;
+      } else if (key.equalsIgnoreCase("Connection")) {
+        if (value.equalsIgnoreCase("close")) {
+          keep_alive = false;
+        }
+      }
+    } catch (NoSuchElementException e) {
+      GameLog.warn("wrong header", line);
+      return false;
+    }
+    return true;
+  }
+
+  void onHeadersEnd() {
+    if (keep_alive && command.endsWith("/getinstream")) {
+      // persistent connection, the response is queued when the packet is read, a rejected
+      // packet is read and dropped to get the next request
+      remote_session = front.parent.isRemoteSession(sessionID);
+      if (!remote_session) {
+        bsg = front.parent.checkInStream(playerID, sessionID, packet_number);
+      }
+      state = STATE_INPACKET;
+      return;
+    }
+
+    out_preamble = ByteBuffer.wrap(HTTP_OK);
+
+    if (command.endsWith("/test")) {
+      closeAfterWrite();
+    } else if (command.endsWith("/metrics")) {
+      // rendered by worker, sessions are iterated off the selector thread
+      out_preamble = null;
+      state = STATE_CLOSING;
+      front.execute(new Runnable() {
+        public void run() {
+          out_preamble = ByteBuffer.wrap(front.parent.metricsResponse());
+          close_requested = true;
+          front.requestWrite(GameNIOConnection.this);
+        }
+      });
+    } else if (command.endsWith("/getinstream")) {
+      remote_session = front.parent.isRemoteSession(sessionID);
+      if (!remote_session) {
+        bsg = front.parent.checkInStream(playerID, sessionID, packet_number);
+      }
+      if (bsg == null && !remote_session) {
+        closeAfterWrite();
+      } else {
+        state = STATE_INPACKET;
+        flush();
+      }
+    } else if (command.endsWith("/getoutstream")) {
+      state = STATE_OUTSTREAM;
+      flush();
+      front.execute(new Runnable() {
+        public void run() {
+          attach();
+        }
+      });
+    } else {
+      GameLog.warn("unknown command", command);
+      closeAfterWrite();
+    }
+  }
+
+  void onInPacket(boolean checksum_ok) {
+    if (!checksum_ok) {
+      GameLog.warn("wrong checksum", sessionID, playerID);
+      front.parent.metrics.onChecksumFailure();
+      closeAfterWrite();
+      return;
+    }
+    int[] packet = in_codec.getPacket();
+    final int[] cmnd_buffer = new int[]{packet[0], packet[1], packet[2], packet[3]};
+    final BSGameSession session = bsg;
+    final boolean remote = remote_session;
+    // fields are changed by the next pipelined request
+    final int player = playerID;
+    final int sessionId = sessionID;
+    final String pn = packet_number;
+    // session is null for rejected packet of persistent connection
+    if (remote || session != null) {
+      submitInTask(new Runnable() {
+        public void run() {
+          if (remote) {
+            front.parent.forwardInPacket(player, sessionId, pn, cmnd_buffer);
+          } else {
+            front.parent.processInPacket(session, player, sessionId, pn, cmnd_buffer);
+          }
+        }
+      });
+    }
+    if (keep_alive) {
+      responses_due++;
+      state = STATE_REQUEST;
+      flush();
+    } else {
+      closeAfterWrite();
+    }
+  }
+
+  void submitInTask(Runnable task) {
+    in_tasks.offer(task);
+    if (in_tasks_wip.getAndIncrement() == 0) {
+      front.execute(new Runnable() {
+        public void run() {
+          runInTasks();
+        }
+      });
+    }
+  }
+
+  // called from worker thread, one at a time for the connection
+  void runInTasks() {
+    int missed = 1;
+    while (true) {
+      Runnable task;
+      while ((task = in_tasks.poll()) != null) {
+        try {
+          task.run();
+        } catch (Throwable e) {
+          // the next pipelined packets of the connection must still run
+          GameLog.error("error in connection task", e.toString());
+        }
+      }
+      missed = in_tasks_wip.addAndGet(-missed);
+      if (missed == 0) {
+        break;
+      }
+    }
+  }
+
+  // called from worker thread
+  void attach() {
+    if (!front.parent.attachOutStream(this)) {
+      close_requested = true;
+      front.requestWrite(this);
+      return;
+    }
+    boolean detach;
+    synchronized (this) {
+      detach = lost;
+      attached = !lost;
+    }
+    if (detach) {
+      front.parent.detachOutStream(this);
+    }
+  }
+
+  // called from the selector thread
+  boolean isIdle(long now) {
+    return keep_alive && (state == STATE_REQUEST || state == STATE_HEADERS)
+        && now - last_read >= GameHTTPStream.KEEP_ALIVE_TIMEOUT;
+  }
+
+  void closeAfterWrite() {
+    state = STATE_CLOSING;
+    close_after_write = true;
+    flush();
+  }
+
+  void flush() {
+    if (closed) {
+      return;
+    }
+    if (close_requested) {
+      state = STATE_CLOSING;
+      close_after_write = true;
+    }
+    try {
+      while (out_preamble != null || responses_due > 0) {
+        if (out_preamble == null) {
+          int count = Math.min(responses_due, RESPONSE_BATCH);
+          out_preamble = ByteBuffer.wrap(HTTP11_OK_BATCH, 0, count * HTTP11_OK.length);
+          responses_due -= count;
+        }
+        channel.write(out_preamble);
+        if (out_preamble.hasRemaining()) {
+          key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+          return;
+        }
+        out_preamble = null;
+      }
+      while (true) {
+        if (out_batch == null) {
+          // gather queued packets to write them by one call
+          int[] packet;
+          while (out_codec.hasRoom() && (packet = out_queue.poll()) != null) {
+            out_codec.add(packet);
+            pending.decrementAndGet();
+          }
+          if (out_codec.isEmpty()) {
+            break;
+          }
+          out_batch = out_codec.flip();
+        }
+        channel.write(out_batch);
+        if (out_batch.hasRemaining()) {
+          key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+          return;
+        }
+        out_codec.reset();
+        out_batch = null;
+      }
+      key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+      if (close_after_write) {
+        close();
+      } else if (send_refused) {
+        send_refused = false;
+        front.parent.resumeOutStream(this);
+      }
+    } catch (IOException e) {
+      close();
+    } catch (CancelledKeyException e) {
+      close();
+    }
+  }
+
+  void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    key.cancel();
+    try {
+      channel.close();
+    } catch (IOException e) {
+    }
+
+    boolean detach;
+    synchronized (this) {
+      lost = true;
+      detach = attached;
+      attached = false;
+    }
+    if (detach) {
+      front.parent.detachOutStream(this);
+      GameLog.info("connection lost", sessionID, playerID);
+    }
+  }
+}
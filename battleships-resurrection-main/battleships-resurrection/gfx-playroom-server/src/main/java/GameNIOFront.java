@@ -0,0 +1,158 @@
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Non-blocking front-end of the server. All connections are served by one selector thread,
+ * only parsed requests are passed to worker threads so that idle /getoutstream connections
+ * don't hold any thread.
+ */
+public class GameNIOFront {
+
+  GameHTTPServer parent = null;
+  ServerSocketChannel server_channel = null;
+  Selector selector = null;
+  ExecutorService workers = null;
+
+  final ConcurrentLinkedQueue<GameNIOConnection> write_requests = new ConcurrentLinkedQueue<GameNIOConnection>();
+
+  volatile boolean work_flag = true;
+
+  // period of search for idle persistent connections
+  static final long IDLE_CHECK_INTERVAL = 1000L;
+  long next_idle_check = 0;
+
+  public GameNIOFront(int port, GameHTTPServer parent) throws IOException {
+    this.parent = parent;
+    selector = Selector.open();
+    server_channel = ServerSocketChannel.open();
+    server_channel.configureBlocking(false);
+    server_channel.bind(new InetSocketAddress(port), 1024);
+    server_channel.register(selector, SelectionKey.OP_ACCEPT);
+
+    workers = Executors.newCachedThreadPool(new ThreadFactory() {
+      int counter = 0;
+
+      public synchronized Thread newThread(Runnable task) {
+        Thread thread = new Thread(task, "nio-worker-" + (counter++));
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  void execute(Runnable task) {
+    try {
+      workers.execute(task);
+    } catch (RejectedExecutionException e) {
+      // server is stopping
+    }
+  }
+
+  // called from any thread when connection has data to write
+  void requestWrite(GameNIOConnection conn) {
+    write_requests.offer(conn);
+    selector.wakeup();
+  }
+
+  void accept() {
+    while (true) {
+      SocketChannel channel = null;
+      try {
+        channel = server_channel.accept();
+        if (channel == null) {
+          return;
+        }
+        parent.metrics.onAccept();
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new GameNIOConnection(channel, key, this));
+      } catch (IOException e) {
+        GameLog.warn("error of accepting connection", e.getMessage());
+        try {
+          if (channel != null) {
+            channel.close();
+          }
+        } catch (IOException ee) {
+        }
+        return;
+      }
+    }
+  }
+
+  public void run() {
+    try {
+      while (work_flag) {
+        selector.select(IDLE_CHECK_INTERVAL);
+
+        GameNIOConnection conn;
+        while ((conn = write_requests.poll()) != null) {
+          conn.flush();
+        }
+
+        Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+        while (iter.hasNext()) {
+          SelectionKey key = iter.next();
+          iter.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept();
+          } else {
+            conn = (GameNIOConnection) key.attachment();
+            if (key.isReadable()) {
+              conn.onRead();
+            }
+            if (key.isValid() && key.isWritable()) {
+              conn.flush();
+            }
+          }
+        }
+
+        long now = System.currentTimeMillis();
+        if (now >= next_idle_check) {
+          next_idle_check = now + IDLE_CHECK_INTERVAL;
+          closeIdle(now);
+        }
+      }
+    } catch (IOException e) {
+      GameLog.error("error in selector loop", e.getMessage());
+    } catch (ClosedSelectorException e) {
+    } finally {
+      try {
+        for (SelectionKey key : selector.keys()) {
+          if (key.attachment() instanceof GameNIOConnection) {
+            ((GameNIOConnection) key.attachment()).close();
+          }
+        }
+        selector.close();
+      } catch (Exception e) {
+      }
+      try {
+        server_channel.close();
+      } catch (IOException e) {
+      }
+    }
+  }
+
+  void closeIdle(long now) {
+    for (SelectionKey key : selector.keys()) {
+      if (key.attachment() instanceof GameNIOConnection) {
+        GameNIOConnection conn = (GameNIOConnection) key.attachment();
+        if (conn.isIdle(now)) {
+          conn.close();
+        }
+      }
+    }
+  }
+
+  public void stop() {
+    work_flag = false;
+    workers.shutdownNow();
+    selector.wakeup();
+  }
+}
@@ -0,0 +1,153 @@
+import java.util.concurrent.*;
+
+/**
+ * Hashed timing wheel. A timeout is placed into the bucket of its deadline tick and the wheel
+ * thread visits one bucket per tick, so the cost depends on the number of expiring timeouts,
+ * not on the number of scheduled ones. Tasks are executed on the wheel thread and must not block.
+ */
+public class GameTimerWheel extends Thread {
+
+  public static final class Timeout {
+    final GameTimerWheel wheel;
+    final Runnable task;
+    final long deadline;
+    long rounds = 0;
+    int bucket = -1;
+    Timeout prev = null;
+    Timeout next = null;
+    volatile boolean cancelled = false;
+
+    Timeout(GameTimerWheel wheel, Runnable task, long deadline) {
+      this.wheel = wheel;
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    public void cancel() {
+      if (!cancelled) {
+        cancelled = true;
+        wheel.cancelled_timeouts.offer(this);
+      }
+    }
+
+    public boolean isCancelled() {
+      return cancelled;
+    }
+  }
+
+  final long tick_nanos;
+  final Timeout[] buckets;
+  final int mask;
+  final ConcurrentLinkedQueue<Timeout> new_timeouts = new ConcurrentLinkedQueue<Timeout>();
+  final ConcurrentLinkedQueue<Timeout> cancelled_timeouts = new ConcurrentLinkedQueue<Timeout>();
+
+  long start_time;
+  long tick = 0;
+  volatile boolean work_flag = true;
+
+  // wheel_size must be power of two
+  public GameTimerWheel(String name, long tick_ms, int wheel_size) {
+    super(name);
+    tick_nanos = TimeUnit.MILLISECONDS.toNanos(tick_ms);
+    buckets = new Timeout[wheel_size];
+    mask = wheel_size - 1;
+    setDaemon(true);
+  }
+
+  public Timeout schedule(Runnable task, long delay_ms) {
+    Timeout timeout = new Timeout(this, task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay_ms));
+    new_timeouts.offer(timeout);
+    return timeout;
+  }
+
+  public void stopWheel() {
+    work_flag = false;
+    interrupt();
+  }
+
+  public void run() {
+    start_time = System.nanoTime();
+    while (work_flag) {
+      long sleep_nanos = start_time + (tick + 1) * tick_nanos - System.nanoTime();
+      if (sleep_nanos > 0) {
+        try {
+          Thread.sleep(TimeUnit.NANOSECONDS.toMillis(sleep_nanos) + 1);
+        } catch (InterruptedException e) {
+          if (!work_flag) {
+            return;
+          }
+        }
+        continue;
+      }
+
+      removeCancelled();
+      transferNew();
+      expire((int) (tick & mask));
+      tick++;
+    }
+  }
+
+  void transferNew() {
+    Timeout timeout;
+    while ((timeout = new_timeouts.poll()) != null) {
+      if (timeout.cancelled) {
+        continue;
+      }
+      long target = (timeout.deadline - start_time) / tick_nanos;
+      if (target < tick) {
+        target = tick;
+      }
+      timeout.rounds = (target - tick) / buckets.length;
+      timeout.bucket = (int) (target & mask);
+      timeout.prev = null;
+      timeout.next = buckets[timeout.bucket];
+      if (timeout.next != null) {
+        timeout.next.prev = timeout;
+      }
+      buckets[timeout.bucket] = timeout;
+    }
+  }
+
+  void removeCancelled() {
+    Timeout timeout;
+    while ((timeout = cancelled_timeouts.poll()) != null) {
+      if (timeout.bucket >= 0) {
+        unlink(timeout);
+      }
+    }
+  }
+
+  void unlink(Timeout timeout) {
+    if (timeout.prev != null) {
+      timeout.prev.next = timeout.next;
+    } else {
+      buckets[timeout.bucket] = timeout.next;
+    }
+    if (timeout.next != null) {
+      timeout.next.prev = timeout.prev;
+    }
+    timeout.prev = null;
+    timeout.next = null;
+    timeout.bucket = -1;
+  }
+
+  void expire(int bucket) {
+    Timeout timeout = buckets[bucket];
+    while (timeout != null) {
+      Timeout next = timeout.next;
+      if (timeout.rounds <= 0) {
+        unlink(timeout);
+        if (!timeout.cancelled) {
+          try {
+            timeout.task.run();
+          } catch (Throwable e) {
+            GameLog.error("error in timer task", e.toString());
+          }
+        }
+      } else {
+        timeout.rounds--;
+      }
+      timeout = next;
+    }
+  }
+}
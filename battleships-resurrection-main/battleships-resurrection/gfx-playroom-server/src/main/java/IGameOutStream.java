@@ -0,0 +1,27 @@
+/**
+ * Opened /getoutstream of a player, packets for the player are written into it.
+ */
+public interface IGameOutStream {
+
+  int getPlayerID();
+
+  int getSessionID();
+
+  void setSessionID(int sessionID);
+
+  /**
+   * Send packet of 4 ints, header and checksum are added by the stream.
+   *
+   * @return false if the packet can't be sent and the stream is broken
+   */
+  boolean sendPacket(int[] packet);
+
+  /**
+   * Send several packets gathered into one write.
+   *
+   * @param packets packets of 4 ints, only first count ones are sent
+   * @param count   number of packets to send
+   * @return false if the packets can't be sent and the stream is broken
+   */
+  boolean sendPackets(int[][] packets, int count);
+}
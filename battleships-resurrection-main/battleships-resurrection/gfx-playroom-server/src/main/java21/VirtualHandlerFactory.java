@@ -0,0 +1,14 @@
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Factory of virtual threads for GameHTTPStream handlers, compiled only by the loom profile.
+ */
+public final class VirtualHandlerFactory {
+
+  private VirtualHandlerFactory() {
+  }
+
+  public static ThreadFactory create(String prefix) {
+    return Thread.ofVirtual().name(prefix, 0).factory();
+  }
+}